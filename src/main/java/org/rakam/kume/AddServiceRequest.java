@@ -13,11 +13,14 @@
  */
 package org.rakam.kume;
 
+import com.google.auto.service.AutoService;
 import org.rakam.kume.transport.OperationContext;
 import org.rakam.kume.service.Service;
 import org.rakam.kume.service.ServiceConstructor;
 import org.rakam.kume.transport.Request;
 
+@KryoSerializable(id = 101)
+@AutoService(KryoSerializable.class)
 public class AddServiceRequest implements Request<InternalService, Boolean>
 {
     String finalName;
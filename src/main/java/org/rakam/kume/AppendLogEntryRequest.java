@@ -1,5 +1,6 @@
 package org.rakam.kume;
 
+import com.google.auto.service.AutoService;
 import org.rakam.kume.transport.OperationContext;
 import org.rakam.kume.transport.Request;
 
@@ -10,6 +11,8 @@ import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 
+@KryoSerializable(id = 102)
+@AutoService(KryoSerializable.class)
 public class AppendLogEntryRequest<R> implements Request<InternalService, Boolean> {
     private final Request request;
     private final int serviceId;
@@ -64,6 +67,8 @@ public class AppendLogEntryRequest<R> implements Request<InternalService, Boolea
         }
     }
 
+    @KryoSerializable(id = 103)
+    @AutoService(KryoSerializable.class)
     public static class UncommittedLogRequest implements Request<InternalService, Boolean> {
         long index;
         Request request;
@@ -79,6 +84,8 @@ public class AppendLogEntryRequest<R> implements Request<InternalService, Boolea
             ctx.reply(true);
         }
     }
+    @KryoSerializable(id = 104)
+    @AutoService(KryoSerializable.class)
     public static class CommitLogRequest implements Request<InternalService, Boolean> {
         private final int serviceId;
         long index;
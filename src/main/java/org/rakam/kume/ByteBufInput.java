@@ -3,13 +3,23 @@ package org.rakam.kume;
 import com.esotericsoftware.kryo.KryoException;
 import com.esotericsoftware.kryo.io.Input;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufProcessor;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 
+/**
+ * Reads the data that is written by {@link ByteBufOutput} or Kryo's Output from a heap or a direct Netty buffer.
+ */
 public class ByteBufInput extends Input {
+    // the last byte of an ASCII string has bit 8 set.
+    private static final ByteBufProcessor FIND_ASCII_END = value -> value >= 0;
+
     private final ByteBuf byteBuf;
+    private byte[] bytes;
 
     public ByteBufInput(ByteBuf byteBuf) {
         super();
@@ -28,7 +38,8 @@ public class ByteBufInput extends Input {
 
     @Override
     public byte[] getBuffer() {
-        return byteBuf.array();
+        // the pooled allocator usually returns direct buffers that don't have a backing array.
+        throw new UnsupportedOperationException();
     }
 
     @Override
@@ -78,40 +89,47 @@ public class ByteBufInput extends Input {
 
     @Override
     protected int require(int required) throws KryoException {
-        return byteBuf.readerIndex();
+        int remaining = byteBuf.readableBytes();
+        if (remaining < required) {
+            throw new KryoException("Buffer underflow.");
+        }
+        return remaining;
     }
 
     @Override
     public boolean eof() {
-        throw new UnsupportedOperationException();
+        return !byteBuf.isReadable();
     }
 
     @Override
     public int available() throws IOException {
-        throw new UnsupportedOperationException();
+        return byteBuf.readableBytes();
     }
 
     @Override
     public int read() throws KryoException {
-        return byteBuf.readByte();
+        return byteBuf.isReadable() ? byteBuf.readUnsignedByte() : -1;
     }
 
     @Override
     public int read(byte[] bytes) throws KryoException {
-        byteBuf.readBytes(bytes);
-        return bytes.length;
+        return read(bytes, 0, bytes.length);
     }
 
     @Override
     public int read(byte[] bytes, int offset, int count) throws KryoException {
+        if (!byteBuf.isReadable()) {
+            return -1;
+        }
+        count = Math.min(count, byteBuf.readableBytes());
         byteBuf.readBytes(bytes, offset, count);
-        return bytes.length;
+        return count;
     }
 
     @Override
     public long skip(long count) throws KryoException {
         byteBuf.skipBytes((int) count);
-        return byteBuf.readerIndex();
+        return count;
     }
 
     @Override
@@ -131,7 +149,9 @@ public class ByteBufInput extends Input {
 
     @Override
     public byte[] readBytes(int length) throws KryoException {
-        return byteBuf.readBytes(length).array();
+        byte[] bytes = new byte[length];
+        byteBuf.readBytes(bytes);
+        return bytes;
     }
 
     @Override
@@ -151,31 +171,78 @@ public class ByteBufInput extends Input {
 
     @Override
     public int readInt(boolean optimizePositive) throws KryoException {
-        return byteBuf.readInt();
+        return readVarInt(optimizePositive);
     }
 
     @Override
     public int readVarInt(boolean optimizePositive) throws KryoException {
-        return byteBuf.readInt();
+        if (byteBuf.readableBytes() < 5) {
+            return readVarInt_slow(optimizePositive);
+        }
+        // the bytes are available so they're read without moving the reader index for each of them.
+        int index = byteBuf.readerIndex();
+        int b = byteBuf.getByte(index++);
+        int result = b & 0x7F;
+        if ((b & 0x80) != 0) {
+            b = byteBuf.getByte(index++);
+            result |= (b & 0x7F) << 7;
+            if ((b & 0x80) != 0) {
+                b = byteBuf.getByte(index++);
+                result |= (b & 0x7F) << 14;
+                if ((b & 0x80) != 0) {
+                    b = byteBuf.getByte(index++);
+                    result |= (b & 0x7F) << 21;
+                    if ((b & 0x80) != 0) {
+                        b = byteBuf.getByte(index++);
+                        result |= (b & 0x7F) << 28;
+                    }
+                }
+            }
+        }
+        byteBuf.readerIndex(index);
+        return optimizePositive ? result : ((result >>> 1) ^ -(result & 1));
+    }
+
+    private int readVarInt_slow(boolean optimizePositive) {
+        int result = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = byteBuf.readByte();
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) break;
+        }
+        return optimizePositive ? result : ((result >>> 1) ^ -(result & 1));
     }
 
     @Override
     public boolean canReadInt() throws KryoException {
-        return byteBuf.readableBytes() >= 4;
+        return canReadVarint(5);
     }
 
     @Override
     public boolean canReadLong() throws KryoException {
-        return byteBuf.readableBytes() >= 8;
+        return canReadVarint(9);
+    }
+
+    private boolean canReadVarint(int maxLength) {
+        int readable = byteBuf.readableBytes();
+        if (readable >= maxLength) {
+            return true;
+        }
+        int index = byteBuf.readerIndex();
+        for (int i = 0; i < readable; i++) {
+            if ((byteBuf.getByte(index + i) & 0x80) == 0) return true;
+        }
+        return false;
     }
 
     @Override
     public String readString() {
-        int available = require(1);
-        int b = byteBuf.readByte();
-//        if ((b & 0x80) == 0) return readAscii(); // ASCII.
-//        Null, empty, or UTF8.
-        int charCount = available >= 5 ? readUtf8Length(b) : readUtf8Length_slow(b);
+        require(1);
+        int b = byteBuf.getByte(byteBuf.readerIndex());
+        if ((b & 0x80) == 0) return readAscii(); // ASCII.
+        // Null, empty, or UTF8.
+        byteBuf.skipBytes(1);
+        int charCount = readUtf8Length(b);
         switch (charCount) {
             case 0:
                 return null;
@@ -188,6 +255,21 @@ public class ByteBufInput extends Input {
         return new String(chars, 0, charCount);
     }
 
+    private String readAscii() {
+        int start = byteBuf.readerIndex();
+        int end = byteBuf.forEachByte(FIND_ASCII_END);
+        if (end == -1) {
+            throw new KryoException("Buffer underflow.");
+        }
+        int length = end - start + 1;
+        if (bytes == null || bytes.length < length) bytes = new byte[length];
+        // the chars are copied at once, ISO-8859-1 maps each byte to the same char.
+        byteBuf.getBytes(start, bytes, 0, length);
+        bytes[length - 1] &= 0x7F;
+        byteBuf.readerIndex(end + 1);
+        return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+    }
+
     private int readUtf8Length (int b) {
         int result = b & 0x3F; // Mask all but first 6 bits.
         if ((b & 0x40) != 0) { // Bit 7 means another byte, bit 8 means UTF8.
@@ -213,16 +295,15 @@ public class ByteBufInput extends Input {
         char[] chars = this.chars;
         // Try to read 7 bit ASCII chars.
         int charIndex = 0;
-        int count = Math.min(require(1), charCount);
-        int b;
+        int count = Math.min(byteBuf.readableBytes(), charCount);
+        int index = byteBuf.readerIndex();
         while (charIndex < count) {
-            b = byteBuf.readByte();
-            if (b < 0) {
-                byteBuf.readerIndex(byteBuf.readerIndex()-1);
-                break;
-            }
+            int b = byteBuf.getByte(index);
+            if (b < 0) break;
+            index++;
             chars[charIndex++] = (char)b;
         }
+        byteBuf.readerIndex(index);
         // If buffer didn't hold all chars or any were not ASCII, use slow path for remainder.
         if (charIndex < charCount) readUtf8_slow(charCount, charIndex);
     }
@@ -230,7 +311,6 @@ public class ByteBufInput extends Input {
     private void readUtf8_slow (int charCount, int charIndex) {
         char[] chars = this.chars;
         while (charIndex < charCount) {
-            if (byteBuf.readableBytes() == 0) require(1);
             int b = byteBuf.readByte() & 0xFF;
             switch (b >> 4) {
                 case 0:
@@ -245,7 +325,6 @@ public class ByteBufInput extends Input {
                     break;
                 case 12:
                 case 13:
-                    if (byteBuf.readableBytes() == 0) require(1);
                     chars[charIndex] = (char)((b & 0x1F) << 6 | byteBuf.readByte() & 0x3F);
                     break;
                 case 14:
@@ -257,50 +336,10 @@ public class ByteBufInput extends Input {
         }
     }
 
-    private int readUtf8Length_slow (int b) {
-        int result = b & 0x3F; // Mask all but first 6 bits.
-        if ((b & 0x40) != 0) { // Bit 7 means another byte, bit 8 means UTF8.
-            require(1);
-            b = byteBuf.readByte();
-            result |= (b & 0x7F) << 6;
-            if ((b & 0x80) != 0) {
-                require(1);
-                b = byteBuf.readByte();
-                result |= (b & 0x7F) << 13;
-                if ((b & 0x80) != 0) {
-                    require(1);
-                    b = byteBuf.readByte();
-                    result |= (b & 0x7F) << 20;
-                    if ((b & 0x80) != 0) {
-                        require(1);
-                        b = byteBuf.readByte();
-                        result |= (b & 0x7F) << 27;
-                    }
-                }
-            }
-        }
-        return result;
-    }
-
     @Override
     public StringBuilder readStringBuilder() {
-        int available = require(1);
-        int b = byteBuf.readByte();
-//        if ((b & 0x80) == 0) return new StringBuilder(readAscii()); // ASCII.
-        // Null, empty, or UTF8.
-        int charCount = available >= 5 ? readUtf8Length(b) : readUtf8Length_slow(b);
-        switch (charCount) {
-            case 0:
-                return null;
-            case 1:
-                return new StringBuilder("");
-        }
-        charCount--;
-        if (chars.length < charCount) chars = new char[charCount];
-        readUtf8(charCount);
-        StringBuilder builder = new StringBuilder(charCount);
-        builder.append(chars, 0, charCount);
-        return builder;
+        String value = readString();
+        return value == null ? null : new StringBuilder(value);
     }
 
     @Override
@@ -310,7 +349,7 @@ public class ByteBufInput extends Input {
 
     @Override
     public float readFloat(float precision, boolean optimizePositive) throws KryoException {
-        return byteBuf.readFloat();
+        return readVarInt(optimizePositive) / precision;
     }
 
     @Override
@@ -330,12 +369,23 @@ public class ByteBufInput extends Input {
 
     @Override
     public long readLong(boolean optimizePositive) throws KryoException {
-        return byteBuf.readLong();
+        return readVarLong(optimizePositive);
     }
 
     @Override
     public long readVarLong(boolean optimizePositive) throws KryoException {
-        return byteBuf.readLong();
+        long result = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = byteBuf.readByte();
+            if (shift == 56) {
+                // Kryo writes at most 9 bytes, the ninth byte holds the remaining 8 bits.
+                result |= (long) (b & 0xFF) << 56;
+                break;
+            }
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) break;
+        }
+        return optimizePositive ? result : ((result >>> 1) ^ -(result & 1));
     }
 
     @Override
@@ -355,7 +405,78 @@ public class ByteBufInput extends Input {
 
     @Override
     public double readDouble(double precision, boolean optimizePositive) throws KryoException {
-        return byteBuf.readDouble();
+        return readVarLong(optimizePositive) / precision;
+    }
+
+    @Override
+    public int[] readInts(int length, boolean optimizePositive) throws KryoException {
+        int[] array = new int[length];
+        for (int i = 0; i < length; i++) {
+            array[i] = readVarInt(optimizePositive);
+        }
+        return array;
+    }
+
+    @Override
+    public long[] readLongs(int length, boolean optimizePositive) throws KryoException {
+        long[] array = new long[length];
+        for (int i = 0; i < length; i++) {
+            array[i] = readVarLong(optimizePositive);
+        }
+        return array;
+    }
+
+    @Override
+    public int[] readInts(int length) throws KryoException {
+        int[] array = new int[length];
+        consume(length * 4).asIntBuffer().get(array);
+        return array;
+    }
+
+    @Override
+    public long[] readLongs(int length) throws KryoException {
+        long[] array = new long[length];
+        consume(length * 8).asLongBuffer().get(array);
+        return array;
+    }
+
+    @Override
+    public float[] readFloats(int length) throws KryoException {
+        float[] array = new float[length];
+        consume(length * 4).asFloatBuffer().get(array);
+        return array;
+    }
+
+    @Override
+    public double[] readDoubles(int length) throws KryoException {
+        double[] array = new double[length];
+        consume(length * 8).asDoubleBuffer().get(array);
+        return array;
+    }
+
+    @Override
+    public short[] readShorts(int length) throws KryoException {
+        short[] array = new short[length];
+        consume(length * 2).asShortBuffer().get(array);
+        return array;
+    }
+
+    @Override
+    public char[] readChars(int length) throws KryoException {
+        char[] array = new char[length];
+        consume(length * 2).asCharBuffer().get(array);
+        return array;
     }
 
+    /**
+     * Moves the reader index after the given number of bytes and returns a big endian view of them,
+     * the primitive arrays are copied from the view at once.
+     */
+    private ByteBuffer consume(int length) {
+        require(length);
+        int index = byteBuf.readerIndex();
+        ByteBuffer buffer = byteBuf.nioBuffer(index, length);
+        byteBuf.readerIndex(index + length);
+        return buffer;
+    }
 }
@@ -7,14 +7,20 @@ import io.netty.buffer.ByteBuf;
 import org.rakam.kume.util.NotImplementedException;
 
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 /**
  * A proxy serializer for Kryo to write the output into Netty buffers.
- * I'm not sure whether this is a good idea or not but if use Kryo's Output when when writing data to Netty's buffer
- * we have to clear the buffers of the Output for every object that we serialize which is an expensive operation.
- * However; this proxy class directly writes the data into Netty's buffers.
+ * If we used Kryo's Output when writing data to Netty's buffers we would have to copy the buffer of the Output
+ * for every object that we serialize, this proxy class directly writes the data into Netty's buffers instead.
+ * The output uses the same format as Kryo's Output so it can be read by both {@link ByteBufInput} and Kryo's Input,
+ * except that all the ASCII strings are written as 7 bit chars while Kryo only does that for the short ones.
+ * The buffer may be a heap or a direct buffer.
  */
 public class ByteBufOutput extends Output {
+    // the bulk writes reserve space for this many elements at a time so that large arrays don't over-allocate.
+    private static final int BULK_CHUNK = 1024;
+
     private final ByteBuf byteBuf;
 
     public ByteBufOutput(ByteBuf byteBuf) {
@@ -44,7 +50,8 @@ public class ByteBufOutput extends Output {
 
     @Override
     public byte[] getBuffer() {
-        return byteBuf.array();
+        // the pooled allocator usually returns direct buffers that don't have a backing array.
+        throw new NotImplementedException("the output is written into a ByteBuf");
     }
 
     @Override
@@ -74,7 +81,8 @@ public class ByteBufOutput extends Output {
 
     @Override
     protected boolean require(int required) throws KryoException {
-        return byteBuf.writableBytes() >= required;
+        byteBuf.ensureWritable(required);
+        return true;
     }
 
     @Override
@@ -129,71 +137,143 @@ public class ByteBufOutput extends Output {
 
     @Override
     public int writeInt(int value, boolean optimizePositive) throws KryoException {
-        // The ByteBuf we usually act as a proxy of unsafe.putInt, however Kryo use more sophisticated algorithm.
-        // I don't know whether writing data to unsafe buffers byte by byte is better compared to unsafe.putInt so
-        // we may test it in the future.
-        byteBuf.writeInt(value);
-        return 4;
+        return writeVarInt(value, optimizePositive);
     }
 
     @Override
     public int writeVarInt(int value, boolean optimizePositive) throws KryoException {
-        byteBuf.writeInt(value);
-        return 4;
+        if (!optimizePositive) value = (value << 1) ^ (value >> 31);
+        // each group of 7 bits is a byte, the bytes are combined so that the buffer is accessed once.
+        if (value >>> 7 == 0) {
+            byteBuf.writeByte(value);
+            return 1;
+        }
+        int b0 = value & 0x7F | 0x80;
+        if (value >>> 14 == 0) {
+            byteBuf.writeShort(b0 << 8 | value >>> 7);
+            return 2;
+        }
+        int b1 = value >>> 7 & 0x7F | 0x80;
+        if (value >>> 21 == 0) {
+            byteBuf.writeMedium(b0 << 16 | b1 << 8 | value >>> 14);
+            return 3;
+        }
+        int b2 = value >>> 14 & 0x7F | 0x80;
+        if (value >>> 28 == 0) {
+            byteBuf.writeInt(b0 << 24 | b1 << 16 | b2 << 8 | value >>> 21);
+            return 4;
+        }
+        byteBuf.ensureWritable(5);
+        byteBuf.writeInt(b0 << 24 | b1 << 16 | b2 << 8 | value >>> 21 & 0x7F | 0x80);
+        byteBuf.writeByte(value >>> 28);
+        return 5;
     }
 
     @Override
-    public void writeString(String value) throws KryoException {
-        writeString((CharSequence)value);
+    public int writeVarLong(long value, boolean optimizePositive) throws KryoException {
+        if (!optimizePositive) value = (value << 1) ^ (value >> 63);
+        byteBuf.ensureWritable(9);
+        int start = byteBuf.writerIndex();
+        int end = setVarLong(start, value);
+        byteBuf.writerIndex(end);
+        return end - start;
+    }
+
+    private int setVarInt(int index, int value) {
+        while ((value & ~0x7F) != 0) {
+            byteBuf.setByte(index++, value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        byteBuf.setByte(index++, value);
+        return index;
     }
 
+    /** Kryo writes at most 9 bytes, the ninth byte holds the remaining 8 bits. */
+    private int setVarLong(int index, long value) {
+        int end = index + 8;
+        while ((value & ~0x7FL) != 0 && index < end) {
+            byteBuf.setByte(index++, (int) value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        byteBuf.setByte(index++, (int) value);
+        return index;
+    }
+
+    @Override
+    public void writeString(String value) throws KryoException {
+        writeString((CharSequence) value);
+    }
 
     public int capacity() {
         return byteBuf.capacity();
     }
 
-    private void writeString_slow (CharSequence value, int charCount, int charIndex) {
-        for (; charIndex < charCount; charIndex++) {
-            if (position() == capacity()) require(Math.min(capacity(), charCount - charIndex));
+    /**
+     * Writes the string as 7 bit chars if it only contains ASCII chars, the last byte has bit 8 set to mark the end.
+     * The chars are written after the writer index and the writer index is only moved if all of them are ASCII.
+     */
+    private boolean writeAscii(CharSequence value, int charCount) {
+        byteBuf.ensureWritable(charCount);
+        int index = byteBuf.writerIndex();
+        if (byteBuf.hasArray()) {
+            byte[] array = byteBuf.array();
+            int offset = byteBuf.arrayOffset() + index;
+            for (int i = 0; i < charCount; i++) {
+                char c = value.charAt(i);
+                if (c > 127) return false;
+                array[offset + i] = (byte) c;
+            }
+            array[offset + charCount - 1] |= 0x80;
+        } else {
+            for (int i = 0; i < charCount; i++) {
+                char c = value.charAt(i);
+                if (c > 127) return false;
+                byteBuf.setByte(index + i, c);
+            }
+            byteBuf.setByte(index + charCount - 1, value.charAt(charCount - 1) | 0x80);
+        }
+        byteBuf.writerIndex(index + charCount);
+        return true;
+    }
+
+    private void writeUtf8(CharSequence value, int charCount) {
+        writeUtf8Length(charCount + 1);
+        byteBuf.ensureWritable(charCount * 3);
+        int index = byteBuf.writerIndex();
+        for (int charIndex = 0; charIndex < charCount; charIndex++) {
             int c = value.charAt(charIndex);
             if (c <= 0x007F) {
-                write(c);
+                byteBuf.setByte(index++, c);
             } else if (c > 0x07FF) {
-                write((0xE0 | c >> 12 & 0x0F));
-                require(2);
-                write(0x80 | c >> 6 & 0x3F);
-                write(0x80 | c & 0x3F);
+                byteBuf.setByte(index++, 0xE0 | c >> 12 & 0x0F);
+                byteBuf.setByte(index++, 0x80 | c >> 6 & 0x3F);
+                byteBuf.setByte(index++, 0x80 | c & 0x3F);
             } else {
-                write(0xC0 | c >> 6 & 0x1F);
-                require(1);
-                write(0x80 | c & 0x3F);
+                byteBuf.setByte(index++, 0xC0 | c >> 6 & 0x1F);
+                byteBuf.setByte(index++, 0x80 | c & 0x3F);
             }
         }
+        byteBuf.writerIndex(index);
     }
 
     /** Writes the length of a string, which is a variable length encoded int except the first byte uses bit 8 to denote UTF8 and
      * bit 7 to denote if another byte is present. */
     private void writeUtf8Length (int value) {
         if (value >>> 6 == 0) {
-            require(1);
             write(value | 0x80); // Set bit 8.
         } else if (value >>> 13 == 0) {
-            require(2);
             write(value | 0x40 | 0x80); // Set bit 7 and 8.
             write(value >>> 6);
         } else if (value >>> 20 == 0) {
-            require(3);
             write(value | 0x40 | 0x80); // Set bit 7 and 8.
             write((value >>> 6) | 0x80); // Set bit 8.
             write(value >>> 13);
         } else if (value >>> 27 == 0) {
-            require(4);
             write(value | 0x40 | 0x80); // Set bit 7 and 8.
             write((value >>> 6) | 0x80); // Set bit 8.
             write((value >>> 13) | 0x80); // Set bit 8.
             write(value >>> 20);
         } else {
-            require(5);
             write(value | 0x40 | 0x80); // Set bit 7 and 8.
             write((value >>> 6) | 0x80); // Set bit 8.
             write((value >>> 13) | 0x80); // Set bit 8.
@@ -213,44 +293,20 @@ public class ByteBufOutput extends Output {
             writeByte(1 | 0x80); // 1 means empty string, bit 8 means UTF8.
             return;
         }
-        // TODO: For now, treat all strings as UTF.
-        // Detect ASCII.
-//        boolean ascii = false;
-//        if (charCount > 1 && charCount < 64) {
-//            ascii = true;
-//            for (int i = 0; i < charCount; i++) {
-//                int c = value.charAt(i);
-//                if (c > 127) {
-//                    ascii = false;
-//                    break;
-//                }
-//            }
-//        }
-//        if (ascii) {
-//            if (capacity() - position() < charCount)
-//                writeAscii_slow(value, charCount);
-//            else {
-//                value.getBytes(0, charCount, buffer, position);
-//            }
-//            buffer[position() - 1] |= 0x80;
-//        } else {
-        writeUtf8Length(charCount + 1);
-        int charIndex = 0;
-        if (capacity() - position() >= charCount) {
-            // Try to write 8 bit chars.
-            for (; charIndex < charCount; charIndex++) {
-                int c = value.charAt(charIndex);
-                if (c > 127) break;
-                write(c);
-            }
+        // a single char can't be written as ASCII, its byte would have bit 8 set and be read as the UTF8 length.
+        if (charCount > 1 && writeAscii(value, charCount)) {
+            return;
         }
-        if (charIndex < charCount) writeString_slow(value, charCount, charIndex);
-//        }
+        writeUtf8(value, charCount);
     }
 
     @Override
     public void writeAscii(String value) throws KryoException {
-        writeString((CharSequence)value);
+        if (value == null || value.length() < 2) {
+            writeString((CharSequence) value);
+        } else if (!writeAscii(value, value.length())) {
+            writeUtf8(value, value.length());
+        }
     }
 
     @Override
@@ -260,8 +316,7 @@ public class ByteBufOutput extends Output {
 
     @Override
     public int writeFloat(float value, float precision, boolean optimizePositive) throws KryoException {
-        byteBuf.writeFloat(value);
-        return 4;
+        return writeVarInt((int) (value * precision), optimizePositive);
     }
 
     @Override
@@ -276,14 +331,7 @@ public class ByteBufOutput extends Output {
 
     @Override
     public int writeLong(long value, boolean optimizePositive) throws KryoException {
-        byteBuf.writeLong(value);
-        return 8;
-    }
-
-    @Override
-    public int writeVarLong(long value, boolean optimizePositive) throws KryoException {
-        byteBuf.writeLong(value);
-        return 8;
+        return writeVarLong(value, optimizePositive);
     }
 
     @Override
@@ -303,8 +351,110 @@ public class ByteBufOutput extends Output {
 
     @Override
     public int writeDouble(double value, double precision, boolean optimizePositive) throws KryoException {
-        byteBuf.writeDouble(value);
-        return 8;
+        return writeVarLong((long) (value * precision), optimizePositive);
     }
 
+    @Override
+    public void writeInts(int[] object, boolean optimizePositive) throws KryoException {
+        for (int i = 0; i < object.length; i += BULK_CHUNK) {
+            int end = Math.min(object.length, i + BULK_CHUNK);
+            byteBuf.ensureWritable((end - i) * 5);
+            int index = byteBuf.writerIndex();
+            for (int j = i; j < end; j++) {
+                int value = object[j];
+                index = setVarInt(index, optimizePositive ? value : (value << 1) ^ (value >> 31));
+            }
+            byteBuf.writerIndex(index);
+        }
+    }
+
+    @Override
+    public void writeLongs(long[] object, boolean optimizePositive) throws KryoException {
+        for (int i = 0; i < object.length; i += BULK_CHUNK) {
+            int end = Math.min(object.length, i + BULK_CHUNK);
+            byteBuf.ensureWritable((end - i) * 9);
+            int index = byteBuf.writerIndex();
+            for (int j = i; j < end; j++) {
+                long value = object[j];
+                index = setVarLong(index, optimizePositive ? value : (value << 1) ^ (value >> 63));
+            }
+            byteBuf.writerIndex(index);
+        }
+    }
+
+    @Override
+    public void writeInts(int[] object) throws KryoException {
+        ByteBuffer buffer = reserve(object.length * 4);
+        if (buffer != null) {
+            buffer.asIntBuffer().put(object);
+        } else {
+            for (int value : object) byteBuf.writeInt(value);
+        }
+    }
+
+    @Override
+    public void writeLongs(long[] object) throws KryoException {
+        ByteBuffer buffer = reserve(object.length * 8);
+        if (buffer != null) {
+            buffer.asLongBuffer().put(object);
+        } else {
+            for (long value : object) byteBuf.writeLong(value);
+        }
+    }
+
+    @Override
+    public void writeFloats(float[] object) throws KryoException {
+        ByteBuffer buffer = reserve(object.length * 4);
+        if (buffer != null) {
+            buffer.asFloatBuffer().put(object);
+        } else {
+            for (float value : object) byteBuf.writeFloat(value);
+        }
+    }
+
+    @Override
+    public void writeDoubles(double[] object) throws KryoException {
+        ByteBuffer buffer = reserve(object.length * 8);
+        if (buffer != null) {
+            buffer.asDoubleBuffer().put(object);
+        } else {
+            for (double value : object) byteBuf.writeDouble(value);
+        }
+    }
+
+    @Override
+    public void writeShorts(short[] object) throws KryoException {
+        ByteBuffer buffer = reserve(object.length * 2);
+        if (buffer != null) {
+            buffer.asShortBuffer().put(object);
+        } else {
+            for (short value : object) byteBuf.writeShort(value);
+        }
+    }
+
+    @Override
+    public void writeChars(char[] object) throws KryoException {
+        ByteBuffer buffer = reserve(object.length * 2);
+        if (buffer != null) {
+            buffer.asCharBuffer().put(object);
+        } else {
+            for (char value : object) byteBuf.writeChar(value);
+        }
+    }
+
+    /**
+     * Moves the writer index after the given number of bytes and returns a big endian view of them, the primitive arrays
+     * are copied into the view at once. Returns null if the buffer is not a single NIO buffer, a view of a composite
+     * buffer may be a copy and the values must be written one by one instead.
+     */
+    private ByteBuffer reserve(int length) {
+        if (byteBuf.nioBufferCount() != 1) {
+            return null;
+        }
+        byteBuf.ensureWritable(length);
+        int index = byteBuf.writerIndex();
+        ByteBuffer buffer = byteBuf.nioBuffer(index, length);
+        byteBuf.writerIndex(index + length);
+        return buffer;
+    }
 }
@@ -21,7 +21,6 @@ import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -54,7 +53,6 @@ public class Cluster {
             LOGGER.error("error while executing operation", e));
 
     final protected List<Service> services;
-    final private AtomicInteger messageSequence = new AtomicInteger();
     final protected ServiceContext<InternalService> internalBus;
 
     final ConcurrentHashMap<Member, MemberChannel> clusterConnection = new ConcurrentHashMap<>();
@@ -63,9 +61,11 @@ public class Cluster {
     final protected Map<String, Service> serviceNameMap;
     private final JoinerService joinerService;
     private final Transport transport;
-    private Member master;
-    private Set<Member> members;
-    long lastContactedTimeMaster;
+    // the heartbeats read the master and the members on the IO threads while the internal executor updates them
+    private volatile Member master;
+    private final Set<Member> members = ConcurrentHashMap.newKeySet();
+    // updated by the heartbeats that run on the IO threads
+    volatile long lastContactedTimeMaster;
     private AtomicInteger currentTerm;
     final private List<MembershipListener> membershipListeners = Collections.synchronizedList(new ArrayList<>());
 
@@ -79,7 +79,7 @@ public class Cluster {
 
     public Cluster(Collection<Member> members, ImmutableList<ServiceListBuilder.Constructor> services, TransportConstructor transportConstructor, InetSocketAddress serverAddress, JoinerService joinerService, boolean mustJoinCluster, boolean client) {
         clusterStartTime = System.currentTimeMillis();
-        this.members = new HashSet<>(members);
+        this.members.addAll(members);
 
         Runtime.getRuntime().addShutdownHook(new Thread() {
             public void run() {
@@ -163,16 +163,7 @@ public class Cluster {
             LOGGER.info("Discovered new member {}", member);
 
             // we may create the connection before executing this method.
-            if (!clusterConnection.containsKey(member)) {
-                MemberChannel channel;
-                try {
-                    channel = transport.connect(member);
-                } catch (InterruptedException e) {
-                    LOGGER.error("Couldn't connect new server", e);
-                    return;
-                }
-                clusterConnection.put(member, channel);
-            }
+            getOrCreateConnection(member);
 
             members.add(member);
             if (isMaster())
@@ -190,16 +181,7 @@ public class Cluster {
                 if (member.equals(localMember))
                     continue;
                 // we may create the connection before executing this method.
-                if (!clusterConnection.containsKey(member)) {
-                    MemberChannel channel;
-                    try {
-                        channel = transport.connect(member);
-                    } catch (InterruptedException e) {
-                        LOGGER.error("Couldn't connect new server", e);
-                        return;
-                    }
-                    clusterConnection.put(member, channel);
-                }
+                getOrCreateConnection(member);
 
                 members.add(member);
                 if (isMaster())
@@ -223,7 +205,7 @@ public class Cluster {
 //                        removeMemberAsMaster(member, true);
 //                    }
 //                });
-                members.forEach(member -> internalBus.send(member, new HeartbeatRequest(localMember)));
+                members.forEach(member -> internalBus.send(member, new HeartbeatRequest()));
             } else {
                 if (time - lastContactedTimeMaster > 500) {
                     eventLoop.schedule(() -> {
@@ -442,7 +424,7 @@ public class Cluster {
 
     public void sendInternal(MemberChannel channel, Object obj, int service) {
         Packet message = new Packet(obj, service);
-        channel.ask(message);
+        channel.send(message);
     }
 
     public void sendInternal(Member member, Object obj, int service) {
@@ -461,7 +443,7 @@ public class Cluster {
             services.get(service).handle(requestExecutor, ctx1, request);
         } else {
             Packet message = new Packet(request, service);
-            getConnection(member).ask(message);
+            getConnection(member).send(message);
         }
     }
 
@@ -470,10 +452,10 @@ public class Cluster {
         ask.whenComplete((val, ex) -> {
             if (ex != null)
                 if (ex instanceof TimeoutException) {
-                    if (numberOfTimes == 0) {
+                    if (numberOfTimes <= 1) {
                         future.completeExceptionally(new TimeoutException());
                     } else {
-                        tryAskUntilDoneInternal(member, req, numberOfTimes, service, future);
+                        tryAskUntilDoneInternal(member, req, numberOfTimes - 1, service, future);
                     }
                 } else {
                     future.completeExceptionally(ex);
@@ -484,8 +466,8 @@ public class Cluster {
     }
 
     public <R> CompletableFuture<R> askInternal(MemberChannel channel, Object obj, int service) {
-        int andIncrement = messageSequence.getAndIncrement();
-        Packet message = new Packet(andIncrement, obj, service);
+        // the channel assigns the sequence of the packet when it registers the reply handler
+        Packet message = new Packet(obj, service);
         return channel.ask(message);
     }
 
@@ -511,26 +493,38 @@ public class Cluster {
         }
     }
 
+    public CompletableFuture<Void> whenWritableInternal(Member member) {
+        if (member.equals(localMember)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return getConnection(member).whenWritable();
+    }
+
     private MemberChannel getConnection(Member member) {
         MemberChannel channel = clusterConnection.get(member);
         if (channel == null) {
             if (!members.contains(member))
                 throw new IllegalArgumentException("the member doesn't exist in the cluster");
-
-            MemberChannel created;
-            try {
-                created = transport.connect(member);
-            } catch (InterruptedException e) {
-                throw Throwables.propagate(e);
-            }
-            synchronized (this) {
-                clusterConnection.put(member, created);
-            }
-            return created;
+            return getOrCreateConnection(member);
         }
         return channel;
     }
 
+    /**
+     * Returns the connection to the member, the concurrent callers share the same connection attempt.
+     * The connection doesn't block the caller, the packets are buffered until it's established.
+     */
+    MemberChannel getOrCreateConnection(Member member) {
+        MemberChannel channel = clusterConnection.get(member);
+        if (channel != null) {
+            return channel;
+        }
+        MemberChannel created = clusterConnection.computeIfAbsent(member, transport::connect);
+        // forget the closed connection so that the next request reconnects.
+        created.closeFuture().thenRun(() -> clusterConnection.remove(member, created));
+        return created;
+    }
+
     public boolean isMaster() {
         return localMember.equals(master);
     }
@@ -17,6 +17,7 @@ public class ClusterBuilder
     private boolean client = false;
     private JoinerService joinerService;
     private TransportConstructor transport;
+    private TransportOptions transportOptions;
 
     public ClusterBuilder members(Collection<Member> members)
     {
@@ -40,6 +41,10 @@ public class ClusterBuilder
         return joinerService;
     }
 
+    /**
+     * The transport that is used to communicate with the other members, the default is {@link NettyTransport}.
+     * The members that run in the same JVM can use {@link NoNetworkTransport#sharedBus(java.util.Map, NoNetworkTransport.CopyPolicy)}.
+     */
     public ClusterBuilder transport(TransportConstructor transport)
     {
         this.transport = transport;
@@ -51,6 +56,17 @@ public class ClusterBuilder
         return transport;
     }
 
+    public ClusterBuilder transportOptions(TransportOptions transportOptions)
+    {
+        this.transportOptions = transportOptions;
+        return this;
+    }
+
+    public TransportOptions transportOptions()
+    {
+        return transportOptions;
+    }
+
     public ClusterBuilder services(ImmutableList<ServiceListBuilder.Constructor> services)
     {
         this.services = services;
@@ -111,8 +127,14 @@ public class ClusterBuilder
             serverAddress = new InetSocketAddress(NetworkUtil.getDefaultAddress(), 0);
         }
 
+        if (transportOptions == null) {
+            transportOptions = new TransportOptions();
+        }
+
         if (transport == null) {
-            transport = NettyTransport::new;
+            TransportOptions options = transportOptions;
+            transport = (requestExecutor, services, localMember) ->
+                    new NettyTransport(requestExecutor, services, localMember, options);
         }
 
         if (services == null) {
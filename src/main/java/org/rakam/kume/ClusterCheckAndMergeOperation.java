@@ -1,5 +1,6 @@
 package org.rakam.kume;
 
+import com.google.auto.service.AutoService;
 import org.rakam.kume.transport.Operation;
 import org.rakam.kume.transport.OperationContext;
 import org.rakam.kume.util.Tuple;
@@ -16,6 +17,8 @@ import java.util.concurrent.CompletionException;
 import static com.google.common.base.Preconditions.checkState;
 
 
+@KryoSerializable(id = 105)
+@AutoService(KryoSerializable.class)
 public class ClusterCheckAndMergeOperation implements Operation<InternalService>
 {
     final static Logger LOGGER = LoggerFactory.getLogger(ClusterCheckAndMergeOperation.class);
@@ -34,17 +37,8 @@ public class ClusterCheckAndMergeOperation implements Operation<InternalService>
 
         LOGGER.trace("got cluster check and merge request from a server who is not in this cluster");
 
-        MemberChannel channel;
-        try {
-            channel = cluster.getTransport().connect(ctx.getSender());
-        } catch (InterruptedException e) {
-            LOGGER.trace("a server send me join request from udp but i can't connect him. ignoring");
-            return;
-        }
-
-        LOGGER.trace("connected to the new node, now getting cluster information");
-
-        cluster.clusterConnection.put(ctx.getSender(), channel);
+        cluster.getOrCreateConnection(ctx.getSender());
+        LOGGER.trace("connecting to the new node, now getting cluster information");
 
         final Tuple<Set<Member>, Long> clusterStatus;
         try {
@@ -76,14 +70,7 @@ public class ClusterCheckAndMergeOperation implements Operation<InternalService>
             synchronized (cluster) {
                 LOGGER.trace("they must join me, my cluster is bigger than theirs");
                 for (Member otherMember : otherMembers) {
-                    MemberChannel memberChannel;
-                    try {
-                        memberChannel = cluster.getTransport().connect(otherMember);
-                    } catch (InterruptedException e) {
-                        otherMembers.remove(otherMember);
-                        continue;
-                    }
-                    cluster.clusterConnection.put(otherMember, memberChannel);
+                    cluster.getOrCreateConnection(otherMember);
                 }
 
                 FutureUtil.MultipleFutureListener f = new FutureUtil.MultipleFutureListener(otherMembers.size());
@@ -115,6 +102,8 @@ public class ClusterCheckAndMergeOperation implements Operation<InternalService>
         }
     }
 
+    @KryoSerializable(id = 106)
+    @AutoService(KryoSerializable.class)
     public static class JoinThisClusterRequest implements Request<InternalService, Void> {
         final Set<Member> members;
         final Member masterNode;
@@ -132,6 +121,8 @@ public class ClusterCheckAndMergeOperation implements Operation<InternalService>
         }
     }
 
+    @KryoSerializable(id = 107)
+    @AutoService(KryoSerializable.class)
     public static class MembersJoinedRequest implements Request<InternalService, Boolean> {
         final Set<Member> members;
 
@@ -152,6 +143,8 @@ public class ClusterCheckAndMergeOperation implements Operation<InternalService>
         }
     }
 
+    @KryoSerializable(id = 108)
+    @AutoService(KryoSerializable.class)
     public static class GetInformationFromDiscoveredCluster implements Request<InternalService, Tuple> {
 
         @Override
@@ -13,24 +13,21 @@
  */
 package org.rakam.kume;
 
+import org.rakam.kume.transport.NonBlockingRequest;
 import org.rakam.kume.transport.Operation;
 import org.rakam.kume.transport.OperationContext;
 import com.google.auto.service.AutoService;
 
 
-@KryoSerializable(id = 3)
+@KryoSerializable(id = 100)
 @AutoService(KryoSerializable.class)
-public class HeartbeatRequest implements Operation<InternalService>
+public class HeartbeatRequest implements Operation<InternalService>, NonBlockingRequest
 {
-    Member sender;
-
-    public HeartbeatRequest(Member sender) {
-        this.sender = sender;
-    }
-
     @Override
     public void run(InternalService service, OperationContext ctx) {
         Member masterMember = service.cluster.getMaster();
+        // the sender is resolved from the connection instead of being sent with each heartbeat.
+        Member sender = ctx.getSender();
         if (sender == null) {
             return;
         }
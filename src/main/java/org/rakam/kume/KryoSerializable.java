@@ -21,6 +21,12 @@ import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
 
+/**
+ * Registers the class to Kryo with the given id so that it's written as a varint instead of its class name.
+ * The class must also be annotated with {@code @AutoService(KryoSerializable.class)} in order to be discovered by
+ * {@link org.rakam.kume.transport.serialization.KryoFactory}. The ids must be unique and at least
+ * {@link org.rakam.kume.transport.serialization.KryoFactory#FIRST_ANNOTATED_ID}, and they must be the same on all members.
+ */
 @Inherited
 @Target({ElementType.TYPE, ElementType.METHOD})
 @Retention(RetentionPolicy.RUNTIME)
@@ -21,5 +21,20 @@ import java.util.concurrent.CompletableFuture;
 public interface MemberChannel {
     CompletableFuture ask(Packet message);
     void send(Packet message);
+
+    /**
+     * Returns a future that is completed when the channel can accept more packets without growing its outbound buffer.
+     */
+    default CompletableFuture<Void> whenWritable() {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Returns a future that is completed when the channel is closed or fails to connect.
+     */
+    default CompletableFuture<Void> closeFuture() {
+        return new CompletableFuture<>();
+    }
+
     void close() throws InterruptedException;
 }
@@ -13,14 +13,27 @@
  */
 package org.rakam.kume;
 
+import org.rakam.kume.network.AdaptiveTimeout;
+import org.rakam.kume.network.BackpressureMode;
+import org.rakam.kume.network.ChannelMetrics;
+import org.rakam.kume.network.ChunkedFrameCodec;
 import org.rakam.kume.network.ClientChannelAdapter;
+import org.rakam.kume.network.DomainSockets;
+import org.rakam.kume.network.CompressionStats;
+import org.rakam.kume.network.EventLoopType;
+import org.rakam.kume.network.FrameCompressionHandler;
+import org.rakam.kume.network.PendingRequestTable;
+import org.rakam.kume.network.RequestBatcher;
+import org.rakam.kume.network.ServerChannelAdapter;
 import org.rakam.kume.network.TCPServerHandler;
+import org.rakam.kume.network.TransportMetrics;
+import org.rakam.kume.network.VarintFrameDecoder;
+import org.rakam.kume.network.VarintLengthPrepender;
+import org.rakam.kume.network.WritabilityMonitor;
+import org.rakam.kume.network.WriteCoalescer;
 import org.rakam.kume.service.Service;
 import org.rakam.kume.transport.PacketDecoder;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.RemovalCause;
-import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.Channel;
@@ -28,85 +41,168 @@ import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.ChannelPipeline;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.ChannelPromiseNotifier;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
-import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
-import io.netty.handler.codec.LengthFieldPrepender;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollDomainSocketChannel;
+import io.netty.channel.epoll.EpollMode;
+import io.netty.channel.unix.DomainSocketAddress;
+import io.netty.handler.stream.ChunkedWriteHandler;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
 import org.rakam.kume.transport.Packet;
 import org.rakam.kume.transport.PacketEncoder;
 import org.rakam.kume.util.ThrowableNioEventLoopGroup;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 
 
 public class NettyTransport implements Transport {
     private final static Logger LOGGER = LoggerFactory.getLogger(NettyTransport.class);
-    private final Cache<Integer, CompletableFuture<Object>> messageHandlers = CacheBuilder.newBuilder()
-            .expireAfterWrite(200, TimeUnit.SECONDS)
-            .removalListener(this::removalListener).build();
+    // fails the futures of requests that are not answered in time
+    private final HashedWheelTimer requestTimer = new HashedWheelTimer(new ThreadFactoryBuilder()
+            .setNameFormat("request-timeout-%d").setDaemon(true).build(), 10, TimeUnit.MILLISECONDS);
 
     // IO thread for TCP and UDP connections
-    final EventLoopGroup bossGroup = new NioEventLoopGroup(1);
+    final EventLoopGroup bossGroup;
     // Processor thread pool that de-serializing/serializing incoming/outgoing packets
-    final EventLoopGroup workerGroup = new NioEventLoopGroup(4);
+    final EventLoopGroup workerGroup;
 
     private TCPServerHandler server;
     private final ThrowableNioEventLoopGroup requestExecutor;
     private final List<Service> services;
     private final Member localMember;
+    private final TransportMetrics metrics;
+    private final TransportOptions options;
+    private final EventLoopType eventLoopType;
 
     public NettyTransport(ThrowableNioEventLoopGroup requestExecutor, List<Service> services, Member localMember) {
+        this(requestExecutor, services, localMember, new TransportOptions());
+    }
+
+    public NettyTransport(ThrowableNioEventLoopGroup requestExecutor, List<Service> services, Member localMember, TransportOptions options) {
         this.requestExecutor = requestExecutor;
         this.services = services;
         this.localMember = localMember;
+        this.options = options;
+        this.metrics = new TransportMetrics(services);
+        this.eventLoopType = options.eventLoopType().resolve();
+        this.bossGroup = eventLoopType.newEventLoopGroup(options.acceptorThreads());
+        this.workerGroup = eventLoopType.newEventLoopGroup(4);
     }
 
-    private void removalListener(RemovalNotification<Integer, CompletableFuture<Object>> notification) {
-        if (!notification.getCause().equals(RemovalCause.EXPLICIT))
-            notification.getValue().completeExceptionally(new TimeoutException());
+    @Override
+    public MemberChannel connect(Member member) {
+        int connections = options.connectionsPerMember();
+        if (connections == 1) {
+            return connectChannel(member);
+        }
+
+        List<NettyChannel> channels = new ArrayList<>(connections);
+        for (int i = 0; i < connections; i++) {
+            channels.add(connectChannel(member));
+        }
+        return new StripedMemberChannel(channels);
     }
 
-    @Override
-    public MemberChannel connect(Member member) throws InterruptedException {
+    private NettyChannel connectChannel(Member member) {
+        AdaptiveTimeout adaptiveTimeout = new AdaptiveTimeout(options);
+        PendingRequestTable pendingRequests = new PendingRequestTable(requestTimer, adaptiveTimeout);
         Bootstrap b = new Bootstrap();
         b.option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+        if (eventLoopType == EventLoopType.EPOLL) {
+            b.option(EpollChannelOption.EPOLL_MODE, options.edgeTriggered() ? EpollMode.EDGE_TRIGGERED : EpollMode.LEVEL_TRIGGERED);
+        }
+
         b.group(workerGroup)
-                .channel(NioSocketChannel.class)
-                .option(ChannelOption.TCP_NODELAY, true)
-                .handler(new ChannelInitializer<SocketChannel>() {
+                .option(ChannelOption.WRITE_BUFFER_LOW_WATER_MARK, options.writeBufferLowWaterMark())
+                .option(ChannelOption.WRITE_BUFFER_HIGH_WATER_MARK, options.writeBufferHighWaterMark())
+                .handler(new ChannelInitializer<Channel>() {
                     @Override
-                    public void initChannel(SocketChannel ch) throws Exception {
+                    public void initChannel(Channel ch) throws Exception {
                         ChannelPipeline p = ch.pipeline();
-                        p.addLast("frameDecoder", new LengthFieldBasedFrameDecoder(1048576, 0, 4, 0, 4));
-                        p.addLast("packetDecoder", new PacketDecoder());
-                        p.addLast("frameEncoder", new LengthFieldPrepender(4));
-                        p.addLast("packetEncoder", new PacketEncoder());
-                        p.addLast("server", new ClientChannelAdapter(messageHandlers));
+                        p.addLast("frameDecoder", new VarintFrameDecoder(TransportOptions.MAX_FRAME_SIZE));
+                        p.addLast("frameEncoder", new VarintLengthPrepender());
+                        FrameCompressionHandler compression = new FrameCompressionHandler(options);
+                        ch.attr(FrameCompressionHandler.KEY).set(compression);
+                        p.addLast("compression", compression);
+                        p.addLast("chunkedWriter", new ChunkedWriteHandler());
+                        p.addLast("chunking", new ChunkedFrameCodec(options));
+                        ChannelMetrics channelMetrics = new ChannelMetrics(metrics, ch);
+                        ch.attr(ChannelMetrics.KEY).set(channelMetrics);
+                        p.addLast("packetDecoder", new PacketDecoder(false, channelMetrics));
+                        p.addLast("packetEncoder", new PacketEncoder(channelMetrics));
+                        p.addLast("metrics", channelMetrics);
+                        ch.attr(PendingRequestTable.KEY).set(pendingRequests);
+                        ch.attr(ServerChannelAdapter.MEMBER).set(member);
+                        WritabilityMonitor writabilityMonitor = new WritabilityMonitor(ch);
+                        ch.attr(WritabilityMonitor.KEY).set(writabilityMonitor);
+                        p.addLast("writabilityMonitor", writabilityMonitor);
+                        p.addLast("server", new ClientChannelAdapter(pendingRequests));
+                        if (options.writeCoalescing()) {
+                            ch.attr(WriteCoalescer.KEY).set(new WriteCoalescer(ch, options));
+                        }
                     }
                 });
 
+        Supplier<ChannelFuture> tcp = () -> {
+            Bootstrap tcpBootstrap = b.clone()
+                    .channel(eventLoopType.socketChannel())
+                    .option(ChannelOption.TCP_NODELAY, true);
+            if (eventLoopType == EventLoopType.EPOLL) {
+                tcpBootstrap.option(EpollChannelOption.TCP_CORK, options.tcpCork());
+            }
+            return tcpBootstrap.connect(member.getAddress())
+                    .addListener(future -> {
+                        if (!future.isSuccess()) {
+                            LOGGER.error("Failed to connect server {}", member.getAddress(), future.cause());
+                        }
+                    });
+        };
 
-        ChannelFuture f = b.connect(member.getAddress()).sync()
-                .addListener(future -> {
-                    if (!future.isSuccess()) {
-                        LOGGER.error("Failed to connect server {}", member.getAddress());
-                    }
-                }).sync();
-        return new NettyChannel(f.channel());
+        // the channel is returned before the connection is established, the packets are written once it's connected.
+        NettyChannel channel;
+        File domainSocket = DomainSockets.findSocket(options, eventLoopType, member.getAddress());
+        if (domainSocket != null) {
+            // the socket file may be left behind by a member that is not closed properly, TCP is tried if it doesn't accept the connection.
+            ChannelFuture f = b.clone().channel(EpollDomainSocketChannel.class).connect(new DomainSocketAddress(domainSocket));
+            channel = new NettyChannel(f, tcp, pendingRequests, adaptiveTimeout);
+        } else {
+            channel = new NettyChannel(tcp.get(), null, pendingRequests, adaptiveTimeout);
+        }
+        // introduce this member before any other packet so that the other side knows the sender of the requests.
+        channel.write(new Packet(localMember, Packet.HANDSHAKE_SERVICE));
+        return channel;
+    }
+
+    /**
+     * The packet, byte and buffer metrics of the connections of this transport, grouped by member and service.
+     */
+    public TransportMetrics getMetrics() {
+        return metrics;
     }
 
     @Override
     public void close() {
+        metrics.unregisterMBean();
         bossGroup.shutdownGracefully();
         workerGroup.shutdownGracefully();
+        requestTimer.stop();
 
+        if (server == null) {
+            // the transport is closed before it's initialized.
+            return;
+        }
         try {
             server.close();
         } catch (InterruptedException e) {
@@ -117,12 +213,15 @@ public class NettyTransport implements Transport {
     @Override
     public void initialize() {
         try {
-            this.server = new TCPServerHandler(bossGroup, workerGroup, requestExecutor, services, localMember.getAddress());
+            this.server = new TCPServerHandler(bossGroup, workerGroup, eventLoopType, requestExecutor, services, metrics, localMember.getAddress(), options);
         } catch (InterruptedException e) {
             throw new IllegalStateException("Failed to bind TCP " + localMember.getAddress());
         }
 
         server.setAutoRead(true);
+        if (options.jmx()) {
+            metrics.registerMBean(localMember.getAddress().getHostString() + ":" + localMember.getAddress().getPort());
+        }
     }
 
 //    @Override
@@ -136,26 +235,201 @@ public class NettyTransport implements Transport {
 //    }
 
     public class NettyChannel implements MemberChannel {
-        private final Channel channel;
+        // replaced by the TCP channel if the connection through the domain socket fails
+        private volatile Channel channel;
+        private volatile boolean closed;
+        // completed when the channel is connected, after the fallback connection if there is one.
+        private final Promise<Void> connected;
+        private final PendingRequestTable pendingRequests;
+        private final AdaptiveTimeout adaptiveTimeout;
+        private final RequestBatcher batcher;
+
+        public NettyChannel(ChannelFuture connectFuture, PendingRequestTable pendingRequests, AdaptiveTimeout adaptiveTimeout) {
+            this(connectFuture, null, pendingRequests, adaptiveTimeout);
+        }
 
-        public NettyChannel(Channel channel) {
-            this.channel = channel;
+        /**
+         * @param fallback connects the channel that replaces this channel if the connect future fails, may be null.
+         */
+        public NettyChannel(ChannelFuture connectFuture, Supplier<ChannelFuture> fallback, PendingRequestTable pendingRequests, AdaptiveTimeout adaptiveTimeout) {
+            this.channel = connectFuture.channel();
+            this.connected = channel.eventLoop().newPromise();
+            this.pendingRequests = pendingRequests;
+            this.adaptiveTimeout = adaptiveTimeout;
+            this.batcher = options.requestBatching() ? new RequestBatcher(channel.eventLoop(), this::write, pendingRequests, options) : null;
+            connectFuture.addListener(f -> {
+                if (f.isSuccess() || fallback == null || closed) {
+                    complete(f);
+                    return;
+                }
+                LOGGER.warn("Failed to connect through the domain socket, falling back to TCP", f.cause());
+                ChannelFuture fallbackFuture = fallback.get();
+                // the packets are buffered until the promise is completed so nothing is written to the failed channel.
+                channel = fallbackFuture.channel();
+                fallbackFuture.addListener(this::complete);
+            });
+        }
+
+        private void complete(Future<?> connectFuture) {
+            if (connectFuture.isSuccess()) {
+                connected.setSuccess(null);
+            } else {
+                connected.setFailure(connectFuture.cause());
+            }
         }
 
         public CompletableFuture ask(Packet message) {
             CompletableFuture future = new CompletableFuture<>();
-            messageHandlers.put(message.sequence, future);
-            channel.writeAndFlush(message);
+            if (options.backpressure() == BackpressureMode.FAIL_FAST && !channel.isWritable()) {
+                future.completeExceptionally(new RejectedExecutionException("outbound buffer of " + channel.remoteAddress() + " is full"));
+                return future;
+            }
+
+            long sequence = pendingRequests.register(future, adaptiveTimeout.timeoutNanos(), TimeUnit.NANOSECONDS);
+            message.sequence = sequence;
+            Packet packet = PacketEncoder.retainPayload(message);
+            if (options.backpressure() == BackpressureMode.WAIT) {
+                whenWritable().whenComplete((result, ex) -> {
+                    if (ex != null) {
+                        pendingRequests.fail(sequence, ex);
+                    } else {
+                        submit(packet, sequence);
+                    }
+                });
+            } else {
+                submit(packet, sequence);
+            }
             return future;
         }
 
         @Override
         public void send(Packet message) {
-            channel.writeAndFlush(message);
+            switch (options.backpressure()) {
+                case FAIL_FAST:
+                    if (!channel.isWritable()) {
+                        LOGGER.debug("Dropped packet {}, outbound buffer of {} is full", message, channel.remoteAddress());
+                        return;
+                    }
+                    submit(PacketEncoder.retainPayload(message));
+                    break;
+                case WAIT:
+                    Packet packet = PacketEncoder.retainPayload(message);
+                    whenWritable().thenRun(() -> submit(packet));
+                    break;
+                default:
+                    submit(PacketEncoder.retainPayload(message));
+            }
+        }
+
+        /**
+         * Returns a future that is completed when the outbound buffer of the channel drains below the low water mark.
+         */
+        @Override
+        public CompletableFuture<Void> whenWritable() {
+            if (connected.isDone()) {
+                // the pipeline is initialized when the channel is registered, before it's connected.
+                return channel.attr(WritabilityMonitor.KEY).get().whenWritable();
+            }
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            connected.addListener(f -> {
+                if (f.isSuccess()) {
+                    future.complete(null);
+                } else {
+                    future.completeExceptionally(f.cause());
+                }
+            });
+            return future.thenCompose(result -> channel.attr(WritabilityMonitor.KEY).get().whenWritable());
+        }
+
+        private void submit(Packet message, long sequence) {
+            if (batcher != null) {
+                batcher.add(message);
+                return;
+            }
+            write(message).addListener(f -> {
+                if (!f.isSuccess()) {
+                    pendingRequests.fail(sequence, f.cause());
+                }
+            });
+        }
+
+        private void submit(Packet message) {
+            if (batcher != null) {
+                batcher.add(message);
+            } else {
+                write(message);
+            }
+        }
+
+        private ChannelFuture write(Object message) {
+            if (!connected.isDone()) {
+                ChannelPromise promise = channel.newPromise();
+                // listeners are notified in the order they are added so the buffered packets keep their order.
+                connected.addListener(f -> {
+                    if (f.isSuccess()) {
+                        writeConnected(message).addListener(new ChannelPromiseNotifier(promise));
+                    } else {
+                        promise.setFailure(f.cause());
+                    }
+                });
+                return promise;
+            }
+            return writeConnected(message);
+        }
+
+        private ChannelFuture writeConnected(Object message) {
+            WriteCoalescer coalescer = getWriteCoalescer();
+            if (coalescer != null) {
+                return coalescer.write(message);
+            } else {
+                return channel.writeAndFlush(message);
+            }
+        }
+
+        /**
+         * The round trip times of this channel and the timeout that is derived from them.
+         */
+        public AdaptiveTimeout getAdaptiveTimeout() {
+            return adaptiveTimeout;
+        }
+
+        /**
+         * Returns the batching statistics of this channel or null if request batching is disabled.
+         */
+        public RequestBatcher getRequestBatcher() {
+            return batcher;
+        }
+
+        public int pendingRequestCount() {
+            return pendingRequests.size();
+        }
+
+        /**
+         * Returns the write coalescing statistics of this channel or null if write coalescing is disabled.
+         */
+        public WriteCoalescer getWriteCoalescer() {
+            return channel.attr(WriteCoalescer.KEY).get();
+        }
+
+        public CompressionStats getCompressionStats() {
+            return channel.attr(FrameCompressionHandler.KEY).get().stats();
+        }
+
+        @Override
+        public CompletableFuture<Void> closeFuture() {
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            // the channel that is closed by a failed connect may be replaced by the fallback channel.
+            connected.addListener(c -> channel.closeFuture().addListener(f -> future.complete(null)));
+            return future;
+        }
+
+        public boolean isConnected() {
+            return connected.isSuccess() && channel.isActive();
         }
 
         @Override
         public void close() throws InterruptedException {
+            closed = true;
             channel.close().sync();
         }
     }
@@ -0,0 +1,247 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.rakam.kume;
+
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.internal.PlatformDependent;
+import org.rakam.kume.service.Service;
+import org.rakam.kume.transport.OperationContext;
+import org.rakam.kume.transport.Packet;
+import org.rakam.kume.transport.Request;
+import org.rakam.kume.transport.serialization.KryoFactory;
+import org.rakam.kume.util.ThrowableNioEventLoopGroup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.ConnectException;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Instead of sending packets using network connections, it simply find the local instance and send it directly to the related service.
+ * It works only for Kume instances created on same JVM, the instances that can see each other share the same bus.
+ * The requests are not serialized, they're passed by reference or copied with Kryo depending on the {@link CopyPolicy}.
+ * Each instance has a lock-free queue for each of its request executors; the senders only append to the queue and
+ * the executor drains the queued requests in batches.
+ */
+public class NoNetworkTransport implements Transport {
+    final static Logger LOGGER = LoggerFactory.getLogger(NoNetworkTransport.class);
+
+    // number of requests that an executor processes before giving the other tasks a chance to run
+    private static final int MAX_DRAIN = 256;
+
+    public enum CopyPolicy {
+        /**
+         * The receiver gets the same instance, the requests and replies must not be modified after they are sent.
+         */
+        BY_REFERENCE,
+        /**
+         * The receiver gets a deep copy of the object, created with Kryo without serializing it.
+         */
+        COPY
+    }
+
+    private final Map<Member, NoNetworkTransport> bus;
+    private final CopyPolicy copyPolicy;
+    private ThrowableNioEventLoopGroup requestExecutor;
+    private List<Service> services;
+    private Member localMember;
+    private Map<Member, MemberChannel> channels;
+    private Inbox[] inboxes;
+
+    public NoNetworkTransport(Member localMember) {
+        this(localMember, new ConcurrentHashMap<>(), CopyPolicy.BY_REFERENCE);
+    }
+
+    public NoNetworkTransport(Member localMember, Map<Member, NoNetworkTransport> bus, CopyPolicy copyPolicy) {
+        this.localMember = localMember;
+        this.bus = bus;
+        this.copyPolicy = copyPolicy;
+        bus.put(localMember, this);
+    }
+
+    /**
+     * Creates the transports of the clusters that share the same bus, it can be passed to {@link ClusterBuilder#transport(TransportConstructor)}.
+     */
+    public static TransportConstructor sharedBus(Map<Member, NoNetworkTransport> bus, CopyPolicy copyPolicy) {
+        return (requestExecutor, services, localMember) ->
+                new NoNetworkTransport(localMember, bus, copyPolicy).setContext(requestExecutor, services, localMember);
+    }
+
+    public NoNetworkTransport setContext(ThrowableNioEventLoopGroup requestExecutor, List<Service> services, Member localMember) {
+        checkState(localMember.equals(this.localMember), "localMember doesn't match");
+        this.requestExecutor = requestExecutor;
+        this.services = services;
+        this.localMember = localMember;
+        Inbox[] inboxes = new Inbox[requestExecutor.executorCount()];
+        for (int i = 0; i < inboxes.length; i++) {
+            inboxes[i] = new Inbox(requestExecutor.getChild(i));
+        }
+        this.inboxes = inboxes;
+        return this;
+    }
+
+    public NoNetworkTransport addMember(NoNetworkTransport transport) {
+        bus.put(transport.localMember, transport);
+        return this;
+    }
+
+    public Member getLocalMember() {
+        return localMember;
+    }
+
+    @Override
+    public synchronized MemberChannel connect(Member member) {
+        if (channels == null) {
+            throw new IllegalStateException();
+        }
+        return channels.compute(member, (key, value) -> new NoNetworkChannel(member));
+    }
+
+    @Override
+    public void close() {
+        bus.remove(localMember, this);
+        channels.clear();
+    }
+
+    @Override
+    public synchronized void initialize() {
+        channels = new ConcurrentHashMap<>();
+    }
+
+    private Object copy(Object object) {
+        if (copyPolicy == CopyPolicy.BY_REFERENCE || object == null) {
+            return object;
+        }
+        return KryoFactory.getKryoInstance().copy(object);
+    }
+
+    private void deliver(Packet message, OperationContext ctx) {
+        Service service = services.get(message.service);
+        Object data = copy(message.data);
+        inboxes[message.service % inboxes.length].add(() -> {
+            if (data instanceof Request) {
+                service.handle(requestExecutor, ctx, (Request) data);
+            } else {
+                service.handle(requestExecutor, ctx, data);
+            }
+        });
+    }
+
+    public class NoNetworkChannel implements MemberChannel {
+        private final Member member;
+
+        public NoNetworkChannel(Member member) {
+            this.member = member;
+        }
+
+        @Override
+        public CompletableFuture ask(Packet message) {
+            CompletableFuture future = new CompletableFuture<>();
+            NoNetworkTransport target = bus.get(member);
+            if (target == null) {
+                future.completeExceptionally(new ConnectException(member + " is not in this JVM"));
+                return future;
+            }
+            target.deliver(message, new InJvmOperationContext(future, message.service, target));
+            return future;
+        }
+
+        @Override
+        public void send(Packet message) {
+            NoNetworkTransport target = bus.get(member);
+            if (target == null) {
+                LOGGER.warn("Dropped packet {}, {} is not in this JVM", message, member);
+                return;
+            }
+            target.deliver(message, new InJvmOperationContext(null, message.service, target));
+        }
+
+        @Override
+        public void close() throws InterruptedException {
+            channels.remove(member, this);
+        }
+    }
+
+    private class InJvmOperationContext implements OperationContext {
+        private final CompletableFuture callback;
+        private final int serviceId;
+        private final NoNetworkTransport receiver;
+
+        InJvmOperationContext(CompletableFuture callback, int serviceId, NoNetworkTransport receiver) {
+            this.callback = callback;
+            this.serviceId = serviceId;
+            this.receiver = receiver;
+        }
+
+        @Override
+        public void reply(Object obj) {
+            if (callback != null) {
+                // the requester must not share the instance with the service that created the reply.
+                callback.complete(receiver.copy(obj));
+            }
+        }
+
+        @Override
+        public Member getSender() {
+            return localMember;
+        }
+
+        @Override
+        public int serviceId() {
+            return serviceId;
+        }
+    }
+
+    private static class Inbox implements Runnable {
+        private final Queue<Runnable> queue = PlatformDependent.newMpscQueue();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final EventExecutor executor;
+
+        Inbox(EventExecutor executor) {
+            this.executor = executor;
+        }
+
+        void add(Runnable task) {
+            queue.add(task);
+            if (scheduled.compareAndSet(false, true)) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            Runnable task;
+            int drained = 0;
+            while (drained++ < MAX_DRAIN && (task = queue.poll()) != null) {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    LOGGER.error("error while running throwable code block", e);
+                }
+            }
+            scheduled.set(false);
+            // a sender may have added a request after the last poll but before the flag is cleared.
+            if (!queue.isEmpty() && scheduled.compareAndSet(false, true)) {
+                executor.execute(this);
+            }
+        }
+    }
+}
@@ -94,6 +94,14 @@ public class ServiceContext<T extends Service> {
         return askAllMembers(bytes, true);
     }
 
+    /**
+     * Returns a future that is completed when the connection to the member can accept more requests,
+     * producers can use it to slow down instead of filling the outbound buffer.
+     */
+    public CompletableFuture<Void> whenWritable(Member server) {
+        return cluster.whenWritableInternal(server);
+    }
+
     public Cluster getCluster() {
         return cluster;
     }
@@ -0,0 +1,91 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.rakam.kume;
+
+import org.rakam.kume.transport.Packet;
+import org.rakam.kume.transport.StripedRequest;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A pool of connections to the same member. Packets of {@link StripedRequest}s are distributed by their stripe key,
+ * other packets by their service id so that the messages of a service are still delivered in order.
+ * Since each connection is served by its own worker event loop, encoding and decoding is spread over
+ * the worker threads and a large response doesn't block the other connections.
+ */
+public class StripedMemberChannel implements MemberChannel {
+    private final MemberChannel[] channels;
+
+    public StripedMemberChannel(List<? extends MemberChannel> channels) {
+        this.channels = channels.toArray(new MemberChannel[channels.size()]);
+    }
+
+    @Override
+    public CompletableFuture ask(Packet message) {
+        return channelFor(message).ask(message);
+    }
+
+    @Override
+    public void send(Packet message) {
+        channelFor(message).send(message);
+    }
+
+    @Override
+    public CompletableFuture<Void> whenWritable() {
+        CompletableFuture[] futures = new CompletableFuture[channels.length];
+        for (int i = 0; i < channels.length; i++) {
+            futures[i] = channels[i].whenWritable();
+        }
+        return CompletableFuture.allOf(futures);
+    }
+
+    @Override
+    public CompletableFuture<Void> closeFuture() {
+        CompletableFuture[] futures = new CompletableFuture[channels.length];
+        for (int i = 0; i < channels.length; i++) {
+            futures[i] = channels[i].closeFuture();
+        }
+        // the remaining connections can't be used alone since the requests are striped over all of them.
+        return CompletableFuture.anyOf(futures).thenApply(result -> null);
+    }
+
+    MemberChannel channelFor(Packet message) {
+        long key;
+        if (message.data instanceof StripedRequest) {
+            key = ((StripedRequest) message.data).stripeKey();
+            // keys are usually hashes or tokens, mix the high bits into the low ones.
+            key ^= key >>> 32;
+            key ^= key >>> 16;
+        } else {
+            key = message.service;
+        }
+        return channels[(int) Math.floorMod(key, (long) channels.length)];
+    }
+
+    public MemberChannel getChannel(int stripe) {
+        return channels[stripe];
+    }
+
+    public int getStripeCount() {
+        return channels.length;
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        for (MemberChannel channel : channels) {
+            channel.close();
+        }
+    }
+}
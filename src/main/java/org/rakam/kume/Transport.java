@@ -14,7 +14,11 @@ package org.rakam.kume;/*
 
 
 public interface Transport {
-    MemberChannel connect(Member member) throws InterruptedException;
+    /**
+     * Creates a channel to the member without waiting for the connection to be established,
+     * the packets sent before that are buffered by the channel.
+     */
+    MemberChannel connect(Member member);
     void close();
     void initialize();
 //    void pause();
@@ -0,0 +1,409 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.rakam.kume;
+
+import org.rakam.kume.network.BackpressureMode;
+import org.rakam.kume.network.EventLoopType;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Tuning knobs for the network transport. Optional features such as write coalescing are disabled by default.
+ */
+public class TransportOptions {
+    /**
+     * Upper bound of a single frame on the wire, larger packets are split into chunks.
+     */
+    public static final int MAX_FRAME_SIZE = 1024 * 1024;
+
+    private boolean writeCoalescing = false;
+    private int maxBatchSize = 64;
+    private long maxFlushDelayNanos = TimeUnit.MICROSECONDS.toNanos(100);
+    private boolean requestBatching = false;
+    private int requestBatchSize = 32;
+    private long requestBatchDelayNanos = TimeUnit.MICROSECONDS.toNanos(20);
+    private long requestTimeoutMillis = TimeUnit.SECONDS.toMillis(30);
+    private boolean adaptiveTimeout = false;
+    private double adaptiveTimeoutPercentile = 0.99;
+    private long adaptiveTimeoutFloorMillis = 50;
+    private long adaptiveTimeoutCeilingMillis = 0;
+    private EventLoopType eventLoopType = EventLoopType.NIO;
+    private boolean edgeTriggered = true;
+    private int acceptorThreads = 1;
+    private boolean tcpCork = false;
+    private int connectionsPerMember = 1;
+    private boolean lazyDeserialization = false;
+    private boolean compression = false;
+    private int compressionThreshold = 16 * 1024;
+    private BackpressureMode backpressure = BackpressureMode.NONE;
+    private int writeBufferLowWaterMark = 32 * 1024;
+    private int writeBufferHighWaterMark = 64 * 1024;
+    private int maxQueuedRequests = 0;
+    private int chunkSize = 256 * 1024;
+    private int maxMessageSize = 256 * 1024 * 1024;
+    private String domainSocketDirectory;
+    private boolean jmx = true;
+    private boolean inlineNonBlockingRequests = true;
+
+    public TransportOptions writeCoalescing(boolean writeCoalescing) {
+        this.writeCoalescing = writeCoalescing;
+        return this;
+    }
+
+    public boolean writeCoalescing() {
+        return writeCoalescing;
+    }
+
+    /**
+     * Number of queued packets that triggers a flush without waiting for the end of the event loop turn.
+     */
+    public TransportOptions maxBatchSize(int maxBatchSize) {
+        checkArgument(maxBatchSize > 0, "maxBatchSize (%s) must be positive", maxBatchSize);
+        this.maxBatchSize = maxBatchSize;
+        return this;
+    }
+
+    public int maxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Upper bound of the adaptive flush window. Under low load packets are flushed at the end of
+     * the current event loop turn, the window only grows towards this value when batches fill up.
+     */
+    public TransportOptions maxFlushDelay(long delay, TimeUnit unit) {
+        checkArgument(delay >= 0, "delay (%s) must not be negative", delay);
+        this.maxFlushDelayNanos = unit.toNanos(delay);
+        return this;
+    }
+
+    public long maxFlushDelayNanos() {
+        return maxFlushDelayNanos;
+    }
+
+    /**
+     * Sends the packets that are sent to the same member in a short time as a single frame.
+     */
+    public TransportOptions requestBatching(boolean requestBatching) {
+        this.requestBatching = requestBatching;
+        return this;
+    }
+
+    public boolean requestBatching() {
+        return requestBatching;
+    }
+
+    /**
+     * Maximum number of packets in a batch, a full batch is sent without waiting for the batch delay.
+     */
+    public TransportOptions requestBatchSize(int requestBatchSize) {
+        checkArgument(requestBatchSize > 1, "requestBatchSize (%s) must be greater than 1", requestBatchSize);
+        this.requestBatchSize = requestBatchSize;
+        return this;
+    }
+
+    public int requestBatchSize() {
+        return requestBatchSize;
+    }
+
+    /**
+     * Time that a packet waits for the other packets of its batch, zero sends the batch at the end of the event loop turn.
+     */
+    public TransportOptions requestBatchDelay(long delay, TimeUnit unit) {
+        checkArgument(delay >= 0, "delay (%s) must not be negative", delay);
+        this.requestBatchDelayNanos = unit.toNanos(delay);
+        return this;
+    }
+
+    public long requestBatchDelayNanos() {
+        return requestBatchDelayNanos;
+    }
+
+    /**
+     * Deadline of a request sent to another member, the future of the request fails with
+     * {@link java.util.concurrent.TimeoutException} if the reply doesn't arrive in time.
+     */
+    public TransportOptions requestTimeout(long timeout, TimeUnit unit) {
+        checkArgument(timeout > 0, "timeout (%s) must be positive", timeout);
+        this.requestTimeoutMillis = unit.toMillis(timeout);
+        return this;
+    }
+
+    public long requestTimeoutMillis() {
+        return requestTimeoutMillis;
+    }
+
+    /**
+     * Derives the timeout of the requests sent to a member from the round trip times observed on its connection,
+     * so the requests to an unresponsive member fail and are retried long before the request timeout.
+     */
+    public TransportOptions adaptiveTimeout(boolean adaptiveTimeout) {
+        this.adaptiveTimeout = adaptiveTimeout;
+        return this;
+    }
+
+    public boolean adaptiveTimeout() {
+        return adaptiveTimeout;
+    }
+
+    /**
+     * The percentile of the round trip times that the adaptive timeout is calculated from.
+     */
+    public TransportOptions adaptiveTimeoutPercentile(double percentile) {
+        checkArgument(percentile > 0 && percentile <= 1, "percentile (%s) must be between 0 and 1", percentile);
+        this.adaptiveTimeoutPercentile = percentile;
+        return this;
+    }
+
+    public double adaptiveTimeoutPercentile() {
+        return adaptiveTimeoutPercentile;
+    }
+
+    /**
+     * Lower and upper bounds of the adaptive timeout, the ceiling is the request timeout unless it's set.
+     */
+    public TransportOptions adaptiveTimeoutBounds(long floor, long ceiling, TimeUnit unit) {
+        checkArgument(floor > 0, "floor (%s) must be positive", floor);
+        checkArgument(ceiling >= floor, "ceiling (%s) must not be lower than floor (%s)", ceiling, floor);
+        this.adaptiveTimeoutFloorMillis = unit.toMillis(floor);
+        this.adaptiveTimeoutCeilingMillis = unit.toMillis(ceiling);
+        return this;
+    }
+
+    public long adaptiveTimeoutFloorMillis() {
+        return adaptiveTimeoutFloorMillis;
+    }
+
+    public long adaptiveTimeoutCeilingMillis() {
+        return adaptiveTimeoutCeilingMillis == 0 ? requestTimeoutMillis : adaptiveTimeoutCeilingMillis;
+    }
+
+    /**
+     * {@link EventLoopType#EPOLL} uses Netty's native transport on Linux, it falls back to NIO if the native library
+     * can't be loaded.
+     */
+    public TransportOptions eventLoopType(EventLoopType eventLoopType) {
+        this.eventLoopType = eventLoopType;
+        return this;
+    }
+
+    public EventLoopType eventLoopType() {
+        return eventLoopType;
+    }
+
+    /**
+     * Edge-triggered or level-triggered epoll, only used by the native transport.
+     */
+    public TransportOptions edgeTriggered(boolean edgeTriggered) {
+        this.edgeTriggered = edgeTriggered;
+        return this;
+    }
+
+    public boolean edgeTriggered() {
+        return edgeTriggered;
+    }
+
+    /**
+     * Number of server sockets that accept connections. More than one acceptor binds the same port
+     * multiple times using SO_REUSEPORT so it's only used by the native transport.
+     */
+    public TransportOptions acceptorThreads(int acceptorThreads) {
+        checkArgument(acceptorThreads > 0, "acceptorThreads (%s) must be positive", acceptorThreads);
+        this.acceptorThreads = acceptorThreads;
+        return this;
+    }
+
+    public int acceptorThreads() {
+        return acceptorThreads;
+    }
+
+    /**
+     * Sets TCP_CORK on the native transport sockets. The kernel holds partial frames until they're full
+     * so it reduces the number of packets for bulk transfers at the cost of latency.
+     */
+    public TransportOptions tcpCork(boolean tcpCork) {
+        this.tcpCork = tcpCork;
+        return this;
+    }
+
+    public boolean tcpCork() {
+        return tcpCork;
+    }
+
+    /**
+     * Number of connections opened to each member. Requests are striped over the connections by their key
+     * (see {@link org.rakam.kume.transport.StripedRequest}) or by their service id.
+     */
+    public TransportOptions connectionsPerMember(int connectionsPerMember) {
+        checkArgument(connectionsPerMember > 0, "connectionsPerMember (%s) must be positive", connectionsPerMember);
+        this.connectionsPerMember = connectionsPerMember;
+        return this;
+    }
+
+    public int connectionsPerMember() {
+        return connectionsPerMember;
+    }
+
+    /**
+     * Defers the deserialization of incoming requests to the executor of the target service instead of the IO thread,
+     * see {@link org.rakam.kume.service.Service#handle(org.rakam.kume.transport.OperationContext, org.rakam.kume.transport.SerializedPayload)}.
+     */
+    public TransportOptions lazyDeserialization(boolean lazyDeserialization) {
+        this.lazyDeserialization = lazyDeserialization;
+        return this;
+    }
+
+    public boolean lazyDeserialization() {
+        return lazyDeserialization;
+    }
+
+    /**
+     * Compresses large frames with LZ4 if the other member also enabled compression.
+     */
+    public TransportOptions compression(boolean compression) {
+        this.compression = compression;
+        return this;
+    }
+
+    public boolean compression() {
+        return compression;
+    }
+
+    /**
+     * Frames smaller than this size are never compressed.
+     */
+    public TransportOptions compressionThreshold(int bytes) {
+        checkArgument(bytes >= 0, "bytes (%s) must not be negative", bytes);
+        this.compressionThreshold = bytes;
+        return this;
+    }
+
+    public int compressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * How the requests are handled when the outbound buffer of a connection is above the high water mark.
+     */
+    public TransportOptions backpressure(BackpressureMode backpressure) {
+        this.backpressure = backpressure;
+        return this;
+    }
+
+    public BackpressureMode backpressure() {
+        return backpressure;
+    }
+
+    /**
+     * A channel stops being writable when its outbound buffer exceeds the high water mark and
+     * becomes writable again when the buffer drains below the low water mark.
+     */
+    public TransportOptions writeBufferWaterMark(int low, int high) {
+        checkArgument(low >= 0, "low (%s) must not be negative", low);
+        checkArgument(high >= low, "high (%s) must not be lower than low (%s)", high, low);
+        this.writeBufferLowWaterMark = low;
+        this.writeBufferHighWaterMark = high;
+        return this;
+    }
+
+    public int writeBufferLowWaterMark() {
+        return writeBufferLowWaterMark;
+    }
+
+    public int writeBufferHighWaterMark() {
+        return writeBufferHighWaterMark;
+    }
+
+    /**
+     * The server stops reading from a connection when the executor of a service has more queued requests than
+     * this value, and resumes once the executor catches up. Zero disables the limit.
+     */
+    public TransportOptions maxQueuedRequests(int maxQueuedRequests) {
+        checkArgument(maxQueuedRequests >= 0, "maxQueuedRequests (%s) must not be negative", maxQueuedRequests);
+        this.maxQueuedRequests = maxQueuedRequests;
+        return this;
+    }
+
+    public int maxQueuedRequests() {
+        return maxQueuedRequests;
+    }
+
+    /**
+     * Encoded packets larger than this size are sent in multiple chunks.
+     */
+    public TransportOptions chunkSize(int chunkSize) {
+        // leave room for the frame headers
+        checkArgument(chunkSize > 0 && chunkSize <= MAX_FRAME_SIZE - 64,
+                "chunkSize (%s) must be positive and smaller than the frame size", chunkSize);
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    public int chunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Upper bound of a chunked packet, the connection is closed if the peer sends a larger one.
+     */
+    public TransportOptions maxMessageSize(int maxMessageSize) {
+        checkArgument(maxMessageSize > 0, "maxMessageSize (%s) must be positive", maxMessageSize);
+        this.maxMessageSize = maxMessageSize;
+        return this;
+    }
+
+    public int maxMessageSize() {
+        return maxMessageSize;
+    }
+
+    /**
+     * Directory of the Unix domain sockets that are used between the members on the same host instead of TCP loopback.
+     * It requires the native transport, see {@link EventLoopType#EPOLL}. Domain sockets are disabled if it's null.
+     */
+    public TransportOptions domainSocketDirectory(String domainSocketDirectory) {
+        this.domainSocketDirectory = domainSocketDirectory;
+        return this;
+    }
+
+    public String domainSocketDirectory() {
+        return domainSocketDirectory;
+    }
+
+    /**
+     * Registers the transport metrics to the platform MBean server.
+     */
+    public TransportOptions jmx(boolean jmx) {
+        this.jmx = jmx;
+        return this;
+    }
+
+    public boolean jmx() {
+        return jmx;
+    }
+
+    /**
+     * Runs the requests that implement {@link org.rakam.kume.transport.NonBlockingRequest} on the IO thread
+     * of the connection instead of the executor of the service.
+     */
+    public TransportOptions inlineNonBlockingRequests(boolean inlineNonBlockingRequests) {
+        this.inlineNonBlockingRequests = inlineNonBlockingRequests;
+        return this;
+    }
+
+    public boolean inlineNonBlockingRequests() {
+        return inlineNonBlockingRequests;
+    }
+}
@@ -0,0 +1,79 @@
+package org.rakam.kume.network;
+
+import org.rakam.kume.TransportOptions;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Calculates the request deadline of a member channel from the round trip times observed on it.
+ * The deadline is a multiple of the configured percentile, bounded by the floor and ceiling of the options.
+ * A request that times out is recorded with its deadline, so if the latency of the member grows the
+ * deadline grows with it instead of timing out every request. Until there are enough samples the ceiling is used.
+ * If adaptive timeouts are disabled the deadline is always the request timeout, the latencies are still recorded.
+ */
+public class AdaptiveTimeout {
+    private static final int WINDOW = 4096;
+    private static final int MIN_SAMPLES = 32;
+    // the deadline is recalculated after this many samples, calculating the percentile scans the histogram.
+    private static final int UPDATE_INTERVAL = 64;
+    private static final int HEADROOM = 2;
+
+    private final LatencyHistogram histogram = new LatencyHistogram(WINDOW);
+    private final boolean enabled;
+    private final double percentile;
+    private final long floorNanos;
+    private final long ceilingNanos;
+    private volatile long timeoutNanos;
+    // the replies of a member are recorded by several threads
+    private final AtomicInteger samples = new AtomicInteger();
+
+    public AdaptiveTimeout(TransportOptions options) {
+        this.enabled = options.adaptiveTimeout();
+        this.percentile = options.adaptiveTimeoutPercentile();
+        this.floorNanos = TimeUnit.MILLISECONDS.toNanos(options.adaptiveTimeoutFloorMillis());
+        this.ceilingNanos = TimeUnit.MILLISECONDS.toNanos(enabled ? options.adaptiveTimeoutCeilingMillis() : options.requestTimeoutMillis());
+        this.timeoutNanos = ceilingNanos;
+    }
+
+    /**
+     * Records the round trip time of a request that is replied.
+     */
+    public void record(long nanos) {
+        histogram.record(nanos);
+        int count = samples.incrementAndGet();
+        if (enabled && (count % UPDATE_INTERVAL == 0 || count == MIN_SAMPLES)) {
+            update();
+        }
+    }
+
+    /**
+     * Records a request that is not replied until its deadline.
+     */
+    public void timedOut(long deadlineNanos) {
+        record(deadlineNanos);
+        if (enabled) {
+            update();
+        }
+    }
+
+    private void update() {
+        if (histogram.count() < MIN_SAMPLES) {
+            return;
+        }
+        long timeout = histogram.percentile(percentile) * HEADROOM;
+        timeoutNanos = Math.max(floorNanos, Math.min(ceilingNanos, timeout));
+    }
+
+    public long timeoutNanos() {
+        return timeoutNanos;
+    }
+
+    /**
+     * Round trip time of the given percentile in nanoseconds, 0 if no request is replied yet.
+     */
+    public long latency(double percentile) {
+        return histogram.percentile(percentile);
+    }
+}
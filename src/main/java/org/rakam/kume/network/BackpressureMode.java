@@ -0,0 +1,21 @@
+package org.rakam.kume.network;
+
+
+/**
+ * What happens to a request when the outbound buffer of the connection is above the high water mark.
+ */
+public enum BackpressureMode {
+    /**
+     * The request is written regardless of the buffer size.
+     */
+    NONE,
+    /**
+     * The request is queued and written when the buffer drains below the low water mark.
+     */
+    WAIT,
+    /**
+     * The future of the request fails with {@link java.util.concurrent.RejectedExecutionException},
+     * one-way messages are dropped.
+     */
+    FAIL_FAST
+}
@@ -0,0 +1,83 @@
+package org.rakam.kume.network;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOutboundBuffer;
+import io.netty.util.AttributeKey;
+import org.rakam.kume.Member;
+
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Collects the metrics of a single connection, the codecs report the packets they encode and decode
+ * and the handler counts the writability changes of the channel.
+ */
+public class ChannelMetrics extends ChannelInboundHandlerAdapter {
+    public static final AttributeKey<ChannelMetrics> KEY = AttributeKey.valueOf("metrics");
+
+    private final TransportMetrics transportMetrics;
+    private final Channel channel;
+    private final TrafficCounters traffic = new TrafficCounters();
+    private final LongAdder writabilityChanges = new LongAdder();
+
+    public ChannelMetrics(TransportMetrics transportMetrics, Channel channel) {
+        this.transportMetrics = transportMetrics;
+        this.channel = channel;
+        transportMetrics.register(this);
+        // a channel that fails to connect is closed without becoming inactive.
+        channel.closeFuture().addListener(f -> transportMetrics.unregister(this));
+    }
+
+    public void encoded(int service, int bytes, long nanos) {
+        traffic.encoded(bytes, nanos);
+        TrafficCounters counters = transportMetrics.service(service);
+        if (counters != null) {
+            counters.encoded(bytes, nanos);
+        }
+    }
+
+    public void decoded(int service, int bytes, long nanos) {
+        traffic.decoded(bytes, nanos);
+        TrafficCounters counters = transportMetrics.service(service);
+        if (counters != null) {
+            counters.decoded(bytes, nanos);
+        }
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        writabilityChanges.increment();
+        super.channelWritabilityChanged(ctx);
+    }
+
+    /**
+     * The member on the other side, null if the incoming connection didn't send its handshake yet.
+     */
+    Member member() {
+        return channel.attr(ServerChannelAdapter.MEMBER).get();
+    }
+
+    TrafficCounters traffic() {
+        return traffic;
+    }
+
+    int pendingRequests() {
+        PendingRequestTable pendingRequests = channel.attr(PendingRequestTable.KEY).get();
+        return pendingRequests == null ? 0 : pendingRequests.size();
+    }
+
+    long outboundBufferBytes() {
+        ChannelOutboundBuffer buffer = channel.unsafe().outboundBuffer();
+        return buffer == null ? 0 : buffer.totalPendingWriteBytes();
+    }
+
+    long writabilityChanges() {
+        return writabilityChanges.sum();
+    }
+
+    boolean isWritable() {
+        return channel.isWritable();
+    }
+}
@@ -0,0 +1,123 @@
+package org.rakam.kume.network;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.MessageToMessageCodec;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.handler.stream.ChunkedInput;
+import org.rakam.kume.TransportOptions;
+
+import java.util.List;
+
+
+/**
+ * Splits the encoded packets that are larger than the chunk size into multiple frames so that they fit into the
+ * frame limit of the connection. The chunks are handed to a {@link io.netty.handler.stream.ChunkedWriteHandler}
+ * that writes the next chunk only while the channel is writable, so a large packet doesn't fill the outbound buffer.
+ * The receiver collects the chunks into a composite buffer without copying them.
+ */
+public class ChunkedFrameCodec extends MessageToMessageCodec<ByteBuf, ByteBuf> {
+    private static final byte COMPLETE = 0;
+    private static final byte CHUNK = 1;
+    private static final byte LAST_CHUNK = 2;
+
+    private final int chunkSize;
+    private final int maxMessageSize;
+    private CompositeByteBuf assembling;
+
+    public ChunkedFrameCodec(TransportOptions options) {
+        this.chunkSize = options.chunkSize();
+        this.maxMessageSize = options.maxMessageSize();
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, ByteBuf msg, List<Object> out) throws Exception {
+        if (msg.readableBytes() <= chunkSize) {
+            out.add(withType(ctx, COMPLETE, msg.retain()));
+        } else {
+            out.add(new Chunks(msg.retain()));
+        }
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf msg, List<Object> out) throws Exception {
+        byte type = msg.readByte();
+        ByteBuf content = msg.readSlice(msg.readableBytes());
+        switch (type) {
+            case COMPLETE:
+                if (assembling != null) {
+                    throw new CorruptedFrameException("received a complete frame before the last chunk");
+                }
+                out.add(content.retain());
+                break;
+            case CHUNK:
+            case LAST_CHUNK:
+                if (assembling == null) {
+                    assembling = ctx.alloc().compositeBuffer(Integer.MAX_VALUE);
+                }
+                if (assembling.readableBytes() + content.readableBytes() > maxMessageSize) {
+                    releaseChunks();
+                    throw new TooLongFrameException("chunked message is larger than " + maxMessageSize + " bytes");
+                }
+                assembling.addComponent(content.retain());
+                assembling.writerIndex(assembling.writerIndex() + content.readableBytes());
+                if (type == LAST_CHUNK) {
+                    out.add(assembling);
+                    assembling = null;
+                }
+                break;
+            default:
+                throw new CorruptedFrameException("unknown chunk type " + type);
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        releaseChunks();
+        super.channelInactive(ctx);
+    }
+
+    private void releaseChunks() {
+        if (assembling != null) {
+            assembling.release();
+            assembling = null;
+        }
+    }
+
+    private static ByteBuf withType(ChannelHandlerContext ctx, byte type, ByteBuf content) {
+        ByteBuf header = ctx.alloc().buffer(1);
+        header.writeByte(type);
+        return Unpooled.wrappedBuffer(header, content);
+    }
+
+    private class Chunks implements ChunkedInput<ByteBuf> {
+        private final ByteBuf content;
+
+        Chunks(ByteBuf content) {
+            this.content = content;
+        }
+
+        @Override
+        public boolean isEndOfInput() {
+            return !content.isReadable();
+        }
+
+        @Override
+        public void close() {
+            content.release();
+        }
+
+        @Override
+        public ByteBuf readChunk(ChannelHandlerContext ctx) {
+            if (!content.isReadable()) {
+                return null;
+            }
+            int size = Math.min(chunkSize, content.readableBytes());
+            ByteBuf chunk = content.readSlice(size).retain();
+            return withType(ctx, content.isReadable() ? CHUNK : LAST_CHUNK, chunk);
+        }
+    }
+}
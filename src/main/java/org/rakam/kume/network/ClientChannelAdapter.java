@@ -1,36 +1,38 @@
 package org.rakam.kume.network;
 
-import com.google.common.cache.Cache;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import org.rakam.kume.transport.Packet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentMap;
+import java.nio.channels.ClosedChannelException;
 
 
 public class ClientChannelAdapter extends ChannelInboundHandlerAdapter {
     final static Logger LOGGER = LoggerFactory.getLogger(ClientChannelAdapter.class);
 
-    final ConcurrentMap<Integer, CompletableFuture<Object>> messageHandlers;
+    final PendingRequestTable pendingRequests;
 
-    public ClientChannelAdapter(Cache<Integer, CompletableFuture<Object>> messageHandlers) {
-        this.messageHandlers = messageHandlers.asMap();
+    public ClientChannelAdapter(PendingRequestTable pendingRequests) {
+        this.pendingRequests = pendingRequests;
     }
 
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
         Packet read = (Packet) msg;
-        CompletableFuture<Object> ifPresent = messageHandlers.remove(read.sequence);
-        if (ifPresent != null) {
-            ifPresent.complete(read.getData());
-        } else {
+        if (!pendingRequests.complete(read.sequence, read.getData())) {
             LOGGER.warn("unhandled packet {}", msg);
         }
     }
 
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        // no reply will arrive from a closed channel, don't let the callers wait for their timeouts.
+        pendingRequests.failAll(new ClosedChannelException());
+        super.channelInactive(ctx);
+    }
+
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
         super.exceptionCaught(ctx, cause);
@@ -0,0 +1,91 @@
+package org.rakam.kume.network;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Compression statistics of a single connection.
+ */
+public class CompressionStats {
+    private final AtomicLong compressedFrames = new AtomicLong();
+    private final AtomicLong skippedFrames = new AtomicLong();
+    private final AtomicLong uncompressedBytes = new AtomicLong();
+    private final AtomicLong compressedBytes = new AtomicLong();
+    private final AtomicLong compressNanos = new AtomicLong();
+    private final AtomicLong decompressedFrames = new AtomicLong();
+    private final AtomicLong decompressNanos = new AtomicLong();
+
+    void compressed(int originalSize, int compressedSize, long nanos) {
+        compressedFrames.incrementAndGet();
+        uncompressedBytes.addAndGet(originalSize);
+        compressedBytes.addAndGet(compressedSize);
+        compressNanos.addAndGet(nanos);
+    }
+
+    void skipped(long nanos) {
+        skippedFrames.incrementAndGet();
+        compressNanos.addAndGet(nanos);
+    }
+
+    void decompressed(long nanos) {
+        decompressedFrames.incrementAndGet();
+        decompressNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Number of frames that are sent compressed.
+     */
+    public long compressedFrames() {
+        return compressedFrames.get();
+    }
+
+    /**
+     * Number of frames above the threshold that are sent raw because they were not compressible.
+     */
+    public long skippedFrames() {
+        return skippedFrames.get();
+    }
+
+    public long uncompressedBytes() {
+        return uncompressedBytes.get();
+    }
+
+    public long compressedBytes() {
+        return compressedBytes.get();
+    }
+
+    /**
+     * Time spent compressing outgoing frames, including the frames that were skipped.
+     */
+    public long compressNanos() {
+        return compressNanos.get();
+    }
+
+    public long decompressedFrames() {
+        return decompressedFrames.get();
+    }
+
+    public long decompressNanos() {
+        return decompressNanos.get();
+    }
+
+    /**
+     * Compressed size divided by the original size of the compressed frames, 1 if no frame is compressed yet.
+     */
+    public double ratio() {
+        long original = uncompressedBytes.get();
+        return original == 0 ? 1 : compressedBytes.get() / (double) original;
+    }
+
+    @Override
+    public String toString() {
+        return "CompressionStats{" +
+                "compressedFrames=" + compressedFrames() +
+                ", skippedFrames=" + skippedFrames() +
+                ", ratio=" + ratio() +
+                ", compressNanos=" + compressNanos() +
+                ", decompressedFrames=" + decompressedFrames() +
+                ", decompressNanos=" + decompressNanos() +
+                '}';
+    }
+}
@@ -0,0 +1,41 @@
+package org.rakam.kume.network;
+
+import org.rakam.kume.TransportOptions;
+import org.rakam.kume.util.NetworkUtil;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+
+
+/**
+ * Resolves the Unix domain socket of the members that run on the same host.
+ * A member listens on {@code <domainSocketDirectory>/kume-<host>-<port>.sock} in addition to its TCP port, so the other
+ * members on the host can find the socket from the member address. The members that bind the same port on different
+ * local addresses have different sockets. Domain sockets require the native
+ * epoll transport, TCP is used if it's not available, the peer is on another host or the peer doesn't listen on a socket.
+ */
+public final class DomainSockets {
+    private DomainSockets() {
+    }
+
+    public static boolean isEnabled(TransportOptions options, EventLoopType eventLoopType) {
+        return options.domainSocketDirectory() != null && eventLoopType == EventLoopType.EPOLL;
+    }
+
+    public static File socketFile(TransportOptions options, InetSocketAddress address) {
+        String host = address.getAddress() != null ? address.getAddress().getHostAddress() : address.getHostString();
+        // the separators of IPv6 addresses and scope ids are not portable in file names.
+        return new File(options.domainSocketDirectory(), "kume-" + host.replaceAll("[^A-Za-z0-9.-]", "_") + "-" + address.getPort() + ".sock");
+    }
+
+    /**
+     * Returns the socket of the member if it can be reached through a domain socket, null otherwise.
+     */
+    public static File findSocket(TransportOptions options, EventLoopType eventLoopType, InetSocketAddress address) {
+        if (!isEnabled(options, eventLoopType) || !NetworkUtil.isLocalAddress(address.getAddress())) {
+            return null;
+        }
+        File file = socketFile(options, address);
+        return file.exists() ? file : null;
+    }
+}
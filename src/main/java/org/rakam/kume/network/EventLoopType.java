@@ -0,0 +1,82 @@
+package org.rakam.kume.network;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.ServerSocketChannel;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.internal.PlatformDependent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * The IO implementation that is used for TCP connections.
+ * EPOLL uses Netty's native transport which is only available on Linux, {@link #resolve()} falls back to NIO on other platforms.
+ */
+public enum EventLoopType {
+    NIO {
+        @Override
+        public EventLoopGroup newEventLoopGroup(int threads) {
+            return new NioEventLoopGroup(threads);
+        }
+
+        @Override
+        public Class<? extends SocketChannel> socketChannel() {
+            return NioSocketChannel.class;
+        }
+
+        @Override
+        public Class<? extends ServerSocketChannel> serverSocketChannel() {
+            return NioServerSocketChannel.class;
+        }
+    },
+    EPOLL {
+        @Override
+        public EventLoopGroup newEventLoopGroup(int threads) {
+            return new EpollEventLoopGroup(threads);
+        }
+
+        @Override
+        public Class<? extends SocketChannel> socketChannel() {
+            return EpollSocketChannel.class;
+        }
+
+        @Override
+        public Class<? extends ServerSocketChannel> serverSocketChannel() {
+            return EpollServerSocketChannel.class;
+        }
+    };
+
+    final static Logger LOGGER = LoggerFactory.getLogger(EventLoopType.class);
+
+    public abstract EventLoopGroup newEventLoopGroup(int threads);
+
+    public abstract Class<? extends SocketChannel> socketChannel();
+
+    public abstract Class<? extends ServerSocketChannel> serverSocketChannel();
+
+    public EventLoopType resolve() {
+        return resolve(Epoll.isAvailable(), PlatformDependent.hasUnsafe());
+    }
+
+    EventLoopType resolve(boolean epollAvailable, boolean hasUnsafe) {
+        if (this == EPOLL) {
+            if (!epollAvailable) {
+                LOGGER.warn("Native epoll transport is not available, falling back to NIO", Epoll.unavailabilityCause());
+                return NIO;
+            }
+            // the native transport accesses the memory of direct buffers through sun.misc.Unsafe
+            if (!hasUnsafe) {
+                LOGGER.warn("Native epoll transport requires sun.misc.Unsafe, falling back to NIO");
+                return NIO;
+            }
+        }
+        return this;
+    }
+}
@@ -0,0 +1,144 @@
+package org.rakam.kume.network;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.DecoderException;
+import io.netty.handler.codec.MessageToMessageCodec;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.util.AttributeKey;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+import org.rakam.kume.TransportOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+
+/**
+ * Compresses the frames that are larger than a threshold with LZ4.
+ * Each frame starts with a type byte. When the connection becomes active both sides send a handshake frame
+ * that contains the codecs they accept, a side compresses its frames only if the peer accepts LZ4, so
+ * the members that disabled compression still talk to the others. Small frames are always sent raw,
+ * large frames are sent raw if they turn out to be incompressible.
+ */
+public class FrameCompressionHandler extends MessageToMessageCodec<ByteBuf, ByteBuf> {
+    final static Logger LOGGER = LoggerFactory.getLogger(FrameCompressionHandler.class);
+
+    public static final AttributeKey<FrameCompressionHandler> KEY = AttributeKey.valueOf("compression");
+
+    private static final byte RAW = 0;
+    private static final byte LZ4 = 1;
+    private static final byte HANDSHAKE = 2;
+
+    private static final int CODEC_LZ4 = 1;
+
+    private static final LZ4Factory FACTORY = LZ4Factory.fastestInstance();
+
+    private final boolean enabled;
+    private final int threshold;
+    private final LZ4Compressor compressor = FACTORY.fastCompressor();
+    private final LZ4SafeDecompressor decompressor = FACTORY.safeDecompressor();
+    private final CompressionStats stats = new CompressionStats();
+    private volatile boolean peerAcceptsLz4;
+
+    public FrameCompressionHandler(TransportOptions options) {
+        this.enabled = options.compression();
+        this.threshold = options.compressionThreshold();
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        ByteBuf handshake = ctx.alloc().buffer(2);
+        handshake.writeByte(HANDSHAKE);
+        handshake.writeByte(enabled ? CODEC_LZ4 : 0);
+        ctx.writeAndFlush(handshake);
+        super.channelActive(ctx);
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, ByteBuf msg, List<Object> out) throws Exception {
+        int length = msg.readableBytes();
+        if (peerAcceptsLz4 && length >= threshold) {
+            long start = System.nanoTime();
+            int maxLength = compressor.maxCompressedLength(length);
+            ByteBuf compressed = ctx.alloc().buffer(1 + Integer.BYTES + maxLength);
+            compressed.writeByte(LZ4);
+            compressed.writeInt(length);
+
+            ByteBuffer src = msg.nioBuffer();
+            ByteBuffer dest = compressed.nioBuffer(compressed.writerIndex(), maxLength);
+            int size = compressor.compress(src, src.position(), length, dest, dest.position(), maxLength);
+            long nanos = System.nanoTime() - start;
+
+            if (size < length) {
+                compressed.writerIndex(compressed.writerIndex() + size);
+                stats.compressed(length, size, nanos);
+                out.add(compressed);
+                return;
+            }
+            compressed.release();
+            stats.skipped(nanos);
+        }
+
+        ByteBuf type = ctx.alloc().buffer(1);
+        type.writeByte(RAW);
+        out.add(Unpooled.wrappedBuffer(type, msg.retain()));
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf msg, List<Object> out) throws Exception {
+        byte type = msg.readByte();
+        switch (type) {
+            case RAW:
+                out.add(msg.readSlice(msg.readableBytes()).retain());
+                break;
+            case LZ4:
+                long start = System.nanoTime();
+                int length = msg.readInt();
+                // the length comes from the peer. the messages are chunked before they are compressed, so a frame
+                // never decompresses to more than a raw frame may take whatever chunk size the peer uses.
+                if (length < 0) {
+                    throw new CorruptedFrameException("negative decompressed frame length " + length);
+                }
+                if (length > TransportOptions.MAX_FRAME_SIZE) {
+                    throw new TooLongFrameException("decompressed frame length " + length + " exceeds " + TransportOptions.MAX_FRAME_SIZE);
+                }
+                ByteBuf decompressed = ctx.alloc().buffer(length, length);
+                try {
+                    ByteBuffer src = msg.nioBuffer();
+                    ByteBuffer dest = decompressed.nioBuffer(0, length);
+                    int size = decompressor.decompress(src, src.position(), src.remaining(), dest, dest.position(), length);
+                    if (size != length) {
+                        throw new CorruptedFrameException("decompressed frame length " + size + " doesn't match " + length);
+                    }
+                } catch (Exception e) {
+                    decompressed.release();
+                    throw e instanceof DecoderException ? (DecoderException) e : new DecoderException(e);
+                }
+                decompressed.writerIndex(length);
+                stats.decompressed(System.nanoTime() - start);
+                out.add(decompressed);
+                break;
+            case HANDSHAKE:
+                int codecs = msg.readUnsignedByte();
+                peerAcceptsLz4 = enabled && (codecs & CODEC_LZ4) != 0;
+                LOGGER.debug("Compression of {} is {}", ctx.channel().remoteAddress(), peerAcceptsLz4 ? "enabled" : "disabled");
+                break;
+            default:
+                throw new CorruptedFrameException("unknown frame type " + type);
+        }
+    }
+
+    public boolean isCompressing() {
+        return peerAcceptsLz4;
+    }
+
+    public CompressionStats stats() {
+        return stats;
+    }
+}
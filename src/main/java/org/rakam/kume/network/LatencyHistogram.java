@@ -0,0 +1,93 @@
+package org.rakam.kume.network;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * Log-linear histogram of latencies in microseconds. Each power of two is divided into eight buckets so the
+ * relative error of a percentile is at most 12.5%. Recording doesn't lock or allocate; when the histogram
+ * reaches its window every bucket is halved so that the distribution follows the recent samples.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // covers latencies up to 2^40 microseconds
+    private static final int BUCKETS = (40 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicInteger count = new AtomicInteger();
+    private final int window;
+
+    public LatencyHistogram(int window) {
+        this.window = window;
+    }
+
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        buckets.incrementAndGet(bucket(micros));
+        if (count.incrementAndGet() == window) {
+            decay();
+        }
+    }
+
+    private void decay() {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            long value = buckets.get(i);
+            long halved = value >> 1;
+            // the concurrent increments may be lost, the histogram is an approximation anyway.
+            buckets.addAndGet(i, halved - value);
+            total += halved;
+        }
+        count.set((int) total);
+    }
+
+    /**
+     * Number of samples in the current window.
+     */
+    public int count() {
+        return count.get();
+    }
+
+    /**
+     * @param percentile between 0 and 1
+     * @return upper bound of the bucket that contains the percentile in nanoseconds, 0 if there is no sample
+     */
+    public long percentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += buckets.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= Math.max(rank, 1)) {
+                return upperBound(i) * 1000;
+            }
+        }
+        return upperBound(BUCKETS - 1) * 1000;
+    }
+
+    static int bucket(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int index = (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + (int) ((micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+        return Math.min(index, BUCKETS - 1);
+    }
+
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket + 1;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1) << (exponent - SUB_BUCKET_BITS));
+    }
+}
@@ -0,0 +1,221 @@
+package org.rakam.kume.network;
+
+import io.netty.util.AttributeKey;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+
+/**
+ * Correlates the replies of a single channel with the futures of the requests sent over it.
+ * Sequences are allocated per channel so there is no global counter shared by all connections,
+ * and the futures are kept in an open-addressed table keyed by the primitive sequence so a lookup
+ * doesn't box the key or lock a shared cache segment.
+ * Each request has its own deadline on a timer wheel, when the deadline passes the future fails
+ * with a {@link TimeoutException} and the slot is released immediately.
+ * The round trip times of the replied requests are recorded to the {@link AdaptiveTimeout} of the channel.
+ */
+public class PendingRequestTable {
+    public static final AttributeKey<PendingRequestTable> KEY = AttributeKey.valueOf("pendingRequests");
+
+    // sequences start from zero and -1 is used for packets that don't expect a reply, so it never appears in the table.
+    private static final long FREE = -1;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final Timer timer;
+    private final AdaptiveTimeout adaptiveTimeout;
+    private long[] keys;
+    private Pending[] values;
+    private int mask;
+    private int shift;
+    private int size;
+    private long nextSequence;
+
+    public PendingRequestTable(Timer timer) {
+        this(timer, null);
+    }
+
+    public PendingRequestTable(Timer timer, AdaptiveTimeout adaptiveTimeout) {
+        this.timer = timer;
+        this.adaptiveTimeout = adaptiveTimeout;
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, FREE);
+        values = new Pending[capacity];
+        mask = capacity - 1;
+        shift = Long.numberOfLeadingZeros(mask);
+    }
+
+    /**
+     * Allocates a sequence for the request and registers its future.
+     *
+     * @return the sequence that must be sent with the request
+     */
+    public long register(CompletableFuture future, long timeout, TimeUnit unit) {
+        Pending pending;
+        synchronized (this) {
+            long sequence = nextSequence++;
+            pending = new Pending(sequence, future, System.nanoTime());
+            if (size + 1 > (mask + 1) >> 1) {
+                resize();
+            }
+            insert(sequence, pending);
+            size++;
+        }
+        pending.timeout = timer.newTimeout(pending, timeout, unit);
+        return pending.sequence;
+    }
+
+    /**
+     * Completes the future of the request that has the given sequence.
+     *
+     * @return false if there is no pending request for the sequence, most probably it's already timed out.
+     */
+    public boolean complete(long sequence, Object value) {
+        Pending pending = remove(sequence);
+        if (pending == null) {
+            return false;
+        }
+        pending.cancelTimeout();
+        if (adaptiveTimeout != null) {
+            adaptiveTimeout.record(System.nanoTime() - pending.startNanos);
+        }
+        pending.future.complete(value);
+        return true;
+    }
+
+    public boolean fail(long sequence, Throwable cause) {
+        Pending pending = remove(sequence);
+        if (pending == null) {
+            return false;
+        }
+        pending.cancelTimeout();
+        pending.future.completeExceptionally(cause);
+        return true;
+    }
+
+    /**
+     * Fails all the pending requests, used when the channel is closed since no reply will arrive anymore.
+     */
+    public void failAll(Throwable cause) {
+        List<Pending> failed;
+        synchronized (this) {
+            failed = new ArrayList<>(size);
+            for (Pending value : values) {
+                if (value != null) {
+                    failed.add(value);
+                }
+            }
+            allocate(INITIAL_CAPACITY);
+            size = 0;
+        }
+        for (Pending pending : failed) {
+            pending.cancelTimeout();
+            pending.future.completeExceptionally(cause);
+        }
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    // sequences are consecutive, fibonacci hashing spreads them over the table.
+    // otherwise they form a single cluster and removing an entry shifts the whole cluster.
+    private int index(long sequence) {
+        return (int) ((sequence * 0x9E3779B97F4A7C15L) >>> shift) & mask;
+    }
+
+    private void insert(long sequence, Pending pending) {
+        int i = index(sequence);
+        while (keys[i] != FREE) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = sequence;
+        values[i] = pending;
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        Pending[] oldValues = values;
+        allocate(oldKeys.length << 1);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE) {
+                insert(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private synchronized Pending remove(long sequence) {
+        int i = index(sequence);
+        while (keys[i] != sequence) {
+            if (keys[i] == FREE) {
+                return null;
+            }
+            i = (i + 1) & mask;
+        }
+
+        Pending removed = values[i];
+        size--;
+
+        // shift the following entries of the cluster back so that lookups don't need tombstones.
+        int hole = i;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            long key = keys[j];
+            if (key == FREE) {
+                break;
+            }
+            int home = index(key);
+            boolean between = hole <= j ? (hole < home && home <= j) : (hole < home || home <= j);
+            if (!between) {
+                keys[hole] = key;
+                values[hole] = values[j];
+                hole = j;
+            }
+        }
+        keys[hole] = FREE;
+        values[hole] = null;
+        return removed;
+    }
+
+    private class Pending implements TimerTask {
+        final long sequence;
+        final CompletableFuture future;
+        final long startNanos;
+        volatile Timeout timeout;
+
+        Pending(long sequence, CompletableFuture future, long startNanos) {
+            this.sequence = sequence;
+            this.future = future;
+            this.startNanos = startNanos;
+        }
+
+        void cancelTimeout() {
+            Timeout t = timeout;
+            if (t != null) {
+                t.cancel();
+            }
+        }
+
+        @Override
+        public void run(Timeout timeout) {
+            if (remove(sequence) != null) {
+                if (adaptiveTimeout != null) {
+                    adaptiveTimeout.timedOut(System.nanoTime() - startNanos);
+                }
+                future.completeExceptionally(new TimeoutException());
+            }
+        }
+    }
+}
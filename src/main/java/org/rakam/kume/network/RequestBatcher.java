@@ -0,0 +1,120 @@
+package org.rakam.kume.network;
+
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.EventLoop;
+import io.netty.util.internal.PlatformDependent;
+import org.rakam.kume.TransportOptions;
+import org.rakam.kume.transport.MultiPacket;
+import org.rakam.kume.transport.Packet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+
+/**
+ * Collects the packets sent to a member and writes them as a single {@link MultiPacket} so that the encoder and
+ * the frame handlers run once for the batch. The callers only append to a lock-free queue, the event loop of
+ * the channel drains it when the batch is full or when the batch delay passes after the first packet.
+ * Each request still has its own sequence, the replies complete their futures individually.
+ */
+public class RequestBatcher {
+    private final Queue<Packet> queue = PlatformDependent.newMpscQueue();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final EventLoop eventLoop;
+    private final Function<Object, ChannelFuture> writer;
+    private final PendingRequestTable pendingRequests;
+    private final int maxBatchSize;
+    private final long batchDelayNanos;
+    private final Runnable flushTask = this::flush;
+
+    private final AtomicLong packets = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+
+    public RequestBatcher(EventLoop eventLoop, Function<Object, ChannelFuture> writer, PendingRequestTable pendingRequests, TransportOptions options) {
+        this.eventLoop = eventLoop;
+        this.writer = writer;
+        this.pendingRequests = pendingRequests;
+        this.maxBatchSize = options.requestBatchSize();
+        this.batchDelayNanos = options.requestBatchDelayNanos();
+    }
+
+    public void add(Packet packet) {
+        queue.add(packet);
+        if (queued.incrementAndGet() == maxBatchSize) {
+            // don't wait for the delay of the scheduled flush, the flush drains all the full batches.
+            eventLoop.execute(flushTask);
+        } else if (flushScheduled.compareAndSet(false, true)) {
+            if (batchDelayNanos == 0) {
+                eventLoop.execute(flushTask);
+            } else {
+                eventLoop.schedule(flushTask, batchDelayNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    private void flush() {
+        flushScheduled.set(false);
+        while (true) {
+            List<Packet> batch = new ArrayList<>(Math.min(queued.get(), maxBatchSize));
+            Packet packet;
+            while (batch.size() < maxBatchSize && (packet = queue.poll()) != null) {
+                batch.add(packet);
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            queued.addAndGet(-batch.size());
+            packets.addAndGet(batch.size());
+            batches.incrementAndGet();
+            if (batch.size() == 1) {
+                write(batch.get(0), batch);
+            } else {
+                write(new MultiPacket(batch), batch);
+            }
+            if (batch.size() < maxBatchSize) {
+                // the packets that are added after the poll schedule their own flush.
+                return;
+            }
+        }
+    }
+
+    private void write(Object msg, List<Packet> batch) {
+        writer.apply(msg).addListener(f -> {
+            if (!f.isSuccess()) {
+                for (Packet packet : batch) {
+                    if (packet.sequence != -1) {
+                        pendingRequests.fail(packet.sequence, f.cause());
+                    }
+                }
+            }
+        });
+    }
+
+    public long packetCount() {
+        return packets.get();
+    }
+
+    public long batchCount() {
+        return batches.get();
+    }
+
+    public double averageBatchSize() {
+        long batchCount = batches.get();
+        return batchCount == 0 ? 0 : packets.get() / (double) batchCount;
+    }
+
+    @Override
+    public String toString() {
+        return "RequestBatcher{" +
+                "packets=" + packetCount() +
+                ", batches=" + batchCount() +
+                '}';
+    }
+}
@@ -4,9 +4,16 @@ import org.rakam.kume.transport.PacketDecoder;
 import org.rakam.kume.transport.RemoteOperationContext;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+import org.rakam.kume.Member;
+import org.rakam.kume.TransportOptions;
 import org.rakam.kume.service.Service;
+import org.rakam.kume.transport.NonBlockingRequest;
 import org.rakam.kume.transport.Packet;
 import org.rakam.kume.transport.Request;
+import org.rakam.kume.transport.SerializedPayload;
 import org.rakam.kume.util.ThrowableNioEventLoopGroup;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -16,14 +23,26 @@ import java.util.List;
 
 public class ServerChannelAdapter extends ChannelInboundHandlerAdapter {
     final static Logger LOGGER = LoggerFactory.getLogger(PacketDecoder.class);
+    // the member on the other side of the channel, set by the handshake on the server and when connecting on the client.
+    public static final AttributeKey<Member> MEMBER = AttributeKey.valueOf("member");
 
     List<Service> services;
 
     ThrowableNioEventLoopGroup eventExecutors;
 
-    public ServerChannelAdapter(List<Service> services, ThrowableNioEventLoopGroup executor) {
+    private final int maxQueuedRequests;
+    private final boolean pauseWhenNotWritable;
+    private final boolean inlineNonBlockingRequests;
+    // the reasons to stop reading from the channel, only accessed from the event loop of the channel.
+    private boolean executorBehind;
+    private boolean outboundFull;
+
+    public ServerChannelAdapter(List<Service> services, ThrowableNioEventLoopGroup executor, TransportOptions options) {
         this.services = services;
         eventExecutors = executor;
+        maxQueuedRequests = options.maxQueuedRequests();
+        pauseWhenNotWritable = options.backpressure() != BackpressureMode.NONE;
+        inlineNonBlockingRequests = options.inlineNonBlockingRequests();
     }
 
     @Override
@@ -31,15 +50,84 @@ public class ServerChannelAdapter extends ChannelInboundHandlerAdapter {
         LOGGER.trace("server {} got message {}", ctx.channel().localAddress(), msg);
 
         Packet read = (Packet) msg;
+        if (read.service == Packet.HANDSHAKE_SERVICE) {
+            handshake(ctx, read);
+            return;
+        }
         Object o = read.getData();
 
         RemoteOperationContext ctx1 = new RemoteOperationContext(ctx, read.service, read.sequence);
         Service service = services.get(read.service);
-        if (o instanceof Request) {
+        if (o instanceof SerializedPayload) {
+            service.handle(eventExecutors, ctx1, (SerializedPayload) o);
+        } else if (inlineNonBlockingRequests && o instanceof NonBlockingRequest && o instanceof Request) {
+            runInline(service, ctx1, (Request) o);
+            return;
+        } else if (o instanceof Request) {
             service.handle(eventExecutors, ctx1, (Request) o);
         } else {
             service.handle(eventExecutors, ctx1, o);
         }
+
+        if (maxQueuedRequests > 0 && !executorBehind) {
+            checkExecutor(ctx, eventExecutors.getChild(read.service % eventExecutors.executorCount()));
+        }
+    }
+
+    private void runInline(Service service, RemoteOperationContext ctx, Request request) {
+        try {
+            request.run(service, ctx);
+        } catch (Exception e) {
+            // don't let a failing request close the connection that is shared by the other requests.
+            LOGGER.error("error while running non-blocking request {}", request, e);
+        }
+    }
+
+    private void handshake(ChannelHandlerContext ctx, Packet packet) {
+        Object data = packet.getData();
+        if (data instanceof SerializedPayload) {
+            data = ((SerializedPayload) data).deserialize();
+        }
+        if (!(data instanceof Member)) {
+            LOGGER.warn("Invalid handshake {} from {}, closing the connection", data, ctx.channel().remoteAddress());
+            ctx.close();
+            return;
+        }
+        Member member = (Member) data;
+        ctx.channel().attr(MEMBER).set(member);
+        LOGGER.debug("{} connected from {}", member, ctx.channel().remoteAddress());
+    }
+
+    private void checkExecutor(ChannelHandlerContext ctx, EventExecutor executor) {
+        if (!(executor instanceof SingleThreadEventExecutor)
+                || ((SingleThreadEventExecutor) executor).pendingTasks() <= maxQueuedRequests) {
+            return;
+        }
+        executorBehind = true;
+        updateAutoRead(ctx);
+        // the executor runs its tasks in order, when it reaches this task the requests read so far are processed.
+        executor.execute(() -> ctx.channel().eventLoop().execute(() -> {
+            executorBehind = false;
+            updateAutoRead(ctx);
+        }));
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (pauseWhenNotWritable) {
+            // the replies can't be sent fast enough, stop reading more requests from the peer.
+            outboundFull = !ctx.channel().isWritable();
+            updateAutoRead(ctx);
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
+    private void updateAutoRead(ChannelHandlerContext ctx) {
+        boolean autoRead = !executorBehind && !outboundFull;
+        if (ctx.channel().config().isAutoRead() != autoRead) {
+            LOGGER.debug("{} reading from {}", autoRead ? "Resumed" : "Paused", ctx.channel().remoteAddress());
+            ctx.channel().config().setAutoRead(autoRead);
+        }
     }
 
     @Override
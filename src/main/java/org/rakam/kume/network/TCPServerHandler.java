@@ -8,10 +8,12 @@ import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
-import io.netty.handler.codec.LengthFieldPrepender;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollMode;
+import io.netty.channel.epoll.EpollServerDomainSocketChannel;
+import io.netty.channel.unix.DomainSocketAddress;
+import io.netty.handler.stream.ChunkedWriteHandler;
+import org.rakam.kume.TransportOptions;
 import org.rakam.kume.service.Service;
 import org.rakam.kume.transport.PacketDecoder;
 import org.rakam.kume.transport.PacketEncoder;
@@ -19,55 +21,125 @@ import org.rakam.kume.util.ThrowableNioEventLoopGroup;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.util.ArrayList;
 import java.util.List;
 
 
 public class TCPServerHandler {
     final static Logger LOGGER = LoggerFactory.getLogger(TCPServerHandler.class);
-    private final Channel server;
+    private final List<Channel> servers;
+    private final File domainSocket;
 
-    public TCPServerHandler(EventLoopGroup bossGroup, EventLoopGroup workerGroup, ThrowableNioEventLoopGroup eventExecutor, List<Service> services, InetSocketAddress serverAddress) throws InterruptedException {
-        ChannelFuture bind = new ServerBootstrap()
-                .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+    public TCPServerHandler(EventLoopGroup bossGroup, EventLoopGroup workerGroup, EventLoopType eventLoopType, ThrowableNioEventLoopGroup eventExecutor, List<Service> services, TransportMetrics metrics, InetSocketAddress serverAddress, TransportOptions options) throws InterruptedException {
+        ServerBootstrap bootstrap = new ServerBootstrap();
+        int acceptors = 1;
+        if (eventLoopType == EventLoopType.EPOLL) {
+            EpollMode mode = options.edgeTriggered() ? EpollMode.EDGE_TRIGGERED : EpollMode.LEVEL_TRIGGERED;
+            bootstrap.option(EpollChannelOption.EPOLL_MODE, mode)
+                    .childOption(EpollChannelOption.EPOLL_MODE, mode)
+                    .childOption(EpollChannelOption.TCP_CORK, options.tcpCork());
+            if (options.acceptorThreads() > 1) {
+                // each acceptor has its own socket bound to the same port, the kernel balances the connections between them.
+                bootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+                acceptors = options.acceptorThreads();
+            }
+        }
+
+        bootstrap.childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .childOption(ChannelOption.WRITE_BUFFER_LOW_WATER_MARK, options.writeBufferLowWaterMark())
+                .childOption(ChannelOption.WRITE_BUFFER_HIGH_WATER_MARK, options.writeBufferHighWaterMark())
                 .group(bossGroup, workerGroup)
-                .channel(NioServerSocketChannel.class)
+                .channel(eventLoopType.serverSocketChannel())
                 .option(ChannelOption.AUTO_READ, false)
                 .option(ChannelOption.SO_BACKLOG, 100)
-                .childHandler(new ChannelInitializer<SocketChannel>() {
+                .childHandler(new ChannelInitializer<Channel>() {
                     @Override
-                    public void initChannel(SocketChannel ch) throws Exception {
+                    public void initChannel(Channel ch) throws Exception {
                         ChannelPipeline p = ch.pipeline();
-                        p.addLast("frameDecoder", new LengthFieldBasedFrameDecoder(1048576, 0, 4, 0, 4));
-                        p.addLast("packetDecoder", new PacketDecoder());
-                        p.addLast("frameEncoder", new LengthFieldPrepender(Integer.BYTES));
-                        p.addLast("packetEncoder", new PacketEncoder());
-                        p.addLast(new ServerChannelAdapter(services, eventExecutor));
+                        p.addLast("frameDecoder", new VarintFrameDecoder(TransportOptions.MAX_FRAME_SIZE));
+                        p.addLast("frameEncoder", new VarintLengthPrepender());
+                        FrameCompressionHandler compression = new FrameCompressionHandler(options);
+                        ch.attr(FrameCompressionHandler.KEY).set(compression);
+                        p.addLast("compression", compression);
+                        p.addLast("chunkedWriter", new ChunkedWriteHandler());
+                        p.addLast("chunking", new ChunkedFrameCodec(options));
+                        ChannelMetrics channelMetrics = new ChannelMetrics(metrics, ch);
+                        ch.attr(ChannelMetrics.KEY).set(channelMetrics);
+                        p.addLast("packetDecoder", new PacketDecoder(options.lazyDeserialization(), channelMetrics));
+                        p.addLast("packetEncoder", new PacketEncoder(channelMetrics));
+                        p.addLast("metrics", channelMetrics);
+                        p.addLast(new ServerChannelAdapter(services, eventExecutor, options));
+                        if (options.writeCoalescing()) {
+                            ch.attr(WriteCoalescer.KEY).set(new WriteCoalescer(ch, options));
+                        }
                     }
-                }).bind(serverAddress);
+                });
 
-        server = bind.sync()
-                .addListener(future -> {
-                    if (!future.isSuccess()) {
-                        LOGGER.error("Failed to bind {}", bind.channel().localAddress());
-                    }
-                }).awaitUninterruptibly().channel();
+        servers = new ArrayList<>(acceptors);
+        SocketAddress address = serverAddress;
+        for (int i = 0; i < acceptors; i++) {
+            ChannelFuture bind = bootstrap.bind(address);
+            Channel server = bind.sync()
+                    .addListener(future -> {
+                        if (!future.isSuccess()) {
+                            LOGGER.error("Failed to bind {}", bind.channel().localAddress());
+                        }
+                    }).awaitUninterruptibly().channel();
+            servers.add(server);
+            // the port may be chosen by the OS, the other acceptors must share it.
+            address = server.localAddress();
+        }
+
+        if (DomainSockets.isEnabled(options, eventLoopType)) {
+            // the port may be chosen by the OS, the host is the one the other members know this member by.
+            domainSocket = DomainSockets.socketFile(options, new InetSocketAddress(serverAddress.getAddress(), ((InetSocketAddress) address).getPort()));
+            bindDomainSocket(bootstrap, domainSocket);
+        } else {
+            domainSocket = null;
+        }
+    }
+
+    private void bindDomainSocket(ServerBootstrap tcpBootstrap, File file) {
+        // the file of a member that is not closed properly prevents the bind.
+        if (file.exists() && !file.delete()) {
+            LOGGER.warn("Couldn't delete stale domain socket {}", file);
+        }
+        // a null value removes the TCP specific options
+        ServerBootstrap bootstrap = tcpBootstrap.clone()
+                .channel(EpollServerDomainSocketChannel.class)
+                .option(EpollChannelOption.SO_REUSEPORT, null)
+                .childOption(EpollChannelOption.TCP_CORK, null);
+        ChannelFuture bind = bootstrap.bind(new DomainSocketAddress(file)).awaitUninterruptibly();
+        if (bind.isSuccess()) {
+            servers.add(bind.channel());
+        } else {
+            LOGGER.warn("Failed to bind domain socket {}, the members on this host will use TCP", file, bind.cause());
+        }
     }
 
     public ChannelFuture waitForClose() throws InterruptedException {
-        return server.closeFuture().sync();
+        return servers.get(0).closeFuture().sync();
     }
 
     public SocketAddress localAddress() {
-        return server.localAddress();
+        return servers.get(0).localAddress();
     }
 
     public void setAutoRead(boolean b) {
-        server.config().setAutoRead(b);
+        for (Channel server : servers) {
+            server.config().setAutoRead(b);
+        }
     }
 
     public void close() throws InterruptedException {
-        server.close().sync();
+        for (Channel server : servers) {
+            server.close().sync();
+        }
+        if (domainSocket != null) {
+            domainSocket.delete();
+        }
     }
 }
@@ -0,0 +1,33 @@
+package org.rakam.kume.network;
+
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Packet and byte counters of a channel or a service, the sizes include the packet header but not the framing.
+ */
+public class TrafficCounters {
+    private final LongAdder packetsIn = new LongAdder();
+    private final LongAdder packetsOut = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder encodeNanos = new LongAdder();
+    private final LongAdder decodeNanos = new LongAdder();
+
+    void encoded(int bytes, long nanos) {
+        packetsOut.increment();
+        bytesOut.add(bytes);
+        encodeNanos.add(nanos);
+    }
+
+    void decoded(int bytes, long nanos) {
+        packetsIn.increment();
+        bytesIn.add(bytes);
+        decodeNanos.add(nanos);
+    }
+
+    public TransportSnapshot.Traffic snapshot() {
+        return new TransportSnapshot.Traffic(packetsIn.sum(), packetsOut.sum(), bytesIn.sum(), bytesOut.sum(),
+                encodeNanos.sum(), decodeNanos.sum());
+    }
+}
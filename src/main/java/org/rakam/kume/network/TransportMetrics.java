@@ -0,0 +1,179 @@
+package org.rakam.kume.network;
+
+import io.netty.buffer.PooledByteBufAllocator;
+import org.rakam.kume.Member;
+import org.rakam.kume.transport.Packet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * The metrics of the connections of a transport, grouped by member and by service.
+ * {@link #snapshot()} returns the current values, the same values are exposed over JMX after {@link #registerMBean(String)}.
+ */
+public class TransportMetrics implements TransportMetricsMXBean {
+    final static Logger LOGGER = LoggerFactory.getLogger(TransportMetrics.class);
+
+    private final Set<ChannelMetrics> channels = ConcurrentHashMap.newKeySet();
+    // the services of the transport, the ids that the peers send are only counted if there is such a service.
+    private final List<?> serviceList;
+    private volatile TrafficCounters[] services = new TrafficCounters[16];
+    private ObjectName objectName;
+
+    public TransportMetrics(List<?> serviceList) {
+        this.serviceList = serviceList;
+    }
+
+    void register(ChannelMetrics metrics) {
+        channels.add(metrics);
+    }
+
+    void unregister(ChannelMetrics metrics) {
+        channels.remove(metrics);
+    }
+
+    /**
+     * Returns the counters of the service, null for the internal packets such as the handshake and for the ids
+     * that don't belong to a service.
+     */
+    TrafficCounters service(int service) {
+        if (service == Packet.HANDSHAKE_SERVICE || service < 0 || service >= serviceList.size()) {
+            return null;
+        }
+        TrafficCounters[] array = services;
+        if (service < array.length && array[service] != null) {
+            return array[service];
+        }
+        synchronized (this) {
+            array = services;
+            if (service >= array.length) {
+                array = Arrays.copyOf(array, Math.max(array.length * 2, service + 1));
+            }
+            if (array[service] == null) {
+                array = array.clone();
+                array[service] = new TrafficCounters();
+                services = array;
+            }
+            return array[service];
+        }
+    }
+
+    public TransportSnapshot snapshot() {
+        return new TransportSnapshot(getTotal(), getMembers(), getServices(), getAllocator());
+    }
+
+    @Override
+    public TransportSnapshot.Traffic getTotal() {
+        TransportSnapshot.Traffic total = TransportSnapshot.Traffic.EMPTY;
+        for (TrafficCounters counters : services) {
+            if (counters != null) {
+                total = total.plus(counters.snapshot());
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public List<TransportSnapshot.MemberStats> getMembers() {
+        Map<Member, List<ChannelMetrics>> byMember = new LinkedHashMap<>();
+        List<ChannelMetrics> unknown = new ArrayList<>();
+        for (ChannelMetrics channel : channels) {
+            Member member = channel.member();
+            if (member == null) {
+                unknown.add(channel);
+            } else {
+                byMember.computeIfAbsent(member, key -> new ArrayList<>()).add(channel);
+            }
+        }
+
+        List<TransportSnapshot.MemberStats> stats = new ArrayList<>(byMember.size() + 1);
+        byMember.forEach((member, channels) -> stats.add(memberStats(member, channels)));
+        if (!unknown.isEmpty()) {
+            stats.add(memberStats(null, unknown));
+        }
+        return stats;
+    }
+
+    private static TransportSnapshot.MemberStats memberStats(Member member, List<ChannelMetrics> channels) {
+        TransportSnapshot.Traffic traffic = TransportSnapshot.Traffic.EMPTY;
+        int pendingRequests = 0;
+        long outboundBufferBytes = 0;
+        long writabilityChanges = 0;
+        boolean writable = true;
+        for (ChannelMetrics channel : channels) {
+            traffic = traffic.plus(channel.traffic().snapshot());
+            pendingRequests += channel.pendingRequests();
+            outboundBufferBytes += channel.outboundBufferBytes();
+            writabilityChanges += channel.writabilityChanges();
+            writable &= channel.isWritable();
+        }
+        return new TransportSnapshot.MemberStats(member, channels.size(), traffic, pendingRequests,
+                outboundBufferBytes, writabilityChanges, writable);
+    }
+
+    @Override
+    public List<TransportSnapshot.ServiceStats> getServices() {
+        TrafficCounters[] array = services;
+        List<TransportSnapshot.ServiceStats> stats = new ArrayList<>();
+        for (int i = 0; i < array.length; i++) {
+            if (array[i] != null) {
+                stats.add(new TransportSnapshot.ServiceStats(i, array[i].snapshot()));
+            }
+        }
+        return stats;
+    }
+
+    @Override
+    public TransportSnapshot.AllocatorStats getAllocator() {
+        long count = 0;
+        long used = 0;
+        long capacity = 0;
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) {
+                count = pool.getCount();
+                used = pool.getMemoryUsed();
+                capacity = pool.getTotalCapacity();
+            }
+        }
+        return new TransportSnapshot.AllocatorStats(PooledByteBufAllocator.DEFAULT.isDirectBufferPooled(), count, used, capacity);
+    }
+
+    /**
+     * Registers the metrics to the platform MBean server as {@code org.rakam.kume:type=Transport,name=<name>}.
+     */
+    public synchronized void registerMBean(String name) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            objectName = new ObjectName("org.rakam.kume:type=Transport,name=" + ObjectName.quote(name));
+            server.registerMBean(this, objectName);
+        } catch (JMException e) {
+            LOGGER.warn("Couldn't register the transport metrics to JMX", e);
+            objectName = null;
+        }
+    }
+
+    public synchronized void unregisterMBean() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            LOGGER.warn("Couldn't unregister the transport metrics from JMX", e);
+        }
+        objectName = null;
+    }
+}
@@ -0,0 +1,14 @@
+package org.rakam.kume.network;
+
+import java.util.List;
+
+
+public interface TransportMetricsMXBean {
+    TransportSnapshot.Traffic getTotal();
+
+    List<TransportSnapshot.MemberStats> getMembers();
+
+    List<TransportSnapshot.ServiceStats> getServices();
+
+    TransportSnapshot.AllocatorStats getAllocator();
+}
@@ -0,0 +1,283 @@
+package org.rakam.kume.network;
+
+import org.rakam.kume.Member;
+
+import java.util.List;
+
+
+/**
+ * The metrics of a transport at a point in time. The getters follow the bean conventions so that the
+ * values are also exposed as composite data over JMX.
+ */
+public class TransportSnapshot {
+    private final Traffic total;
+    private final List<MemberStats> members;
+    private final List<ServiceStats> services;
+    private final AllocatorStats allocator;
+
+    public TransportSnapshot(Traffic total, List<MemberStats> members, List<ServiceStats> services, AllocatorStats allocator) {
+        this.total = total;
+        this.members = members;
+        this.services = services;
+        this.allocator = allocator;
+    }
+
+    public Traffic getTotal() {
+        return total;
+    }
+
+    public List<MemberStats> getMembers() {
+        return members;
+    }
+
+    public List<ServiceStats> getServices() {
+        return services;
+    }
+
+    public AllocatorStats getAllocator() {
+        return allocator;
+    }
+
+    public MemberStats getMember(Member member) {
+        for (MemberStats stats : members) {
+            if (member.equals(stats.member())) {
+                return stats;
+            }
+        }
+        return null;
+    }
+
+    public ServiceStats getService(int service) {
+        for (ServiceStats stats : services) {
+            if (stats.getService() == service) {
+                return stats;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "TransportSnapshot{" +
+                "total=" + total +
+                ", members=" + members +
+                ", services=" + services +
+                ", allocator=" + allocator +
+                '}';
+    }
+
+    public static class Traffic {
+        public static final Traffic EMPTY = new Traffic(0, 0, 0, 0, 0, 0);
+
+        private final long packetsIn;
+        private final long packetsOut;
+        private final long bytesIn;
+        private final long bytesOut;
+        private final long encodeNanos;
+        private final long decodeNanos;
+
+        public Traffic(long packetsIn, long packetsOut, long bytesIn, long bytesOut, long encodeNanos, long decodeNanos) {
+            this.packetsIn = packetsIn;
+            this.packetsOut = packetsOut;
+            this.bytesIn = bytesIn;
+            this.bytesOut = bytesOut;
+            this.encodeNanos = encodeNanos;
+            this.decodeNanos = decodeNanos;
+        }
+
+        public Traffic plus(Traffic other) {
+            return new Traffic(packetsIn + other.packetsIn, packetsOut + other.packetsOut,
+                    bytesIn + other.bytesIn, bytesOut + other.bytesOut,
+                    encodeNanos + other.encodeNanos, decodeNanos + other.decodeNanos);
+        }
+
+        public long getPacketsIn() {
+            return packetsIn;
+        }
+
+        public long getPacketsOut() {
+            return packetsOut;
+        }
+
+        public long getBytesIn() {
+            return bytesIn;
+        }
+
+        public long getBytesOut() {
+            return bytesOut;
+        }
+
+        public long getEncodeNanos() {
+            return encodeNanos;
+        }
+
+        /**
+         * Time spent on the IO threads to decode the packets, it doesn't include the deserialization of lazy payloads.
+         */
+        public long getDecodeNanos() {
+            return decodeNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "Traffic{" +
+                    "packetsIn=" + packetsIn +
+                    ", packetsOut=" + packetsOut +
+                    ", bytesIn=" + bytesIn +
+                    ", bytesOut=" + bytesOut +
+                    ", encodeNanos=" + encodeNanos +
+                    ", decodeNanos=" + decodeNanos +
+                    '}';
+        }
+    }
+
+    /**
+     * The metrics of the incoming and outgoing connections of a member.
+     */
+    public static class MemberStats {
+        private final Member member;
+        private final int connections;
+        private final Traffic traffic;
+        private final int pendingRequests;
+        private final long outboundBufferBytes;
+        private final long writabilityChanges;
+        private final boolean writable;
+
+        public MemberStats(Member member, int connections, Traffic traffic, int pendingRequests, long outboundBufferBytes, long writabilityChanges, boolean writable) {
+            this.member = member;
+            this.connections = connections;
+            this.traffic = traffic;
+            this.pendingRequests = pendingRequests;
+            this.outboundBufferBytes = outboundBufferBytes;
+            this.writabilityChanges = writabilityChanges;
+            this.writable = writable;
+        }
+
+        /**
+         * The member or null for the incoming connections that didn't complete their handshake.
+         */
+        public Member member() {
+            return member;
+        }
+
+        public String getAddress() {
+            return member == null ? "unknown" : member.getAddress().getHostString() + ":" + member.getAddress().getPort();
+        }
+
+        public int getConnections() {
+            return connections;
+        }
+
+        public Traffic getTraffic() {
+            return traffic;
+        }
+
+        /**
+         * Number of requests sent to the member that are waiting for their replies.
+         */
+        public int getPendingRequests() {
+            return pendingRequests;
+        }
+
+        /**
+         * Bytes written to the connections of the member that are not flushed to the socket yet.
+         */
+        public long getOutboundBufferBytes() {
+            return outboundBufferBytes;
+        }
+
+        public long getWritabilityChanges() {
+            return writabilityChanges;
+        }
+
+        /**
+         * False if the outbound buffer of any connection is above its high water mark.
+         */
+        public boolean isWritable() {
+            return writable;
+        }
+
+        @Override
+        public String toString() {
+            return "MemberStats{" +
+                    "address=" + getAddress() +
+                    ", connections=" + connections +
+                    ", traffic=" + traffic +
+                    ", pendingRequests=" + pendingRequests +
+                    ", outboundBufferBytes=" + outboundBufferBytes +
+                    ", writabilityChanges=" + writabilityChanges +
+                    ", writable=" + writable +
+                    '}';
+        }
+    }
+
+    public static class ServiceStats {
+        private final int service;
+        private final Traffic traffic;
+
+        public ServiceStats(int service, Traffic traffic) {
+            this.service = service;
+            this.traffic = traffic;
+        }
+
+        public int getService() {
+            return service;
+        }
+
+        public Traffic getTraffic() {
+            return traffic;
+        }
+
+        @Override
+        public String toString() {
+            return "ServiceStats{" +
+                    "service=" + service +
+                    ", traffic=" + traffic +
+                    '}';
+        }
+    }
+
+    /**
+     * Netty 4.0 doesn't expose the usage of the pool arenas, the direct memory is read from the JVM buffer pool
+     * that the direct arenas allocate their chunks from.
+     */
+    public static class AllocatorStats {
+        private final boolean directBufferPooled;
+        private final long directBufferCount;
+        private final long directMemoryUsed;
+        private final long directMemoryCapacity;
+
+        public AllocatorStats(boolean directBufferPooled, long directBufferCount, long directMemoryUsed, long directMemoryCapacity) {
+            this.directBufferPooled = directBufferPooled;
+            this.directBufferCount = directBufferCount;
+            this.directMemoryUsed = directMemoryUsed;
+            this.directMemoryCapacity = directMemoryCapacity;
+        }
+
+        public boolean isDirectBufferPooled() {
+            return directBufferPooled;
+        }
+
+        public long getDirectBufferCount() {
+            return directBufferCount;
+        }
+
+        public long getDirectMemoryUsed() {
+            return directMemoryUsed;
+        }
+
+        public long getDirectMemoryCapacity() {
+            return directMemoryCapacity;
+        }
+
+        @Override
+        public String toString() {
+            return "AllocatorStats{" +
+                    "directBufferPooled=" + directBufferPooled +
+                    ", directBufferCount=" + directBufferCount +
+                    ", directMemoryUsed=" + directMemoryUsed +
+                    ", directMemoryCapacity=" + directMemoryCapacity +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package org.rakam.kume.network;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.TooLongFrameException;
+
+import java.util.List;
+
+
+/**
+ * Splits the stream into frames that are prefixed with their varint encoded length by {@link VarintLengthPrepender}.
+ */
+public class VarintFrameDecoder extends ByteToMessageDecoder {
+    private final int maxFrameLength;
+
+    public VarintFrameDecoder(int maxFrameLength) {
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+        in.markReaderIndex();
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (!in.isReadable()) {
+                in.resetReaderIndex();
+                return;
+            }
+            if (shift > 28) {
+                throw new CorruptedFrameException("frame length is longer than 5 bytes");
+            }
+            byte b = in.readByte();
+            length |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                break;
+            }
+        }
+        if (length < 0 || length > maxFrameLength) {
+            throw new TooLongFrameException("frame length " + length + " exceeds " + maxFrameLength);
+        }
+        if (in.readableBytes() < length) {
+            in.resetReaderIndex();
+            return;
+        }
+        out.add(in.readSlice(length).retain());
+    }
+}
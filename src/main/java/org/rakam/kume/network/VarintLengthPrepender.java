@@ -0,0 +1,25 @@
+package org.rakam.kume.network;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageEncoder;
+import org.rakam.kume.util.Varints;
+
+import java.util.List;
+
+
+/**
+ * Prepends the varint encoded length of the frame, most frames need a single byte instead of a fixed int.
+ */
+@ChannelHandler.Sharable
+public class VarintLengthPrepender extends MessageToMessageEncoder<ByteBuf> {
+    @Override
+    protected void encode(ChannelHandlerContext ctx, ByteBuf msg, List<Object> out) throws Exception {
+        int length = msg.readableBytes();
+        ByteBuf header = ctx.alloc().buffer(Varints.varintSize(length));
+        Varints.writeVarint(header, length);
+        out.add(header);
+        out.add(msg.retain());
+    }
+}
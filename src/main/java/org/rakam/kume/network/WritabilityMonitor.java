@@ -0,0 +1,88 @@
+package org.rakam.kume.network;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.AttributeKey;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Tracks the writability of a channel and completes the futures of the callers that wait for the
+ * outbound buffer to drain. The waiters are released in the order they arrived while the channel
+ * stays writable, so the writes that are deferred to the futures keep their order.
+ */
+public class WritabilityMonitor extends ChannelInboundHandlerAdapter {
+    public static final AttributeKey<WritabilityMonitor> KEY = AttributeKey.valueOf("writabilityMonitor");
+
+    private static final CompletableFuture<Void> WRITABLE = CompletableFuture.completedFuture(null);
+
+    private final Channel channel;
+    private final Queue<CompletableFuture<Void>> waiters = new ConcurrentLinkedQueue<>();
+    private final AtomicLong writabilityChanges = new AtomicLong();
+
+    public WritabilityMonitor(Channel channel) {
+        this.channel = channel;
+        // a channel that fails to connect is closed without becoming inactive.
+        channel.closeFuture().addListener(f -> failWaiters());
+    }
+
+    /**
+     * Returns a future that is completed when the outbound buffer of the channel is below the low water mark,
+     * or fails if the channel is closed before that. A channel that is still connecting is writable.
+     */
+    public CompletableFuture<Void> whenWritable() {
+        if (channel.isWritable() && waiters.isEmpty()) {
+            return WRITABLE;
+        }
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        waiters.add(future);
+        // the channel may have become writable or closed before the future is queued.
+        if (!channel.isOpen()) {
+            failWaiters();
+        } else if (channel.isWritable()) {
+            channel.eventLoop().execute(this::releaseWaiters);
+        }
+        return future;
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        writabilityChanges.incrementAndGet();
+        if (ctx.channel().isWritable()) {
+            releaseWaiters();
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
+    private void releaseWaiters() {
+        CompletableFuture<Void> waiter;
+        // a released waiter may write and fill the buffer again, the others wait for the next change.
+        while (channel.isWritable() && (waiter = waiters.poll()) != null) {
+            waiter.complete(null);
+        }
+    }
+
+    private void failWaiters() {
+        CompletableFuture<Void> waiter;
+        while ((waiter = waiters.poll()) != null) {
+            waiter.completeExceptionally(new ClosedChannelException());
+        }
+    }
+
+    public int waiterCount() {
+        return waiters.size();
+    }
+
+    /**
+     * Number of times the channel switched between writable and not writable.
+     */
+    public long writabilityChanges() {
+        return writabilityChanges.get();
+    }
+}
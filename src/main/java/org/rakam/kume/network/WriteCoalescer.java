@@ -0,0 +1,132 @@
+package org.rakam.kume.network;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.EventLoop;
+import io.netty.util.AttributeKey;
+import org.rakam.kume.TransportOptions;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Queues packets on a channel and flushes them together instead of issuing a syscall for each packet.
+ * A flush happens when the batch reaches the configured size, when the channel stops being writable
+ * or when the flush window expires. The window is zero (flush at the end of the event loop turn) under
+ * low load and doubles up to the configured maximum while batches keep filling up.
+ */
+public class WriteCoalescer {
+    public static final AttributeKey<WriteCoalescer> KEY = AttributeKey.valueOf("writeCoalescer");
+
+    // windows shorter than this are not worth a scheduled task, we flush at the end of the loop turn instead.
+    private static final long MIN_WINDOW_NANOS = TimeUnit.MICROSECONDS.toNanos(1);
+
+    private final Channel channel;
+    private final int maxBatchSize;
+    private final long maxWindowNanos;
+    private final Runnable flushTask = this::flushPending;
+
+    // only accessed from the event loop of the channel, the writes of the other threads are handed over to it.
+    private int pending;
+    private boolean flushScheduled;
+    private volatile long windowNanos;
+
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private volatile int largestBatch;
+
+    public WriteCoalescer(Channel channel, TransportOptions options) {
+        this.channel = channel;
+        this.maxBatchSize = options.maxBatchSize();
+        this.maxWindowNanos = options.maxFlushDelayNanos();
+    }
+
+    public ChannelFuture write(Object msg) {
+        ChannelPromise promise = channel.newPromise();
+        EventLoop eventLoop = channel.eventLoop();
+        if (eventLoop.inEventLoop()) {
+            write(msg, promise);
+        } else {
+            // the message must be in the outbound buffer when it's counted, otherwise a flush that runs between
+            // the two may take the count and leave the message unflushed.
+            eventLoop.execute(() -> write(msg, promise));
+        }
+        return promise;
+    }
+
+    private void write(Object msg, ChannelPromise promise) {
+        channel.write(msg, promise);
+        pending++;
+
+        if (pending >= maxBatchSize || !channel.isWritable()) {
+            flushPending();
+        } else if (!flushScheduled) {
+            flushScheduled = true;
+            long window = windowNanos;
+            if (window == 0) {
+                channel.eventLoop().execute(flushTask);
+            } else {
+                channel.eventLoop().schedule(flushTask, window, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    private void flushPending() {
+        flushScheduled = false;
+        int batch = pending;
+        if (batch == 0) {
+            // the batch was flushed when it became full.
+            return;
+        }
+        pending = 0;
+        channel.flush();
+        messages.addAndGet(batch);
+        flushes.incrementAndGet();
+        if (batch > largestBatch)
+            largestBatch = batch;
+        adapt(batch);
+    }
+
+    private void adapt(int batch) {
+        long window = windowNanos;
+        if (batch >= maxBatchSize / 2) {
+            windowNanos = Math.min(maxWindowNanos, Math.max(window * 2, MIN_WINDOW_NANOS));
+        } else if (batch <= 1) {
+            window = window / 2;
+            windowNanos = window < MIN_WINDOW_NANOS ? 0 : window;
+        }
+    }
+
+    public long messageCount() {
+        return messages.get();
+    }
+
+    public long flushCount() {
+        return flushes.get();
+    }
+
+    public int largestBatch() {
+        return largestBatch;
+    }
+
+    public double averageBatchSize() {
+        long flushCount = flushes.get();
+        return flushCount == 0 ? 0 : messages.get() / (double) flushCount;
+    }
+
+    public long currentWindowNanos() {
+        return windowNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "WriteCoalescer{" +
+                "messages=" + messageCount() +
+                ", flushes=" + flushCount() +
+                ", largestBatch=" + largestBatch +
+                ", windowNanos=" + windowNanos +
+                '}';
+    }
+}
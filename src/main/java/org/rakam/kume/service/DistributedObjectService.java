@@ -1,5 +1,7 @@
 package org.rakam.kume.service;
 
+import com.google.auto.service.AutoService;
+import org.rakam.kume.KryoSerializable;
 import org.rakam.kume.Cluster;
 import org.rakam.kume.transport.Operation;
 import org.rakam.kume.transport.OperationContext;
@@ -137,6 +139,8 @@ public abstract class DistributedObjectService<C extends DistributedObjectServic
 
     protected abstract boolean mergeIn(T val);
 
+    @KryoSerializable(id = 120)
+    @AutoService(KryoSerializable.class)
     private static class MergeRequest<C extends DistributedObjectService, T> implements Request<C, Boolean>
     {
         private final T val;
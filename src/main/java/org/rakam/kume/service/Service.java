@@ -3,6 +3,7 @@ package org.rakam.kume.service;
 import org.rakam.kume.transport.OperationContext;
 import io.netty.util.concurrent.EventExecutor;
 import org.rakam.kume.transport.Request;
+import org.rakam.kume.transport.SerializedPayload;
 import org.rakam.kume.util.ThrowableNioEventLoopGroup;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -46,5 +47,40 @@ public abstract class Service {
         }
     }
 
+    /**
+     * Handles a packet whose payload is not deserialized yet, it's called on the executor of the service.
+     * The default implementation deserializes the payload and dispatches it like an eagerly decoded packet,
+     * services can override it to store or forward the raw bytes. The implementation is responsible for
+     * releasing the payload.
+     */
+    public void handle(OperationContext ctx, SerializedPayload payload) {
+        Object object;
+        try {
+            object = payload.deserialize();
+        } catch (Exception e) {
+            LOGGER.warn("Couldn't deserialize object", e);
+            return;
+        }
+        if (object instanceof Request) {
+            ((Request) object).run(this, ctx);
+        } else {
+            handle(ctx, object);
+        }
+    }
+
+    public void handle(ThrowableNioEventLoopGroup executor, OperationContext ctx, SerializedPayload payload) {
+        int id = ctx.serviceId() % executor.executorCount();
+        EventExecutor child = executor.getChild(id);
+        if(child.inEventLoop()) {
+            try {
+                handle(ctx, payload);
+            } catch (Exception e) {
+                LOGGER.error("error while running throwable code block", e);
+            }
+        } else {
+            child.execute(() -> handle(ctx, payload));
+        }
+    }
+
     public abstract void onClose();
 }
\ No newline at end of file
@@ -1,11 +1,13 @@
 package org.rakam.kume.service.ringmap;
 
+import com.google.auto.service.AutoService;
 import org.rakam.kume.Cluster;
 import org.rakam.kume.KryoSerializable;
 import org.rakam.kume.MigrationListener;
 import org.rakam.kume.service.PausableService;
 import org.rakam.kume.transport.OperationContext;
 import org.rakam.kume.transport.Request;
+import org.rakam.kume.transport.StripedRequest;
 import org.rakam.kume.util.ConsistentHashRing;
 import org.rakam.kume.Member;
 import org.rakam.kume.MembershipListener;
@@ -311,6 +313,14 @@ public abstract class AbstractRingMap<C extends AbstractRingMap, M extends Map,
         return map[getPartitionId(bucketId)];
     }
 
+    /**
+     * Returns the partition of the bucket that the token falls into. The tokens in the requests are computed by the
+     * sender so the key is not hashed again.
+     */
+    protected Map<K, V> getBucketForToken(long token) {
+        return getBucket(ring.findBucketIdFromToken(token));
+    }
+
     protected int getPartitionId(int bucketId) {
         int i = Arrays.binarySearch(bucketIds, bucketId);
         if (i < 0)
@@ -337,16 +347,7 @@ public abstract class AbstractRingMap<C extends AbstractRingMap, M extends Map,
     }
 
     public CompletableFuture<Void> putAll(Map<K, V> fromMap) {
-        Map<Member, List<Map.Entry>> m = new HashMap<>();
-
-        for (Map.Entry entry : fromMap.entrySet()) {
-            for (Member member : ring.findBucketFromToken(ConsistentHashRing.hash(entry.getKey())).members) {
-                m.getOrDefault(member, new ArrayList()).add(entry);
-            }
-        }
-
-        m.forEach((key, value) -> getContext().send(key, new PutAllRequest(value)));
-
+        // each entry is put to its replicas like a single put, the future completes when all of them are acknowledged.
         CompletableFuture[] completableFutures = fromMap.entrySet().stream()
                 .map(entry -> put(entry.getKey(), entry.getValue()))
                 .toArray(CompletableFuture[]::new);
@@ -354,16 +355,19 @@ public abstract class AbstractRingMap<C extends AbstractRingMap, M extends Map,
     }
 
     public CompletableFuture<Void> put(K key, V val) {
-        int bucketId = ring.findBucketIdFromToken(ConsistentHashRing.hash(key));
-        ConsistentHashRing.Bucket bucket = ring.getBucket(bucketId);
-
-        MultipleFutureListener listener = new MultipleFutureListener((bucket.members.size() / 2) + 1);
-        for (Member next : bucket.members) {
+        long token = hash(key);
+        ConsistentHashRing ring = this.ring;
+        int bucketId = ring.findBucketIdFromToken(token);
+        int replicaCount = ring.getReplicaCount(bucketId);
+
+        MultipleFutureListener listener = new MultipleFutureListener((replicaCount / 2) + 1);
+        for (int i = 0; i < replicaCount; i++) {
+            Member next = ring.getReplica(bucketId, i);
             if (next.equals(localMember)) {
-                putLocal(key, val);
+                putLocal(key, token, val);
                 listener.increment();
             } else {
-                listener.listen(getContext().ask(next, new PutMapOperation(key, val)));
+                listener.listen(getContext().ask(next, new PutMapOperation(key, token, val)));
             }
         }
 
@@ -371,27 +375,30 @@ public abstract class AbstractRingMap<C extends AbstractRingMap, M extends Map,
     }
 
     public CompletableFuture<V> get(K key) {
-        int bucketId = ring.findBucketId(key);
-        ConsistentHashRing.Bucket bucket = ring.getBucket(bucketId);
-
-        ArrayList<Member> members = bucket.members;
-        if (members.contains(localMember)) {
-            return CompletableFuture.completedFuture(getBucket(bucketId).get(key));
+        long token = hash(key);
+        ConsistentHashRing ring = this.ring;
+        int bucketId = ring.findBucketIdFromToken(token);
+        int replicaCount = ring.getReplicaCount(bucketId);
+
+        for (int i = 0; i < replicaCount; i++) {
+            if (ring.getReplica(bucketId, i).equals(localMember)) {
+                return CompletableFuture.completedFuture(getBucket(bucketId).get(key));
+            }
         }
 
-        return getContext().ask(members.get(random.nextInt(members.size())),
-                new GetRequest(this, key));
+        return getContext().ask(ring.getReplica(bucketId, random.nextInt(replicaCount)),
+                new GetRequest(key, token));
     }
 
     public CompletableFuture<V> syncAndGet(String key) {
-        int bucketId = ring.findBucketId(key);
-        ConsistentHashRing.Bucket bucket = ring.getBucket(bucketId);
+        long token = hash(key);
+        ConsistentHashRing.Bucket bucket = ring.findBucketFromToken(token);
 
         AtomicReference<V> merged = new AtomicReference<>();
         CompletableFuture<Void>[] res = new CompletableFuture[bucket.members.size()];
 
         for (int i = 0; i < bucket.members.size(); i++) {
-            CompletableFuture<V> ask = getContext().ask(bucket.members.get(i), new GetRequest(this, key));
+            CompletableFuture<V> ask = getContext().ask(bucket.members.get(i), new GetRequest(key, token));
             res[i] = ask.thenAccept(x -> {
                 V v = merged.get();
                 if (v == null) {
@@ -442,13 +449,13 @@ public abstract class AbstractRingMap<C extends AbstractRingMap, M extends Map,
     }
 
     public <R> CompletableFuture<R> execute(K key, BiFunction<K, Modifiable<V>, R> execute) {
-        int bucketId = ring.findBucketId(key);
-        ConsistentHashRing.Bucket bucket = ring.getBucket(bucketId);
+        long token = hash(key);
+        ConsistentHashRing.Bucket bucket = ring.findBucketFromToken(token);
 
         ArrayList<Member> members = bucket.members;
 
         return getContext().ask(members.get(0), (service, ctx) -> {
-            Map<K, V> partition = service.getBucket(service.getRing().findBucketId(key));
+            Map<K, V> partition = service.getBucketForToken(token);
             Modifiable<V> vModifiable = new Modifiable<>(partition.get(key));
             R apply = execute.apply(key, vModifiable);
             if(vModifiable.changed()) {
@@ -458,29 +465,45 @@ public abstract class AbstractRingMap<C extends AbstractRingMap, M extends Map,
         });
     }
 
-    @KryoSerializable(id=10)
-    public static class PutMapOperation implements Request<AbstractRingMap, Void> {
+    @KryoSerializable(id = 200)
+    @AutoService(KryoSerializable.class)
+    public static class PutMapOperation implements Request<AbstractRingMap, Void>, StripedRequest {
         Object key;
+        long token;
         Object value;
 
         public PutMapOperation(Object key, Object value) {
+            this(key, hash(key), value);
+        }
+
+        public PutMapOperation(Object key, long token, Object value) {
             this.key = key;
+            this.token = token;
             this.value = value;
         }
 
         @Override
         public void run(AbstractRingMap service, OperationContext ctx) {
-            service.putLocal(key, value);
+            service.putLocal(key, token, value);
             ctx.reply(null);
         }
+
+        @Override
+        public long stripeKey() {
+            return key.hashCode();
+        }
     }
 
     protected void putLocal(K key, V value) {
-        Map<K, V> partition = getBucket(ring.findBucketId(key));
-        if (partition == null) {
+        putLocal(key, hash(key), value);
+    }
+
+    protected void putLocal(K key, long token, V value) {
+        int i = Arrays.binarySearch(bucketIds, ring.findBucketIdFromToken(token));
+        if (i < 0) {
             LOGGER.error("Discarded put request for key {} because node doesn't own that token.", key);
         } else {
-            partition.put(key, value);
+            map[i].put(key, value);
         }
     }
 }
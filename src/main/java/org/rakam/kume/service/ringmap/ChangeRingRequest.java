@@ -1,9 +1,11 @@
 package org.rakam.kume.service.ringmap;
 
+import com.google.auto.service.AutoService;
+import org.rakam.kume.KryoSerializable;
 import org.rakam.kume.Member;
 import org.rakam.kume.transport.OperationContext;
 import org.rakam.kume.transport.Request;
-import org.rakam.kume.transport.serialization.Serializer;
+import org.rakam.kume.transport.StripedRequest;
 import org.rakam.kume.util.ConsistentHashRing;
 
 import java.util.HashMap;
@@ -12,11 +14,13 @@ import java.util.Map;
 
 import static java.util.Map.Entry;
 
-class ChangeRingRequest<K, V> implements Request<RingMap, Map<K, V>>
+@KryoSerializable(id = 202)
+@AutoService(KryoSerializable.class)
+class ChangeRingRequest<K, V> implements Request<RingMap, Map<K, V>>, StripedRequest
 {
-    private final long queryStartToken;
-    private final long queryEndToken;
-    private ConsistentHashRing oldRing;
+    final long queryStartToken;
+    final long queryEndToken;
+    ConsistentHashRing oldRing;
 
     public ChangeRingRequest(long queryStartToken, long queryEndToken, ConsistentHashRing oldRing) {
         this.queryStartToken = queryStartToken;
@@ -29,6 +33,12 @@ class ChangeRingRequest<K, V> implements Request<RingMap, Map<K, V>>
         this.queryEndToken = queryEndToken;
     }
 
+    @Override
+    public long stripeKey() {
+        // migrations of different token ranges don't block each other
+        return queryStartToken;
+    }
+
     @Override
     public void run(RingMap service, OperationContext ctx) {
 //        synchronized (service) {
@@ -79,7 +89,7 @@ class ChangeRingRequest<K, V> implements Request<RingMap, Map<K, V>>
                             Iterator<Entry<K, V>> iterator = map.entrySet().iterator();
                             while (iterator.hasNext()) {
                                 Entry<K, V> n = iterator.next();
-                                long entryToken = ConsistentHashRing.hash(Serializer.toByteArray(n.getKey()));
+                                long entryToken = ConsistentHashRing.hash(n.getKey());
                                 if (ConsistentHashRing.isTokenBetween(entryToken, queryStartToken, queryEndToken)) {
                                     moveEntries.put(n.getKey(), n.getValue());
                                     iterator.remove();
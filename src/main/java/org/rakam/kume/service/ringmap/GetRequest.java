@@ -1,20 +1,30 @@
 package org.rakam.kume.service.ringmap;
 
+import com.google.auto.service.AutoService;
+import org.rakam.kume.KryoSerializable;
 import org.rakam.kume.transport.OperationContext;
 import org.rakam.kume.transport.Request;
+import org.rakam.kume.transport.StripedRequest;
 
-class GetRequest<K, V> implements Request<AbstractRingMap,V>
+@KryoSerializable(id = 201)
+@AutoService(KryoSerializable.class)
+class GetRequest<K, V> implements Request<AbstractRingMap,V>, StripedRequest
 {
-    private final K key;
-    private AbstractRingMap ringMap;
+    final K key;
+    final long token;
 
-    public GetRequest(AbstractRingMap ringMap, K key) {
+    public GetRequest(K key, long token) {
         this.key = key;
-        this.ringMap = ringMap;
+        this.token = token;
     }
 
     @Override
     public void run(AbstractRingMap service, OperationContext ctx) {
-        ctx.reply(service.getBucket(ringMap.getRing().findBucketId(key)).get(key));
+        ctx.reply(service.getBucketForToken(token).get(key));
+    }
+
+    @Override
+    public long stripeKey() {
+        return key.hashCode();
     }
 }
@@ -5,5 +5,9 @@ import org.rakam.kume.transport.Request;
 
 public interface PartitionRestrictedMapRequest<C extends AbstractRingMap, V> extends Request<C,V>
 {
+    /**
+     * Returns the local partition id of the key, the implementations should find it from the token that is sent
+     * with the request instead of hashing the key again.
+     */
     public int getPartition(AbstractRingMap service);
 }
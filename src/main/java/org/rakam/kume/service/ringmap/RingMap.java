@@ -1,11 +1,13 @@
 package org.rakam.kume.service.ringmap;
 
+import com.google.auto.service.AutoService;
+import org.rakam.kume.KryoSerializable;
 import org.rakam.kume.transport.OperationContext;
 import org.rakam.kume.util.ConsistentHashRing;
 import io.netty.util.concurrent.EventExecutor;
-import org.rakam.kume.Member;
 import org.rakam.kume.ServiceContext;
 import org.rakam.kume.transport.Request;
+import org.rakam.kume.transport.StripedRequest;
 import org.rakam.kume.util.FutureUtil;
 import org.rakam.kume.util.ThrowableNioEventLoopGroup;
 
@@ -29,19 +31,21 @@ public class RingMap<K, V> extends AbstractRingMap<RingMap, Map, K, V> {
     }
 
     public CompletableFuture<V> merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
-        int bucketId = getRing().findBucketIdFromToken(ConsistentHashRing.hash(key));
-        ConsistentHashRing.Bucket bucket = getRing().getBucket(bucketId);
-
-        FutureUtil.MultipleFutureListener listener = new FutureUtil.MultipleFutureListener((bucket.members.size() / 2) + 1);
-        for (Member next : bucket.members) {
-            listener.listen(getContext().ask(next, new MergeMapOperation(key, value, remappingFunction)));
+        long token = hash(key);
+        ConsistentHashRing ring = getRing();
+        int bucketId = ring.findBucketIdFromToken(token);
+        int replicaCount = ring.getReplicaCount(bucketId);
+
+        FutureUtil.MultipleFutureListener listener = new FutureUtil.MultipleFutureListener((replicaCount / 2) + 1);
+        for (int i = 0; i < replicaCount; i++) {
+            listener.listen(getContext().ask(ring.getReplica(bucketId, i), new MergeMapOperation(key, token, value, remappingFunction)));
         }
 
         return listener.get();
     }
 
-    protected V mergeLocal(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
-        Map<K, V> partition = getBucket(getRing().findBucketId(key));
+    protected V mergeLocal(K key, long token, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        Map<K, V> partition = getBucketForToken(token);
         V oldValue = partition.get(key);
         V newValue = (oldValue == null) ? value : remappingFunction.apply(oldValue, value);
         if (newValue == null) {
@@ -81,25 +85,38 @@ public class RingMap<K, V> extends AbstractRingMap<RingMap, Map, K, V> {
     }
 
 
-    public static class MergeMapOperation<V> implements PartitionRestrictedMapRequest<RingMap, V> {
-        private final BiFunction remappingFunction;
+    @KryoSerializable(id = 204)
+    @AutoService(KryoSerializable.class)
+    public static class MergeMapOperation<V> implements PartitionRestrictedMapRequest<RingMap, V>, StripedRequest {
+        final BiFunction remappingFunction;
         Object key;
+        long token;
         Object value;
 
         public MergeMapOperation(Object key, Object value, BiFunction remappingFunction) {
+            this(key, hash(key), value, remappingFunction);
+        }
+
+        public MergeMapOperation(Object key, long token, Object value, BiFunction remappingFunction) {
             this.key = key;
+            this.token = token;
             this.value = value;
             this.remappingFunction = remappingFunction;
         }
 
         @Override
         public void run(RingMap service, OperationContext ctx) {
-            ctx.reply(service.mergeLocal(key, value, remappingFunction));
+            ctx.reply(service.mergeLocal(key, token, value, remappingFunction));
         }
 
         @Override
         public int getPartition(AbstractRingMap service) {
-            return service.getPartitionId(service.getRing().findBucketId(key));
+            return service.getPartitionId(service.getRing().findBucketIdFromToken(token));
+        }
+
+        @Override
+        public long stripeKey() {
+            return key.hashCode();
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,23 @@
+package org.rakam.kume.transport;
+
+import java.util.List;
+
+
+/**
+ * Packets that are sent to the same member in a single frame. The receiver decodes them as separate packets,
+ * so the batch is only visible to the codec.
+ */
+public class MultiPacket {
+    public final List<Packet> packets;
+
+    public MultiPacket(List<Packet> packets) {
+        this.packets = packets;
+    }
+
+    @Override
+    public String toString() {
+        return "MultiPacket{" +
+                "packets=" + packets.size() +
+                '}';
+    }
+}
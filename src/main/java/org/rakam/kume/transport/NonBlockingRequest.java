@@ -0,0 +1,12 @@
+package org.rakam.kume.transport;
+
+
+/**
+ * Implemented by requests that are cheap and never block. The server runs them directly on the IO thread
+ * of the connection instead of submitting them to the executor of the service, and the reply is written
+ * from the same thread.
+ * The request may run concurrently with the other requests of the service that run on the executor,
+ * so it must only touch the state of the service that is safe to access from multiple threads.
+ */
+public interface NonBlockingRequest {
+}
@@ -1,11 +1,21 @@
 package org.rakam.kume.transport;
 
 public class Packet {
-    public final int sequence;
+    /**
+     * The service id of the packet that a member sends as the first packet of a connection to introduce itself.
+     */
+    public static final int HANDSHAKE_SERVICE = 0xFFFF;
+
+    public static final byte REQUEST = 0;
+    public static final byte REPLY = 1;
+    public static final byte ONEWAY = 2;
+
+    public long sequence;
     public Object data;
     public int service;
+    public boolean reply;
 
-    public Packet(int sequence, Object data, int service) {
+    public Packet(long sequence, Object data, int service) {
         this.sequence = sequence;
         this.data = data;
         this.service = service;
@@ -17,6 +27,19 @@ public class Packet {
         this.service = service;
     }
 
+    public static Packet reply(long sequence, Object data, int service) {
+        Packet packet = new Packet(sequence, data, service);
+        packet.reply = true;
+        return packet;
+    }
+
+    /**
+     * {@link #REPLY}, {@link #ONEWAY} if the sender doesn't wait for a reply or {@link #REQUEST}.
+     */
+    public byte type() {
+        return reply ? REPLY : sequence == -1 ? ONEWAY : REQUEST;
+    }
+
     public Object getData() {
         return data;
     }
@@ -28,6 +51,8 @@ public class Packet {
     public String toString() {
         return "Packet{" +
                 "sequence=" + sequence +
+                ", service=" + service +
+                ", type=" + type() +
                 ", data=" + data +
                 '}';
     }
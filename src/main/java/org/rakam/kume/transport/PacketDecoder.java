@@ -6,6 +6,9 @@ import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageDecoder;
 import org.rakam.kume.ByteBufInput;
+import org.rakam.kume.network.ChannelMetrics;
+import org.rakam.kume.transport.serialization.ClassDictionary;
+import org.rakam.kume.transport.serialization.DictionaryClassResolver;
 import org.rakam.kume.transport.serialization.KryoFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,10 +17,28 @@ import java.util.List;
 
 public class PacketDecoder extends ByteToMessageDecoder {
     private final Kryo kryo;
+    private final boolean lazy;
+    private final PacketHeader header = new PacketHeader();
+    private final ClassDictionary dictionary = new ClassDictionary();
+    private final ChannelMetrics metrics;
     final static Logger LOGGER = LoggerFactory.getLogger(PacketDecoder.class);
 
     public PacketDecoder() {
+        this(false);
+    }
+
+    /**
+     * @param lazy if true, the payloads are not deserialized on the IO thread. The packets carry a
+     *             {@link SerializedPayload} that holds a slice of the frame instead.
+     */
+    public PacketDecoder(boolean lazy) {
+        this(lazy, null);
+    }
+
+    public PacketDecoder(boolean lazy, ChannelMetrics metrics) {
         this.kryo = KryoFactory.getKryoInstance();
+        this.lazy = lazy;
+        this.metrics = metrics;
     }
 
     @Override
@@ -25,21 +46,63 @@ public class PacketDecoder extends ByteToMessageDecoder {
         try {
             if (!buffer.isReadable())
                 return;
-            int packetNum = buffer.readInt();
-            int serviceId = buffer.readUnsignedShort();
-            Object o;
-            try {
-                o = kryo.readClassAndObject(new ByteBufInput(buffer));
-            } catch (KryoException e) {
-                LOGGER.warn("Couldn't deserialize object", e);
+            int marker = buffer.getUnsignedByte(buffer.readerIndex());
+            if (marker == PacketHeader.DEFINITIONS) {
+                buffer.skipBytes(1);
+                dictionary.readDefinitions(buffer);
                 return;
             }
-
-            Packet e = new Packet(packetNum, o, serviceId);
-            out.add(e);
+            if (marker == PacketHeader.BATCH) {
+                buffer.skipBytes(1);
+                while (buffer.isReadable()) {
+                    long start = metrics != null ? System.nanoTime() : 0;
+                    int readerIndex = buffer.readerIndex();
+                    Packet packet = header.read(buffer);
+                    ByteBuf payload = buffer.readSlice(buffer.readInt());
+                    if (readPayload(packet, payload)) {
+                        record(packet, buffer.readerIndex() - readerIndex, start);
+                        out.add(packet);
+                    }
+                }
+                return;
+            }
+            long start = metrics != null ? System.nanoTime() : 0;
+            int size = buffer.readableBytes();
+            Packet packet = header.read(buffer);
+            if (readPayload(packet, buffer.readSlice(buffer.readableBytes()))) {
+                record(packet, size, start);
+                out.add(packet);
+            }
         } catch (Exception e) {
-            LOGGER.error("error while handling package", e);
+            // the sequences are relative to the previous packet and the dictionary ids are assigned in order, the
+            // following packets can't be decoded correctly once a header or a definition frame is lost.
+            LOGGER.error("Closing the connection to {}, couldn't decode the frame", ctx.channel().remoteAddress(), e);
+            buffer.skipBytes(buffer.readableBytes());
+            ctx.close();
         }
+    }
+
+    private void record(Packet packet, int size, long start) {
+        if (metrics != null) {
+            metrics.decoded(packet.service, size, System.nanoTime() - start);
+        }
+    }
 
+    private boolean readPayload(Packet packet, ByteBuf payload) {
+        ClassDictionary dictionary = header.dictionary ? this.dictionary : null;
+        if (lazy) {
+            packet.data = new SerializedPayload(payload.retain(), dictionary);
+        } else {
+            ClassDictionary previous = DictionaryClassResolver.bind(kryo, dictionary);
+            try {
+                packet.data = kryo.readClassAndObject(new ByteBufInput(payload));
+            } catch (KryoException e) {
+                LOGGER.warn("Couldn't deserialize object", e);
+                return false;
+            } finally {
+                DictionaryClassResolver.bind(kryo, previous);
+            }
+        }
+        return true;
     }
 }
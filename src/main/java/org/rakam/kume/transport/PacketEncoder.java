@@ -1,34 +1,130 @@
 package org.rakam.kume.transport;
 
 import com.esotericsoftware.kryo.Kryo;
-import com.esotericsoftware.kryo.KryoException;
 import org.rakam.kume.ByteBufOutput;
+import org.rakam.kume.network.ChannelMetrics;
+import org.rakam.kume.transport.serialization.ClassDictionary;
+import org.rakam.kume.transport.serialization.DictionaryClassResolver;
 import org.rakam.kume.transport.serialization.KryoFactory;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
 import io.netty.handler.codec.MessageToByteEncoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 
-public class PacketEncoder extends MessageToByteEncoder<Packet> {
+public class PacketEncoder extends MessageToByteEncoder<Object> {
     private final Kryo kryo;
+    private final PacketHeader header = new PacketHeader();
+    private final ClassDictionary dictionary = new ClassDictionary();
+    private final ChannelMetrics metrics;
     final static Logger LOGGER = LoggerFactory.getLogger(PacketEncoder.class);
 
     public PacketEncoder() {
+        this(null);
+    }
+
+    public PacketEncoder(ChannelMetrics metrics) {
         this.kryo = KryoFactory.getKryoInstance();
+        this.metrics = metrics;
+    }
+
+    /**
+     * Packets that carry a {@link SerializedPayload} are written as-is, the payload is retained
+     * on the caller thread so that the caller can release it as soon as the packet is queued.
+     * A payload that refers to the class dictionary of the connection it's received from is
+     * deserialized instead, so that it's serialized again with the dictionary of the target connection.
+     */
+    public static Packet retainPayload(Packet packet) {
+        if (packet.data instanceof SerializedPayload) {
+            SerializedPayload payload = (SerializedPayload) packet.data;
+            Object data = payload.isPortable() ? payload.retainedContent() : payload.deserialize();
+            Packet retained = new Packet(packet.sequence, data, packet.service);
+            retained.reply = packet.reply;
+            return retained;
+        }
+        return packet;
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof Packet && ((Packet) msg).data instanceof ByteBuf) {
+            // the payload is already serialized, prepend the header without copying the payload.
+            Packet packet = (Packet) msg;
+            ByteBuf header = ctx.alloc().buffer(PacketHeader.MAX_SIZE);
+            this.header.write(header, packet);
+            ByteBuf encoded = Unpooled.wrappedBuffer(header, (ByteBuf) packet.data);
+            if (metrics != null) {
+                metrics.encoded(packet.service, encoded.readableBytes(), 0);
+            }
+            ctx.write(encoded, promise);
+        } else {
+            super.write(ctx, msg, promise);
+        }
     }
 
     @Override
-    protected void encode(ChannelHandlerContext ctx, Packet msg, ByteBuf out) throws Exception {
+    public boolean acceptOutboundMessage(Object msg) throws Exception {
+        return msg instanceof Packet || msg instanceof MultiPacket;
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, Object msg, ByteBuf out) throws Exception {
+        if (msg instanceof MultiPacket) {
+            out.writeByte(PacketHeader.BATCH);
+            for (Packet packet : ((MultiPacket) msg).packets) {
+                encode(packet, out, true);
+            }
+        } else {
+            encode((Packet) msg, out, false);
+        }
+        if (dictionary.hasPendingDefinitions()) {
+            // the definitions are written before the frame that refers to them.
+            ByteBuf definitions = ctx.alloc().buffer();
+            definitions.writeByte(PacketHeader.DEFINITIONS);
+            dictionary.writeDefinitions(definitions);
+            ctx.write(definitions, ctx.voidPromise());
+        }
+    }
+
+    private void encode(Packet msg, ByteBuf out, boolean batched) {
+        int writerIndex = out.writerIndex();
+        long lastSequence = header.lastSequence;
+        long start = metrics != null ? System.nanoTime() : 0;
         try {
-            out.writeInt(msg.sequence);
-            out.writeShort(msg.service);
-            kryo.writeClassAndObject(new ByteBufOutput(out), msg.data);
-        } catch (KryoException e) {
-            LOGGER.error("error while serializing packet {}", msg, e);
+            header.write(out, msg);
+            int lengthIndex = out.writerIndex();
+            if (batched) {
+                out.writeInt(0);
+            }
+            if (msg.data instanceof ByteBuf) {
+                ByteBuf payload = (ByteBuf) msg.data;
+                out.writeBytes(payload, payload.readerIndex(), payload.readableBytes());
+                payload.release();
+            } else {
+                ClassDictionary previous = DictionaryClassResolver.bind(kryo, dictionary);
+                try {
+                    kryo.writeClassAndObject(new ByteBufOutput(out), msg.data);
+                    if (DictionaryClassResolver.isDictionaryUsed(kryo)) {
+                        PacketHeader.markDictionary(out, writerIndex);
+                    }
+                } finally {
+                    DictionaryClassResolver.bind(kryo, previous);
+                }
+            }
+            if (batched) {
+                out.setInt(lengthIndex, out.writerIndex() - lengthIndex - Integer.BYTES);
+            }
+            if (metrics != null) {
+                metrics.encoded(msg.service, out.writerIndex() - writerIndex, System.nanoTime() - start);
+            }
         } catch (Exception e) {
             LOGGER.error("error while serializing packet {}", msg, e);
+            // the packet is not sent, the next sequence must be relative to the last packet that is sent.
+            out.writerIndex(writerIndex);
+            header.lastSequence = lastSequence;
         }
     }
 }
\ No newline at end of file
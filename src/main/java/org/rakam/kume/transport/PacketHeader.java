@@ -0,0 +1,86 @@
+package org.rakam.kume.transport;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.CorruptedFrameException;
+
+import static org.rakam.kume.util.Varints.readSignedVarint;
+import static org.rakam.kume.util.Varints.readVarint;
+import static org.rakam.kume.util.Varints.writeSignedVarint;
+import static org.rakam.kume.util.Varints.writeVarint;
+
+
+/**
+ * Encodes the header of the packets sent over a single channel, the encoder and decoder of a channel have their own instances.
+ * The header starts with a flags byte that contains the type of the packet. The service id follows as a single byte,
+ * unless it's larger than {@link #MAX_COMPACT_SERVICE}, then a varint follows the 0xFF marker.
+ * Requests and replies carry the difference between their sequence and the sequence of the previous packet on the
+ * channel as a zigzag varint. The sequences of a channel are mostly consecutive so it takes a single byte,
+ * one-way packets don't have a sequence at all. A request header is 3 bytes instead of the fixed 10 bytes.
+ * A {@link MultiPacket} is a {@link #BATCH} flags byte followed by the packets, each one is a header and the
+ * int length of its payload.
+ * The {@link #DICTIONARY} flag is set if the payload refers to the {@link org.rakam.kume.transport.serialization.ClassDictionary}
+ * of the channel, the new names of the dictionary are sent in a {@link #DEFINITIONS} frame before the packet.
+ */
+public class PacketHeader {
+    static final int MAX_COMPACT_SERVICE = 0xFE;
+    private static final int WIDE_SERVICE = 0xFF;
+    private static final int TYPE_MASK = 0x03;
+    static final int BATCH = 0x03;
+    static final int DICTIONARY = 0x04;
+    static final int DEFINITIONS = BATCH | DICTIONARY;
+
+    /**
+     * Upper bound of the encoded header size.
+     */
+    public static final int MAX_SIZE = 1 + 1 + 5 + 10;
+
+    long lastSequence = -1;
+    // whether the payload of the last packet that is read refers to the class dictionary
+    boolean dictionary;
+
+    public void write(ByteBuf out, Packet packet) {
+        byte type = packet.type();
+        out.writeByte(type);
+        if (packet.service > MAX_COMPACT_SERVICE) {
+            out.writeByte(WIDE_SERVICE);
+            writeVarint(out, packet.service);
+        } else {
+            out.writeByte(packet.service);
+        }
+        if (type != Packet.ONEWAY) {
+            writeSignedVarint(out, packet.sequence - lastSequence);
+            lastSequence = packet.sequence;
+        }
+    }
+
+    /**
+     * Reads the header and returns a packet without data.
+     */
+    public Packet read(ByteBuf in) {
+        int flags = in.readUnsignedByte();
+        int type = flags & TYPE_MASK;
+        if (type > Packet.ONEWAY || (flags & ~(TYPE_MASK | DICTIONARY)) != 0) {
+            throw new CorruptedFrameException("invalid packet flags " + flags);
+        }
+        dictionary = (flags & DICTIONARY) != 0;
+        int service = in.readUnsignedByte();
+        if (service == WIDE_SERVICE) {
+            service = (int) readVarint(in);
+        }
+        long sequence = -1;
+        if (type != Packet.ONEWAY) {
+            sequence = lastSequence + readSignedVarint(in);
+            lastSequence = sequence;
+        }
+        Packet packet = new Packet(sequence, null, service);
+        packet.reply = type == Packet.REPLY;
+        return packet;
+    }
+
+    /**
+     * Sets the {@link #DICTIONARY} flag of the header that is written at the index.
+     */
+    static void markDictionary(ByteBuf out, int headerIndex) {
+        out.setByte(headerIndex, out.getByte(headerIndex) | DICTIONARY);
+    }
+}
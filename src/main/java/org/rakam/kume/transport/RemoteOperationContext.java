@@ -2,6 +2,8 @@ package org.rakam.kume.transport;
 
 import io.netty.channel.ChannelHandlerContext;
 import org.rakam.kume.Member;
+import org.rakam.kume.network.ServerChannelAdapter;
+import org.rakam.kume.network.WriteCoalescer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -10,10 +12,10 @@ public class RemoteOperationContext implements OperationContext {
     final static Logger LOGGER = LoggerFactory.getLogger(RemoteOperationContext.class);
 
     private final ChannelHandlerContext ctx;
-    private final int packageId;
+    private final long packageId;
     private final int serviceId;
 
-    public RemoteOperationContext(ChannelHandlerContext ctx, int serviceId, int packageId) {
+    public RemoteOperationContext(ChannelHandlerContext ctx, int serviceId, long packageId) {
         this.serviceId =  serviceId;
         this.ctx = ctx;
         this.packageId =  packageId;
@@ -21,23 +23,27 @@ public class RemoteOperationContext implements OperationContext {
 
     @Override
     public Member getSender() {
-        // i don't want to include sender identity to each message
-        // so we need a clever way to find the sender.
-        // TODO: maybe we can keep a reverse map to resolve sender?
-//        System.out.println(ctx.channel().remoteAddress());
-//        Optional<Member> first = cluster.getMembers().stream()
-//                .filter(x -> x.getAddress().equals(ctx.channel().remoteAddress()))
-//                .findFirst();
-//        return first.get();
-        return null;
+        // the member is registered to the channel by the handshake, the packets don't carry the sender.
+        return ctx.channel().attr(ServerChannelAdapter.MEMBER).get();
     }
 
     @Override
     public void reply(Object obj) {
-        Packet msg = new Packet(packageId, obj, serviceId);
+        if (packageId == -1) {
+            // the sender doesn't wait for a reply.
+            LOGGER.trace("Discarded reply {} of one-way package", obj);
+            return;
+        }
+        Packet msg = Packet.reply(packageId, obj, serviceId);
         LOGGER.trace("Answering package {}", msg);
-
-        ctx.writeAndFlush(msg);
+        msg = PacketEncoder.retainPayload(msg);
+
+        WriteCoalescer coalescer = ctx.channel().attr(WriteCoalescer.KEY).get();
+        if (coalescer != null) {
+            coalescer.write(msg);
+        } else {
+            ctx.writeAndFlush(msg);
+        }
     }
 
     @Override
@@ -0,0 +1,124 @@
+package org.rakam.kume.transport;
+
+import com.esotericsoftware.kryo.Kryo;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.rakam.kume.ByteBufInput;
+import org.rakam.kume.ByteBufOutput;
+import org.rakam.kume.transport.serialization.ClassDictionary;
+import org.rakam.kume.transport.serialization.DictionaryClassResolver;
+import org.rakam.kume.transport.serialization.KryoFactory;
+
+
+/**
+ * The Kryo encoded payload of a packet that is not deserialized yet. It holds a slice of the received frame
+ * so the bytes are not copied; the payload must be either deserialized or released, otherwise the frame
+ * is never returned to the allocator pool.
+ * If a packet that is sent to another member has a {@link SerializedPayload} as data, the bytes are written
+ * as-is without being deserialized and serialized again.
+ */
+public class SerializedPayload {
+    private ByteBuf content;
+    private final ClassDictionary dictionary;
+    private Object value;
+    private boolean deserialized;
+
+    public SerializedPayload(ByteBuf content) {
+        this(content, null);
+    }
+
+    /**
+     * @param dictionary the class dictionary of the connection that the payload is received from if the payload
+     *                   refers to it, null otherwise.
+     */
+    public SerializedPayload(ByteBuf content, ClassDictionary dictionary) {
+        this.content = content;
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Creates a payload by serializing the object, useful when the same value is sent to multiple members.
+     */
+    public static SerializedPayload of(Object value) {
+        ByteBuf buffer = Unpooled.buffer();
+        KryoFactory.getKryoInstance().writeClassAndObject(new ByteBufOutput(buffer), value);
+        return new SerializedPayload(buffer);
+    }
+
+    /**
+     * Deserializes the payload using the Kryo instance of the current thread and releases the underlying buffer.
+     * The value is cached, subsequent calls return the same instance.
+     */
+    public synchronized Object deserialize() {
+        if (!deserialized) {
+            Kryo kryo = KryoFactory.getKryoInstance();
+            ClassDictionary previous = DictionaryClassResolver.bind(kryo, dictionary);
+            try {
+                value = kryo.readClassAndObject(new ByteBufInput(content()));
+            } finally {
+                DictionaryClassResolver.bind(kryo, previous);
+                release();
+            }
+            deserialized = true;
+        }
+        return value;
+    }
+
+    /**
+     * Returns the serialized bytes. The buffer is still owned by the payload, it must not be
+     * released by the caller and it's not valid after {@link #release()} or {@link #deserialize()}.
+     */
+    public synchronized ByteBuf content() {
+        if (content == null) {
+            throw new IllegalStateException("payload is already released");
+        }
+        return content.duplicate();
+    }
+
+    /**
+     * Returns the serialized bytes with an additional reference that must be released by the caller,
+     * the buffer stays valid even if the payload is released.
+     */
+    public synchronized ByteBuf retainedContent() {
+        return content().retain();
+    }
+
+    /**
+     * Copies the bytes to a buffer that is not pooled so the payload can be stored for a long time
+     * without keeping the whole network frame alive.
+     */
+    public synchronized SerializedPayload copy() {
+        return new SerializedPayload(Unpooled.copiedBuffer(content()), dictionary);
+    }
+
+    /**
+     * False if the payload refers to the class dictionary of the connection that it's received from,
+     * such a payload can't be sent to another member without being serialized again.
+     */
+    public boolean isPortable() {
+        return dictionary == null;
+    }
+
+    public synchronized int size() {
+        return content == null ? 0 : content.readableBytes();
+    }
+
+    public synchronized boolean isReleased() {
+        return content == null;
+    }
+
+    public synchronized void release() {
+        if (content != null) {
+            content.release();
+            content = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SerializedPayload{" +
+                "size=" + size() +
+                ", deserialized=" + deserialized +
+                '}';
+    }
+}
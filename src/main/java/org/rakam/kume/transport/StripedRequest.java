@@ -0,0 +1,11 @@
+package org.rakam.kume.transport;
+
+
+/**
+ * Implemented by requests that operate on a single key. When there are multiple connections to a member,
+ * requests that have the same stripe key always use the same connection so their order is preserved
+ * while requests for other keys are spread over the other connections.
+ */
+public interface StripedRequest {
+    long stripeKey();
+}
@@ -0,0 +1,95 @@
+package org.rakam.kume.transport.serialization;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.CorruptedFrameException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.rakam.kume.util.Varints.readVarint;
+import static org.rakam.kume.util.Varints.writeVarint;
+
+
+/**
+ * The names that one side of a connection sent to the other side once, so that the following packets refer to them
+ * with small ids. The names are the classes that are not registered to Kryo and the call sites of the lambdas.
+ * The encoder of a connection assigns the ids with {@link #reference(String)} and sends the new names with
+ * {@link #writeDefinitions(ByteBuf)} before the packets that use them, the decoder of the other side learns them
+ * with {@link #readDefinitions(ByteBuf)} in the same order.
+ */
+public class ClassDictionary {
+    /**
+     * The names are written inline once a dictionary is full so that a peer can't grow it without bound.
+     */
+    public static final int MAX_SIZE = 4096;
+
+    // the encoder side, only accessed from the event loop of the channel.
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> pending = new ArrayList<>();
+
+    // the decoder side, appended by the event loop and read by the threads that deserialize the lazy payloads.
+    private volatile String[] names = new String[0];
+
+    /**
+     * Returns the id of the name, assigning a new one if the name is not sent yet or -1 if the dictionary is full.
+     */
+    public int reference(String name) {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        if (ids.size() >= MAX_SIZE) {
+            return -1;
+        }
+        int newId = ids.size();
+        ids.put(name, newId);
+        pending.add(name);
+        return newId;
+    }
+
+    public boolean hasPendingDefinitions() {
+        return !pending.isEmpty();
+    }
+
+    /**
+     * Writes the names that are assigned an id since the last call.
+     */
+    public void writeDefinitions(ByteBuf out) {
+        writeVarint(out, ids.size() - pending.size());
+        writeVarint(out, pending.size());
+        for (String name : pending) {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            writeVarint(out, bytes.length);
+            out.writeBytes(bytes);
+        }
+        pending.clear();
+    }
+
+    public void readDefinitions(ByteBuf in) {
+        String[] current = names;
+        int firstId = (int) readVarint(in);
+        int count = (int) readVarint(in);
+        if (firstId != current.length || count < 0 || firstId + count > MAX_SIZE) {
+            throw new CorruptedFrameException("invalid class dictionary definition " + firstId + "+" + count);
+        }
+        String[] updated = Arrays.copyOf(current, firstId + count);
+        for (int i = 0; i < count; i++) {
+            int length = (int) readVarint(in);
+            updated[firstId + i] = in.toString(in.readerIndex(), length, StandardCharsets.UTF_8);
+            in.skipBytes(length);
+        }
+        names = updated;
+    }
+
+    public String get(int id) {
+        String[] current = names;
+        if (id < 0 || id >= current.length) {
+            throw new IllegalStateException("unknown class dictionary id " + id);
+        }
+        return current[id];
+    }
+}
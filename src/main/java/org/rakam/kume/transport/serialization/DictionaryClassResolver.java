@@ -0,0 +1,122 @@
+package org.rakam.kume.transport.serialization;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Registration;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.util.DefaultClassResolver;
+
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Writes the classes that are not registered as an id of the {@link ClassDictionary} of the connection instead
+ * of their names. The dictionary is bound by the codec of the connection while it serializes or deserializes
+ * a payload, without a dictionary the classes are written the same way as {@link DefaultClassResolver}.
+ */
+public class DictionaryClassResolver extends DefaultClassResolver {
+    /**
+     * The registration id that marks a dictionary reference, it's registered to a placeholder class so that
+     * Kryo doesn't assign it to another class.
+     */
+    static final int DICTIONARY_REFERENCE = 99;
+
+    private final Map<String, Class> classes = new HashMap<>();
+    private ClassDictionary dictionary;
+    private boolean dictionaryUsed;
+
+    /**
+     * Binds the dictionary to the Kryo instance of the current thread and returns the dictionary that was bound before.
+     */
+    public static ClassDictionary bind(Kryo kryo, ClassDictionary dictionary) {
+        DictionaryClassResolver resolver = (DictionaryClassResolver) kryo.getClassResolver();
+        ClassDictionary previous = resolver.dictionary;
+        resolver.dictionary = dictionary;
+        resolver.dictionaryUsed = false;
+        return previous;
+    }
+
+    /**
+     * True if a payload that is written since the dictionary is bound refers to the dictionary.
+     */
+    public static boolean isDictionaryUsed(Kryo kryo) {
+        return ((DictionaryClassResolver) kryo.getClassResolver()).dictionaryUsed;
+    }
+
+    /**
+     * Returns the id of the name in the bound dictionary or -1 if there is no dictionary or it's full.
+     */
+    int reference(String name) {
+        if (dictionary == null) {
+            return -1;
+        }
+        int id = dictionary.reference(name);
+        if (id >= 0) {
+            dictionaryUsed = true;
+        }
+        return id;
+    }
+
+    String resolve(int id) {
+        if (dictionary == null) {
+            throw new KryoException("The payload refers to a class dictionary but the connection is not known");
+        }
+        return dictionary.get(id);
+    }
+
+    @Override
+    public Registration writeClass(Output output, Class type) {
+        if (type == null || dictionary == null) {
+            return super.writeClass(output, type);
+        }
+        Registration registration = kryo.getRegistration(type);
+        if (registration.getId() != NAME) {
+            output.writeVarInt(registration.getId() + 2, true);
+            return registration;
+        }
+        int id = reference(type.getName());
+        if (id < 0) {
+            writeName(output, type, registration);
+            return registration;
+        }
+        output.writeVarInt(DICTIONARY_REFERENCE + 2, true);
+        output.writeVarInt(id, true);
+        return registration;
+    }
+
+    @Override
+    public Registration readClass(Input input) {
+        int classId = input.readVarInt(true);
+        switch (classId) {
+            case Kryo.NULL:
+                return null;
+            case NAME + 2:
+                return readName(input);
+            case DICTIONARY_REFERENCE + 2:
+                return kryo.getRegistration(loadClass(resolve(input.readVarInt(true))));
+        }
+        Registration registration = idToRegistration.get(classId - 2);
+        if (registration == null) {
+            throw new KryoException("Encountered unregistered class ID: " + (classId - 2));
+        }
+        return registration;
+    }
+
+    Class loadClass(String name) {
+        Class type = classes.get(name);
+        if (type == null) {
+            try {
+                type = Class.forName(name, false, kryo.getClassLoader());
+            } catch (ClassNotFoundException e) {
+                throw new KryoException("Unable to find class: " + name, e);
+            }
+            classes.put(name, type);
+        }
+        return type;
+    }
+
+    static final class Placeholder {
+    }
+}
@@ -1,20 +1,33 @@
 package org.rakam.kume.transport.serialization;
 
 import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Registration;
 import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.util.MapReferenceResolver;
+import org.rakam.kume.transport.serialization.processor.KryoSerializerProcessor;
 import org.rakam.kume.transport.serialization.serializers.InetSocketAddressSerializer;
 import org.rakam.kume.transport.serialization.serializers.UnmodifiableCollectionsSerializer;
 import org.rakam.kume.util.ConsistentHashRing;
 import com.google.common.collect.ImmutableMap;
 import org.objenesis.strategy.StdInstantiatorStrategy;
-import org.rakam.kume.HeartbeatRequest;
+import org.rakam.kume.KryoSerializable;
 import org.rakam.kume.Member;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
 import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 
 public class KryoFactory {
@@ -25,7 +38,6 @@ public class KryoFactory {
 
     private static final Class<?>[] REG_CLASSES = {
             Collections.unmodifiableList(new ArrayList()).getClass(),
-            HeartbeatRequest.class,
             Member.class,
             InetSocketAddress.class,
             ConsistentHashRing.class,
@@ -38,22 +50,159 @@ public class KryoFactory {
             Collections.unmodifiableSet(new HashSet<>()).getClass(), new UnmodifiableCollectionsSerializer()
     );
 
+    /**
+     * The ids below this value are reserved for the classes that Kryo and this factory register by themselves.
+     */
+    public static final int FIRST_ANNOTATED_ID = 100;
+
+    private static final String SERVICE_FILE = "META-INF/services/" + KryoSerializable.class.getName();
+
+    private static final Map<Integer, Class<?>> ANNOTATED_CLASSES =
+            annotatedClasses(loadServiceFile(KryoFactory.class.getClassLoader()));
+
+    private static final Map<Class<?>, Class<? extends Serializer>> GENERATED_SERIALIZERS =
+            generatedSerializers(ANNOTATED_CLASSES.values());
+
+    private static final Class<?> CLOSURE_CLASS = closureClass();
+
     private static final ThreadLocal<Kryo> kryos = new ThreadLocal<Kryo>() {
         protected Kryo initialValue() {
-            Kryo kryo = new Kryo();
-            UnmodifiableCollectionsSerializer.registerSerializers(kryo);
-            for (Class<?> clazz : REG_CLASSES) {
-                Serializer serializer = SERIALIZERS.get(clazz);
-                if (serializer == null)
-                    kryo.register(clazz);
-                else
-                    kryo.register(clazz, serializer);
-            }
-            kryo.setInstantiatorStrategy(new Kryo.DefaultInstantiatorStrategy(new StdInstantiatorStrategy()));
-            return kryo;
+            return createKryo();
         }
     };
 
+    static {
+        // fail when the class is loaded instead of the first packet if the ids collide with the built-in registrations.
+        createKryo();
+    }
+
+    private static Kryo createKryo() {
+        Kryo kryo = new Kryo(new DictionaryClassResolver(), new MapReferenceResolver());
+        kryo.register(DictionaryClassResolver.Placeholder.class, DictionaryClassResolver.DICTIONARY_REFERENCE);
+        // Kryo resolves the lambdas to the registration of its private closure marker class
+        kryo.register(CLOSURE_CLASS, new LambdaSerializer());
+        UnmodifiableCollectionsSerializer.registerSerializers(kryo);
+        for (Class<?> clazz : REG_CLASSES) {
+            Serializer serializer = SERIALIZERS.get(clazz);
+            if (serializer == null)
+                kryo.register(clazz);
+            else
+                kryo.register(clazz, serializer);
+        }
+        for (Map.Entry<Integer, Class<?>> entry : ANNOTATED_CLASSES.entrySet()) {
+            Registration registration = kryo.getRegistration(entry.getKey());
+            if (registration != null) {
+                throw new IllegalStateException(String.format("Kryo id %d of %s is already registered for %s",
+                        entry.getKey(), entry.getValue().getName(), registration.getType().getName()));
+            }
+            Class<? extends Serializer> serializer = GENERATED_SERIALIZERS.get(entry.getValue());
+            if (serializer == null) {
+                kryo.register(entry.getValue(), entry.getKey());
+            } else {
+                kryo.register(entry.getValue(), newSerializer(serializer), entry.getKey());
+            }
+        }
+        kryo.setInstantiatorStrategy(new Kryo.DefaultInstantiatorStrategy(new StdInstantiatorStrategy()));
+        return kryo;
+    }
+
+    private static Class<?> closureClass() {
+        try {
+            return Class.forName(Kryo.class.getName() + "$Closure", false, Kryo.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Kryo doesn't have the closure marker class, the lambdas can't be serialized", e);
+        }
+    }
+
+    /**
+     * Maps the classes to the ids in their {@link KryoSerializable} annotations.
+     *
+     * @throws IllegalStateException if a class is not annotated, its id is in the reserved range or two classes have the same id.
+     */
+    static Map<Integer, Class<?>> annotatedClasses(Iterable<Class<?>> classes) {
+        Map<Integer, Class<?>> ids = new TreeMap<>();
+        for (Class<?> clazz : classes) {
+            KryoSerializable annotation = clazz.getAnnotation(KryoSerializable.class);
+            if (annotation == null) {
+                throw new IllegalStateException(clazz.getName() + " is listed in " + SERVICE_FILE +
+                        " but it's not annotated with @KryoSerializable");
+            }
+            if (annotation.id() < FIRST_ANNOTATED_ID) {
+                throw new IllegalStateException(String.format("Kryo id %d of %s is reserved, the ids must be at least %d",
+                        annotation.id(), clazz.getName(), FIRST_ANNOTATED_ID));
+            }
+            Class<?> existing = ids.putIfAbsent(annotation.id(), clazz);
+            if (existing != null && !existing.equals(clazz)) {
+                throw new IllegalStateException(String.format("%s and %s have the same Kryo id %d",
+                        existing.getName(), clazz.getName(), annotation.id()));
+            }
+        }
+        return Collections.unmodifiableMap(ids);
+    }
+
+    /**
+     * Finds the serializers that {@link org.rakam.kume.transport.serialization.processor.KryoSerializerProcessor}
+     * generated, the classes without a generated serializer use the default {@code FieldSerializer}.
+     */
+    private static Map<Class<?>, Class<? extends Serializer>> generatedSerializers(Iterable<Class<?>> classes) {
+        Map<Class<?>, Class<? extends Serializer>> serializers = new HashMap<>();
+        for (Class<?> clazz : classes) {
+            try {
+                Class<?> serializer = Class.forName(generatedSerializerName(clazz), false, clazz.getClassLoader());
+                serializers.put(clazz, serializer.asSubclass(Serializer.class));
+            } catch (ClassNotFoundException e) {
+                // the fields of the class are not accessible from the generated code
+            }
+        }
+        return Collections.unmodifiableMap(serializers);
+    }
+
+    public static String generatedSerializerName(Class<?> clazz) {
+        return clazz.getName().replace('$', '_') + KryoSerializerProcessor.SUFFIX;
+    }
+
+    private static Serializer newSerializer(Class<? extends Serializer> serializer) {
+        try {
+            return serializer.newInstance();
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new IllegalStateException("Couldn't create the generated serializer " + serializer.getName(), e);
+        }
+    }
+
+    /**
+     * Reads the classes that are listed by {@code @AutoService(KryoSerializable.class)}. The files have the
+     * {@link java.util.ServiceLoader} format but the classes are not instantiated, only their annotations are read.
+     */
+    private static Set<Class<?>> loadServiceFile(ClassLoader classLoader) {
+        Set<Class<?>> classes = new LinkedHashSet<>();
+        try {
+            Enumeration<URL> resources = classLoader.getResources(SERVICE_FILE);
+            while (resources.hasMoreElements()) {
+                URL url = resources.nextElement();
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(url.openStream(), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        int comment = line.indexOf('#');
+                        String name = (comment >= 0 ? line.substring(0, comment) : line).trim();
+                        if (!name.isEmpty()) {
+                            classes.add(Class.forName(name, false, classLoader));
+                        }
+                    }
+                }
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalStateException("Couldn't load the classes in " + SERVICE_FILE, e);
+        }
+        return classes;
+    }
+
+    /**
+     * The registration ids of the classes that are annotated with {@link KryoSerializable}.
+     */
+    public static Map<Integer, Class<?>> getAnnotatedClasses() {
+        return ANNOTATED_CLASSES;
+    }
+
 
     public static Kryo getKryoInstance() {
         return kryos.get();
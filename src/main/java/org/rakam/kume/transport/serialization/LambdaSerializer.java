@@ -0,0 +1,131 @@
+package org.rakam.kume.transport.serialization;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import java.lang.invoke.SerializedLambda;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Serializes the serializable lambdas such as the {@link org.rakam.kume.transport.Request}s that are passed to
+ * {@code ServiceContext.ask}. The call site of the lambda, that is everything in its {@link SerializedLambda}
+ * except the captured arguments, is sent once per connection through the {@link ClassDictionary} and the
+ * following packets only carry its id and the captured arguments.
+ */
+public class LambdaSerializer extends Serializer<Object> {
+    private final Map<Class, Method> writeReplaceMethods = new HashMap<>();
+    private final Map<String, CallSite> callSites = new HashMap<>();
+
+    @Override
+    public void write(Kryo kryo, Output output, Object lambda) {
+        SerializedLambda serialized = serialize(lambda);
+        String callSite = CallSite.key(serialized);
+
+        int id = ((DictionaryClassResolver) kryo.getClassResolver()).reference(callSite);
+        if (id >= 0) {
+            output.writeVarInt(id + 1, true);
+        } else {
+            output.writeVarInt(0, true);
+            output.writeString(callSite);
+        }
+        output.writeVarInt(serialized.getCapturedArgCount(), true);
+        for (int i = 0; i < serialized.getCapturedArgCount(); i++) {
+            kryo.writeClassAndObject(output, serialized.getCapturedArg(i));
+        }
+    }
+
+    @Override
+    public Object read(Kryo kryo, Input input, Class<Object> type) {
+        int id = input.readVarInt(true);
+        String key = id == 0 ? input.readString() : ((DictionaryClassResolver) kryo.getClassResolver()).resolve(id - 1);
+        CallSite callSite = callSites.get(key);
+        if (callSite == null) {
+            callSite = new CallSite(key, (DictionaryClassResolver) kryo.getClassResolver());
+            callSites.put(key, callSite);
+        }
+
+        Object[] capturedArgs = new Object[input.readVarInt(true)];
+        for (int i = 0; i < capturedArgs.length; i++) {
+            capturedArgs[i] = kryo.readClassAndObject(input);
+        }
+        try {
+            return callSite.deserializeLambda.invoke(null, callSite.toSerializedLambda(capturedArgs));
+        } catch (ReflectiveOperationException e) {
+            throw new KryoException("Couldn't deserialize lambda " + key, e);
+        }
+    }
+
+    private SerializedLambda serialize(Object lambda) {
+        Class<?> type = lambda.getClass();
+        Method writeReplace = writeReplaceMethods.get(type);
+        try {
+            if (writeReplace == null) {
+                writeReplace = type.getDeclaredMethod("writeReplace");
+                writeReplace.setAccessible(true);
+                writeReplaceMethods.put(type, writeReplace);
+            }
+            return (SerializedLambda) writeReplace.invoke(lambda);
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new KryoException("Lambda " + type.getName() + " is not serializable", e);
+        }
+    }
+
+    private static class CallSite {
+        private static final char SEPARATOR = ' ';
+
+        private final Class<?> capturingClass;
+        private final String functionalInterfaceClass;
+        private final String functionalInterfaceMethodName;
+        private final String functionalInterfaceMethodSignature;
+        private final int implMethodKind;
+        private final String implClass;
+        private final String implMethodName;
+        private final String implMethodSignature;
+        private final String instantiatedMethodType;
+        // the method that the compiler generates in the capturing class, it's what SerializedLambda.readResolve calls.
+        private final Method deserializeLambda;
+
+        CallSite(String key, DictionaryClassResolver resolver) {
+            String[] parts = key.split(String.valueOf(SEPARATOR));
+            if (parts.length != 9) {
+                throw new KryoException("Invalid lambda call site " + key);
+            }
+            capturingClass = resolver.loadClass(parts[0].replace('/', '.'));
+            functionalInterfaceClass = parts[1];
+            functionalInterfaceMethodName = parts[2];
+            functionalInterfaceMethodSignature = parts[3];
+            implMethodKind = Integer.parseInt(parts[4]);
+            implClass = parts[5];
+            implMethodName = parts[6];
+            implMethodSignature = parts[7];
+            instantiatedMethodType = parts[8];
+            try {
+                deserializeLambda = capturingClass.getDeclaredMethod("$deserializeLambda$", SerializedLambda.class);
+                deserializeLambda.setAccessible(true);
+            } catch (NoSuchMethodException e) {
+                throw new KryoException(capturingClass.getName() + " doesn't have serializable lambdas", e);
+            }
+        }
+
+        static String key(SerializedLambda lambda) {
+            // the names and the descriptors can't contain spaces.
+            return lambda.getCapturingClass() + SEPARATOR + lambda.getFunctionalInterfaceClass() + SEPARATOR +
+                    lambda.getFunctionalInterfaceMethodName() + SEPARATOR + lambda.getFunctionalInterfaceMethodSignature() + SEPARATOR +
+                    lambda.getImplMethodKind() + SEPARATOR + lambda.getImplClass() + SEPARATOR +
+                    lambda.getImplMethodName() + SEPARATOR + lambda.getImplMethodSignature() + SEPARATOR +
+                    lambda.getInstantiatedMethodType();
+        }
+
+        SerializedLambda toSerializedLambda(Object[] capturedArgs) {
+            return new SerializedLambda(capturingClass, functionalInterfaceClass, functionalInterfaceMethodName,
+                    functionalInterfaceMethodSignature, implMethodKind, implClass, implMethodName, implMethodSignature,
+                    instantiatedMethodType, capturedArgs);
+        }
+    }
+}
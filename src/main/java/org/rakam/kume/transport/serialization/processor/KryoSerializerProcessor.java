@@ -0,0 +1,303 @@
+package org.rakam.kume.transport.serialization.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ * Generates a Kryo serializer that reads and writes the fields directly for each class annotated with
+ * {@code @KryoSerializable}. The serializer of {@code com.example.Outer$Inner} is
+ * {@code com.example.Outer_Inner_KryoSerializer}, {@code KryoFactory} registers it together with the class.
+ * The generated code accesses the fields without reflection, so the classes with private fields are skipped and
+ * serialized with the default {@code FieldSerializer} instead. The final fields are passed to the constructor whose
+ * parameters have the names and types of the fields, the classes without such a constructor are skipped as well.
+ */
+public class KryoSerializerProcessor extends AbstractProcessor {
+    static final String ANNOTATION = "org.rakam.kume.KryoSerializable";
+    public static final String SUFFIX = "_KryoSerializer";
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(ANNOTATION);
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement annotation = processingEnv.getElementUtils().getTypeElement(ANNOTATION);
+        if (annotation == null) {
+            return false;
+        }
+        for (TypeElement type : ElementFilter.typesIn(roundEnv.getElementsAnnotatedWith(annotation))) {
+            List<VariableElement> fields = new ArrayList<>();
+            String reason = collectFields(type, fields);
+            ExecutableElement constructor = null;
+            if (reason == null && fields.stream().anyMatch(field -> field.getModifiers().contains(Modifier.FINAL))) {
+                constructor = findConstructor(type, fields);
+                if (constructor == null) {
+                    reason = "it has no constructor that takes its final fields";
+                }
+            }
+            if (reason != null) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+                        "Kryo serializer is not generated because " + reason + ", the fields are accessed with reflection", type);
+                continue;
+            }
+            try {
+                generate(type, fields, constructor);
+            } catch (IOException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "Couldn't generate the Kryo serializer: " + e.getMessage(), type);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds the fields that are serialized and returns null, or returns the reason if they can't be accessed by the generated code.
+     */
+    private String collectFields(TypeElement type, List<VariableElement> fields) {
+        if (type.getKind() != ElementKind.CLASS || type.getModifiers().contains(Modifier.ABSTRACT)) {
+            return "it's not a concrete class";
+        }
+        for (Element element = type; element instanceof TypeElement; element = element.getEnclosingElement()) {
+            if (element.getModifiers().contains(Modifier.PRIVATE)) {
+                return element + " is private";
+            }
+            if (element.getEnclosingElement() instanceof TypeElement && !element.getModifiers().contains(Modifier.STATIC)) {
+                return element + " is an inner class";
+            }
+        }
+
+        PackageElement typePackage = processingEnv.getElementUtils().getPackageOf(type);
+        Set<String> names = new HashSet<>();
+        TypeElement current = type;
+        while (current != null && !current.getQualifiedName().contentEquals("java.lang.Object")) {
+            for (VariableElement field : ElementFilter.fieldsIn(current.getEnclosedElements())) {
+                Set<Modifier> modifiers = field.getModifiers();
+                if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)) {
+                    continue;
+                }
+                if (modifiers.contains(Modifier.PRIVATE)) {
+                    return "field " + current.getSimpleName() + "." + field.getSimpleName() + " is private";
+                }
+                if (!modifiers.contains(Modifier.PUBLIC) && !processingEnv.getElementUtils().getPackageOf(current).equals(typePackage)) {
+                    return "field " + current.getSimpleName() + "." + field.getSimpleName() + " is not visible";
+                }
+                if (!names.add(field.getSimpleName().toString())) {
+                    return "field " + field.getSimpleName() + " is hidden by a subclass";
+                }
+                fields.add(field);
+            }
+            TypeMirror superclass = current.getSuperclass();
+            current = superclass.getKind() == TypeKind.DECLARED ? (TypeElement) ((DeclaredType) superclass).asElement() : null;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the constructor with the most parameters among the ones whose parameters are all fields and that take
+     * every final field, or null if there is no such constructor.
+     */
+    private ExecutableElement findConstructor(TypeElement type, List<VariableElement> fields) {
+        ExecutableElement found = null;
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (constructor.getModifiers().contains(Modifier.PRIVATE)) {
+                continue;
+            }
+            Set<VariableElement> parameters = parameterFields(constructor, fields);
+            if (parameters == null) {
+                continue;
+            }
+            boolean takesFinalFields = fields.stream()
+                    .allMatch(field -> !field.getModifiers().contains(Modifier.FINAL) || parameters.contains(field));
+            if (takesFinalFields && (found == null || found.getParameters().size() < parameters.size())) {
+                found = constructor;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns the fields that are passed to the constructor, or null if a parameter is not a field.
+     */
+    private Set<VariableElement> parameterFields(ExecutableElement constructor, List<VariableElement> fields) {
+        Set<VariableElement> parameters = new HashSet<>();
+        for (VariableElement parameter : constructor.getParameters()) {
+            VariableElement field = fieldOf(parameter, fields);
+            if (field == null || !parameters.add(field)) {
+                return null;
+            }
+        }
+        return parameters;
+    }
+
+    private VariableElement fieldOf(VariableElement parameter, List<VariableElement> fields) {
+        for (VariableElement field : fields) {
+            if (field.getSimpleName().equals(parameter.getSimpleName())
+                    && processingEnv.getTypeUtils().isSameType(erasure(field), erasure(parameter))) {
+                return field;
+            }
+        }
+        return null;
+    }
+
+    private TypeMirror erasure(VariableElement variable) {
+        return processingEnv.getTypeUtils().erasure(variable.asType());
+    }
+
+    private void generate(TypeElement type, List<VariableElement> fields, ExecutableElement constructor) throws IOException {
+        String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+        String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+        String simpleName = (packageName.isEmpty() ? binaryName : binaryName.substring(packageName.length() + 1))
+                .replace('$', '_') + SUFFIX;
+        String typeName = processingEnv.getTypeUtils().erasure(type.asType()).toString();
+
+        StringBuilder code = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            code.append("package ").append(packageName).append(";\n\n");
+        }
+        code.append("import com.esotericsoftware.kryo.Kryo;\n")
+                .append("import com.esotericsoftware.kryo.Serializer;\n")
+                .append("import com.esotericsoftware.kryo.io.Input;\n")
+                .append("import com.esotericsoftware.kryo.io.Output;\n\n\n")
+                .append("/**\n * Generated by ").append(KryoSerializerProcessor.class.getName()).append(" for {@link ")
+                .append(typeName).append("}.\n */\n")
+                .append("@SuppressWarnings({\"unchecked\", \"rawtypes\"})\n")
+                .append("public final class ").append(simpleName).append(" extends Serializer<").append(typeName).append("> {\n");
+
+        code.append("    @Override\n")
+                .append("    public void write(Kryo kryo, Output output, ").append(typeName).append(" object) {\n");
+        for (VariableElement field : fields) {
+            code.append("        ").append(writeStatement(field)).append("\n");
+        }
+        code.append("    }\n\n");
+
+        code.append("    @Override\n")
+                .append("    public ").append(typeName).append(" read(Kryo kryo, Input input, Class<").append(typeName).append("> type) {\n");
+        if (constructor == null) {
+            code.append("        ").append(typeName).append(" object = ")
+                    .append(hasNoArgConstructor(type) ? "new " + typeName + "()" : "kryo.newInstance(type)").append(";\n")
+                    .append("        kryo.reference(object);\n");
+            for (VariableElement field : fields) {
+                code.append("        object.").append(field.getSimpleName()).append(" = ").append(readExpression(field)).append(";\n");
+            }
+        } else {
+            // the fields are read in the order they are written, before the constructor that takes the final ones.
+            for (int i = 0; i < fields.size(); i++) {
+                code.append("        ").append(erasure(fields.get(i))).append(" field").append(i)
+                        .append(" = ").append(readExpression(fields.get(i))).append(";\n");
+            }
+            List<String> arguments = new ArrayList<>();
+            for (VariableElement parameter : constructor.getParameters()) {
+                arguments.add("field" + fields.indexOf(fieldOf(parameter, fields)));
+            }
+            code.append("        ").append(typeName).append(" object = new ").append(typeName)
+                    .append("(").append(String.join(", ", arguments)).append(");\n")
+                    .append("        kryo.reference(object);\n");
+            for (int i = 0; i < fields.size(); i++) {
+                if (!arguments.contains("field" + i)) {
+                    code.append("        object.").append(fields.get(i).getSimpleName()).append(" = field").append(i).append(";\n");
+                }
+            }
+        }
+        code.append("        return object;\n")
+                .append("    }\n")
+                .append("}\n");
+
+        try (Writer writer = processingEnv.getFiler().createSourceFile(packageName.isEmpty() ? simpleName : packageName + "." + simpleName, type).openWriter()) {
+            writer.write(code.toString());
+        }
+    }
+
+    private boolean hasNoArgConstructor(TypeElement type) {
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String writeStatement(VariableElement field) {
+        String value = "object." + field.getSimpleName();
+        switch (field.asType().getKind()) {
+            case BOOLEAN:
+                return "output.writeBoolean(" + value + ");";
+            case BYTE:
+                return "output.writeByte(" + value + ");";
+            case CHAR:
+                return "output.writeChar(" + value + ");";
+            case SHORT:
+                return "output.writeShort(" + value + ");";
+            case INT:
+                return "output.writeVarInt(" + value + ", false);";
+            case LONG:
+                // the tokens and sequences are spread over the whole range, a varint of them is 9 bytes on average.
+                return "output.writeLong(" + value + ");";
+            case FLOAT:
+                return "output.writeFloat(" + value + ");";
+            case DOUBLE:
+                return "output.writeDouble(" + value + ");";
+            default:
+                if (isString(field)) {
+                    return "output.writeString(" + value + ");";
+                }
+                return "kryo.writeClassAndObject(output, " + value + ");";
+        }
+    }
+
+    private String readExpression(VariableElement field) {
+        switch (field.asType().getKind()) {
+            case BOOLEAN:
+                return "input.readBoolean()";
+            case BYTE:
+                return "input.readByte()";
+            case CHAR:
+                return "input.readChar()";
+            case SHORT:
+                return "input.readShort()";
+            case INT:
+                return "input.readVarInt(false)";
+            case LONG:
+                return "input.readLong()";
+            case FLOAT:
+                return "input.readFloat()";
+            case DOUBLE:
+                return "input.readDouble()";
+            default:
+                if (isString(field)) {
+                    return "input.readString()";
+                }
+                return "(" + erasure(field) + ") kryo.readClassAndObject(input)";
+        }
+    }
+
+    private boolean isString(VariableElement field) {
+        return processingEnv.getTypeUtils().erasure(field.asType()).toString().equals("java.lang.String");
+    }
+}
@@ -1,55 +1,46 @@
 package org.rakam.kume.util;
 
-import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
-import com.google.common.hash.Funnel;
-import com.google.common.hash.HashFunction;
-import com.google.common.hash.Hasher;
-import com.google.common.hash.Hashing;
-import com.google.common.hash.PrimitiveSink;
 import org.rakam.kume.Member;
-import org.rakam.kume.transport.serialization.SinkSerializable;
 
-import java.nio.charset.Charset;
+import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
-import java.util.stream.Stream;
 
 
 public class ConsistentHashRing {
     private final int bucketPerNode;
     private final Bucket[] buckets;
-    private static final HashFunction hashFunction = Hashing.murmur3_128();
     private final int replicationFactor;
-    private static final Funnel keyFunnel = new Funnel<SinkSerializable>() {
-        @Override
-        public void funnel(SinkSerializable from, PrimitiveSink into) {
-            from.writeTo(into);
-        }
-    };
-
+    // built from the buckets when the ring is used for routing, it's not serialized
+    private transient RingLookupTable table;
+
+    /**
+     * Creates a ring with {@code bucketPerNode} buckets for each member. The tokens of a member are derived from its
+     * address and the replicas of a bucket are the next distinct members on the ring, so the ring only depends on the
+     * member set: the members that create the ring and the members that grow or shrink their ring with
+     * {@link #addNode(Member)} and {@link #removeNode(Member)} agree on the buckets whatever the join order is.
+     */
     public ConsistentHashRing(Collection<Member> members, int bucketPerNode, int replicationFactor) {
+        if (bucketPerNode < 1) {
+            throw new IllegalArgumentException("bucketPerNode must be positive");
+        }
+        Member[] distinct = members.stream().distinct().toArray(Member[]::new);
+        if (distinct.length == 0) {
+            throw new IllegalArgumentException("ring must contain at least one member");
+        }
         this.bucketPerNode = bucketPerNode;
         this.replicationFactor = replicationFactor;
-
-        // todo: find a way to construct buckets without adding elements one by one.
-        Bucket[] list = null;
-        for (Member member : members.stream().sorted(this::compareMembers).collect(Collectors.toList())) {
-            list = findBucketListForNewNode(member, list);
-        }
-        buckets = list;
+        this.buckets = createBuckets(distinct, bucketPerNode, replicationFactor);
     }
 
-
     protected ConsistentHashRing(Bucket[] buckets, int bucketPerNode, int replicationFactor) {
         this.bucketPerNode = bucketPerNode;
         this.buckets = buckets;
@@ -64,10 +55,54 @@ public class ConsistentHashRing {
         return str.toString();
     }
 
-    private int compareMembers(Member o1, Member o2) {
-        String o1Str = o1.getAddress().getHostString() + o1.getAddress().getPort();
-        String o2Str = o2.getAddress().getHostString() + o2.getAddress().getPort();
-        return o1Str.compareTo(o2Str);
+    /**
+     * Places the tokens of all the members on the ring, then walks the ring once to assign the replicas.
+     */
+    private static Bucket[] createBuckets(Member[] members, int bucketPerNode, int replicationFactor) {
+        int length = members.length * bucketPerNode;
+        long[] tokens = new long[length];
+        Member[] owners = new Member[length];
+        Integer[] order = new Integer[length];
+        for (int i = 0; i < members.length; i++) {
+            long seed = hash(addressOf(members[i]));
+            for (int j = 0; j < bucketPerNode; j++) {
+                int id = i * bucketPerNode + j;
+                tokens[id] = hash(seed + j);
+                owners[id] = members[i];
+                order[id] = id;
+            }
+        }
+        // the members may be listed in any order, the tokens that collide are ordered by the members.
+        Arrays.sort(order, (o1, o2) -> {
+            int compare = Long.compare(tokens[o1], tokens[o2]);
+            return compare != 0 ? compare : compareMembers(owners[o1], owners[o2]);
+        });
+
+        int replicas = Math.min(replicationFactor, members.length);
+        Bucket[] buckets = new Bucket[length];
+        for (int i = 0; i < length; i++) {
+            // the owner of the bucket and the owners of the following buckets replicate it
+            Set<Member> bucketMembers = new LinkedHashSet<>(replicas);
+            for (int j = i; bucketMembers.size() < replicas; j++) {
+                bucketMembers.add(owners[order[j % length]]);
+            }
+            buckets[i] = new Bucket(bucketMembers, tokens[order[i]]);
+        }
+        return buckets;
+    }
+
+    /**
+     * The address that identifies the member on every node, the resolved IP is used if there is one so that
+     * the nodes that know the member by different host names agree on its tokens.
+     */
+    private static String addressOf(Member member) {
+        InetSocketAddress address = member.getAddress();
+        String host = address.getAddress() != null ? address.getAddress().getHostAddress() : address.getHostString();
+        return host + ":" + address.getPort();
+    }
+
+    private static int compareMembers(Member o1, Member o2) {
+        return addressOf(o1).compareTo(addressOf(o2));
     }
 
     public static boolean isTokenBetween(long hash, long start, long end) {
@@ -76,10 +111,6 @@ public class ConsistentHashRing {
         else return hash > start || hash < end;
     }
 
-    public static Hasher newHasher() {
-        return hashFunction.newHasher();
-    }
-
     public Map<TokenRange, List<Member>> getBuckets() {
         return getBuckets(buckets);
     }
@@ -114,22 +145,30 @@ public class ConsistentHashRing {
         return new TokenRange(i, buckets[i].token, getBucketFromRing(buckets, i + 1).token);
     }
 
-    public int findBucketIdFromToken(long l) {
-        int low = 0;
-        int high = buckets.length - 1;
-
-        while (low <= high) {
-            int mid = (low + high) >>> 1;
-
-            if (buckets[mid].token < l)
-                low = mid + 1;
-            else if (buckets[mid].token > l)
-                high = mid - 1;
-            else
-                return mid;
+    private RingLookupTable table() {
+        RingLookupTable table = this.table;
+        if (table == null) {
+            // the table is immutable so it's fine if the threads build it concurrently
+            table = new RingLookupTable(buckets);
+            this.table = table;
         }
+        return table;
+    }
 
-        return high;
+    public int findBucketIdFromToken(long l) {
+        return table().find(l);
+    }
+
+    /**
+     * Returns the number of members that replicate the bucket, it's the size of the members of
+     * {@link #getBucket(int)} without accessing the bucket.
+     */
+    public int getReplicaCount(int bucketId) {
+        return table().replicaCount(bucketId);
+    }
+
+    public Member getReplica(int bucketId, int i) {
+        return table().replica(bucketId, i);
     }
 
     public Bucket findBucketFromToken(long l) {
@@ -138,35 +177,26 @@ public class ConsistentHashRing {
 
 
     public static long hash(String hash) {
-        return hashFunction.hashString(hash, Charset.forName("UTF-8")).asLong();
+        return KeyHashers.hash(hash);
     }
 
+    /**
+     * Returns the token of the map key, see {@link KeyHashers} for the supported key types.
+     */
     public static long hash(Object hash) {
-        // TODO: man, it's ugly. we should find a nice way to fix this problem. maybe strategy pattern?
-
-        if(hash instanceof String)
-            return hash((String) hash);
-        if(hash instanceof Long)
-            return hash((long) hash);
-        if(hash instanceof Integer)
-            return hash((int) hash);
-        if(hash instanceof SinkSerializable) {
-            return hashFunction.hashObject(hash, keyFunnel).asLong();
-        }
-
-        throw new IllegalArgumentException("map key should be one of [String, Long, Integer or com.google.common.hash.Funnel]");
+        return KeyHashers.hash(hash);
     }
 
     public static long hash(byte[] hash) {
-        return hashFunction.hashBytes(hash).asLong();
+        return KeyHashers.hash(hash);
     }
 
     public static long hash(long hash) {
-        return hashFunction.hashLong(hash).asLong();
+        return KeyHashers.hash(hash);
     }
 
     public static long hash(int hash) {
-        return hashFunction.hashInt(hash).asLong();
+        return KeyHashers.hash(hash);
     }
 
     private Bucket getBucketFromRing(Bucket[] buckets, int i) {
@@ -189,135 +219,25 @@ public class ConsistentHashRing {
         return total;
     }
 
-    private Bucket[] findBucketListForNewNode(Member member, Bucket[] buckets) {
-        if (buckets == null) {
-            long token = Long.MAX_VALUE / (bucketPerNode / 2);
-
-            return IntStream.range(0, bucketPerNode).mapToObj(i -> {
-                long t = Long.MIN_VALUE + (token * i);
-                return new Bucket(Sets.newHashSet(member), t);
-            }).toArray(Bucket[]::new);
-        }
-
-        Bucket[] newBucketList = Arrays.copyOf(buckets, buckets.length + bucketPerNode);
-
-
-        // find the members who owns less data than other to use them as replica of new buckets
-        Map<Member, Long> result = new HashMap<>();
-        getBuckets(buckets)
-                .entrySet().stream()
-                .filter(x -> !x.getValue().contains(member))
-                .forEach(x -> x.getValue().forEach(z -> result.merge(z, x.getKey().gap() / 2, Long::sum)));
-        Set<Map.Entry<Member, Long>> memberSet = result.entrySet();
-
-        // find the larger gaps to and divide them in order to create new buckets
-        TokenRange[] tokens = getBuckets(buckets).entrySet().stream()
-                .sorted((o1, o2) -> {
-                    int compare = Long.compare(o2.getKey().gap(), o1.getKey().gap());
-                    if (compare == 0) {
-                        // we compare the nodes that own this bucket and choose the bucket
-                        // that has members that owns minimum range on the ring.
-                        long sum1 = o1.getValue().stream().mapToLong(x -> result.get(x)).sum();
-                        long sum2 = o2.getValue().stream().mapToLong(x -> result.get(x)).sum();
-                        compare = Long.compare(sum2, sum1);
-                        if (compare == 0) {
-                            // it's pointless but if such condition occurs we need
-                            // a way that all nodes agree.
-                            return Long.compare(o1.getKey().start, o2.getKey().start);
-                        }
-                    }
-                    return compare;
-                }).limit(8).map(x -> x.getKey()).toArray(TokenRange[]::new);
-
-        for (int idx = 0; idx < tokens.length; idx++) {
-            TokenRange current = tokens[idx];
-            long gap = current.gap() / 2;
-
-            HashSet<Member> members = new HashSet<>();
-            members.add(member);
-
-            IntStream.range(0, replicationFactor - 1).forEach(i -> {
-                Map.Entry<Member, Long> m = memberSet.stream()
-                        .sorted((x, y) -> Long.compare(x.getValue(), y.getValue())).findFirst().get();
-                members.add(m.getKey());
-                m.setValue(m.getValue() + gap);
-            });
-
-            Bucket element = new Bucket(members, current.start + gap);
-            newBucketList[idx + buckets.length] = element;
-        }
-        Arrays.sort(newBucketList, (o1, o2) -> Long.compare(o1.token, o2.token));
-
-        if (buckets.length / bucketPerNode < replicationFactor) {
-            for (int i = 0; i < newBucketList.length; i++) {
-                Bucket oldBucket = newBucketList[i];
-
-                if (oldBucket.members.size() < replicationFactor) {
-                    HashSet members = new HashSet(oldBucket.members);
-                    members.add(member);
-                    newBucketList[i] = new Bucket(members, newBucketList[i].token);
-                }
-            }
-        }
-
-        return newBucketList;
-    }
-
     public ConsistentHashRing addNode(Member member) {
-        if (getMembers().contains(member)) {
+        Set<Member> members = getMembers();
+        if (!members.add(member)) {
             return new ConsistentHashRing(buckets, bucketPerNode, replicationFactor);
         }
-
-        Bucket[] buckets = findBucketListForNewNode(member, this.buckets);
-        return new ConsistentHashRing(buckets, bucketPerNode, replicationFactor);
+        // the tokens of the other members don't move, the new member takes over the ranges before its tokens.
+        return new ConsistentHashRing(members, bucketPerNode, replicationFactor);
     }
 
     public ConsistentHashRing removeNode(Member member) {
-        if (!getMembers().contains(member)) {
+        Set<Member> members = getMembers();
+        if (!members.remove(member)) {
             return new ConsistentHashRing(buckets, bucketPerNode, replicationFactor);
         }
 
-        if (getMemberCount() == 1)
+        if (members.isEmpty())
             throw new IllegalStateException("ring must contain at least one member");
 
-        List<Bucket> result = Lists.newArrayList(this.buckets);
-        int newMemberSize = (buckets.length / bucketPerNode) - 1;
-
-        // remove smallest buckets which is replicated by member
-        getBuckets().entrySet().stream()
-                .filter(x -> x.getValue().contains(member))
-                .sorted((x, y) -> Long.compare(x.getKey().gap(), y.getKey().gap()))
-                .limit(bucketPerNode)
-                .map(x -> x.getKey().id)
-                .sorted((x, y) -> Integer.compare(y, x)) // we need reverse order, otherwise the indexes change
-                .forEach(i -> {
-                    // cause IntStream doesn't have a method sorted(Comparator)
-                    // and you know, it sucks.
-                    result.remove((int) i);
-                });
-
-        // replace this member to another in other buckets which is replicated by this member
-        Stream<Bucket> resultArr = result.stream()
-                .map(bucket -> {
-                    if (!bucket.members.contains(member))
-                        return bucket;
-                    HashSet arrayList = new HashSet(bucket.members);
-                    arrayList.remove(member);
-                    if (newMemberSize >= replicationFactor) {
-                        Map<Member, Long> memberTokenRange = new HashMap<>();
-                        getBuckets().forEach((val, members) ->
-                                members.forEach(m -> memberTokenRange.merge(m, val.gap(), Long::sum)));
-                        Optional<Map.Entry<Member, Long>> first = memberTokenRange.entrySet().stream()
-                                .filter(x -> !x.getKey().equals(member))
-                                .sorted((o1, o2) -> Long.compare(o1.getValue(), o2.getValue()))
-                                .findFirst();
-                        first.ifPresent(entry -> arrayList.add(entry.getKey()));
-                    }
-                    return new Bucket(arrayList, bucket.token);
-                });
-
-        Bucket[] buckets1 = resultArr.toArray(Bucket[]::new);
-        return new ConsistentHashRing(buckets1, bucketPerNode, replicationFactor);
+        return new ConsistentHashRing(members, bucketPerNode, replicationFactor);
     }
 
     public int findBucketId(Object key) {
@@ -329,13 +249,7 @@ public class ConsistentHashRing {
     }
 
     public Set<Member> getMembers() {
-        HashSet<Member> members = new HashSet<>();
-
-        for (Bucket bucket : buckets) {
-            members.addAll(bucket.members);
-        }
-
-        return members;
+        return new HashSet<>(Arrays.asList(table().members));
     }
 
     @Override
@@ -0,0 +1,13 @@
+package org.rakam.kume.util;
+
+
+/**
+ * Computes the 64-bit token of a map key that decides its bucket on the {@link ConsistentHashRing}.
+ * All the members must compute the same token for the same key, so the implementations can't depend on
+ * anything that is local to the JVM such as the identity hash code. The hashers are registered per key type
+ * with {@link KeyHashers#register(Class, KeyHasher)} and they're called for every lookup, so they shouldn't allocate.
+ */
+@FunctionalInterface
+public interface KeyHasher<T> {
+    long hash(T key);
+}
@@ -0,0 +1,353 @@
+package org.rakam.kume.util;
+
+import com.google.common.hash.PrimitiveSink;
+import com.google.common.reflect.TypeToken;
+import org.rakam.kume.transport.serialization.SinkSerializable;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * The registry of the {@link KeyHasher}s that compute the tokens of the map keys. The default hashers compute
+ * xxHash64 (seed 0) of the little-endian bytes of the key without allocating: {@link String}s are hashed as their
+ * UTF-16LE chars without encoding them, {@link Long}s and {@link Integer}s as 8 and 4 bytes, {@code byte[]}s as is
+ * and {@link SinkSerializable}s as the bytes they write into a reusable sink.
+ *
+ * The hasher of a key is looked up by its class, then by its superclasses and interfaces, and the result is cached.
+ * The hashers should be registered before the maps are used since changing the hasher of a type changes the tokens
+ * of the keys that already exist.
+ */
+public final class KeyHashers {
+    private static final long PRIME64_1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME64_2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME64_3 = 0x165667B19E3779F9L;
+    private static final long PRIME64_4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME64_5 = 0x27D4EB2F165667C5L;
+
+    public static final KeyHasher<String> STRING = KeyHashers::hash;
+    public static final KeyHasher<Long> LONG = key -> hash((long) key);
+    public static final KeyHasher<Integer> INTEGER = key -> hash((int) key);
+    public static final KeyHasher<byte[]> BYTES = KeyHashers::hash;
+    public static final KeyHasher<SinkSerializable> SINK_SERIALIZABLE = KeyHashers::hash;
+
+    private static final ThreadLocal<TokenSink> SINKS = ThreadLocal.withInitial(TokenSink::new);
+    private static final Map<Class<?>, KeyHasher> REGISTERED = new ConcurrentHashMap<>();
+    // the hashers of the key classes, it's cleared when a hasher is registered.
+    private static final Map<Class<?>, KeyHasher> RESOLVED = new ConcurrentHashMap<>();
+
+    static {
+        register(String.class, STRING);
+        register(Long.class, LONG);
+        register(Integer.class, INTEGER);
+        register(byte[].class, BYTES);
+        register(SinkSerializable.class, SINK_SERIALIZABLE);
+    }
+
+    private KeyHashers() {
+    }
+
+    public static <T> void register(Class<T> type, KeyHasher<? super T> hasher) {
+        REGISTERED.put(type, hasher);
+        RESOLVED.clear();
+    }
+
+    /**
+     * Returns the token of the key with the hasher that is registered for its type.
+     *
+     * @throws IllegalArgumentException if there is no hasher for the type of the key
+     */
+    public static long hash(Object key) {
+        Class<?> type = key.getClass();
+        KeyHasher hasher = RESOLVED.get(type);
+        if (hasher == null) {
+            hasher = resolve(type);
+            RESOLVED.put(type, hasher);
+        }
+        return hasher.hash(key);
+    }
+
+    private static KeyHasher resolve(Class<?> type) {
+        // the subtypes come before the supertypes
+        for (Class<?> superType : TypeToken.of(type).getTypes().rawTypes()) {
+            KeyHasher hasher = REGISTERED.get(superType);
+            if (hasher != null) {
+                return hasher;
+            }
+        }
+        throw new IllegalArgumentException("there is no KeyHasher for the map key type " + type.getName() +
+                ", the default ones are [String, Long, Integer, byte[] and " + SinkSerializable.class.getName() + "]");
+    }
+
+    public static long hash(long value) {
+        long h = PRIME64_5 + 8;
+        h ^= round(0, value);
+        h = Long.rotateLeft(h, 27) * PRIME64_1 + PRIME64_4;
+        return avalanche(h);
+    }
+
+    public static long hash(int value) {
+        long h = PRIME64_5 + 4;
+        h ^= (value & 0xFFFFFFFFL) * PRIME64_1;
+        h = Long.rotateLeft(h, 23) * PRIME64_2 + PRIME64_3;
+        return avalanche(h);
+    }
+
+    public static long hash(byte[] bytes) {
+        return hash(bytes, 0, bytes.length);
+    }
+
+    public static long hash(byte[] bytes, int offset, int length) {
+        int end = offset + length;
+        long h;
+        if (length >= 32) {
+            long v1 = PRIME64_1 + PRIME64_2, v2 = PRIME64_2, v3 = 0, v4 = -PRIME64_1;
+            int limit = end - 32;
+            do {
+                v1 = round(v1, getLong(bytes, offset));
+                v2 = round(v2, getLong(bytes, offset + 8));
+                v3 = round(v3, getLong(bytes, offset + 16));
+                v4 = round(v4, getLong(bytes, offset + 24));
+                offset += 32;
+            } while (offset <= limit);
+            h = converge(v1, v2, v3, v4);
+        } else {
+            h = PRIME64_5;
+        }
+        return finish(h + length, bytes, offset, end - offset);
+    }
+
+    /**
+     * Hashes the UTF-16LE bytes of the chars, it's the same as hashing {@code value.getBytes(UTF_16LE)}
+     * without encoding the chars.
+     */
+    public static long hash(CharSequence value) {
+        int length = value.length();
+        int i = 0;
+        long h;
+        if (length >= 16) {
+            long v1 = PRIME64_1 + PRIME64_2, v2 = PRIME64_2, v3 = 0, v4 = -PRIME64_1;
+            int limit = length - 16;
+            do {
+                v1 = round(v1, getLong(value, i));
+                v2 = round(v2, getLong(value, i + 4));
+                v3 = round(v3, getLong(value, i + 8));
+                v4 = round(v4, getLong(value, i + 12));
+                i += 16;
+            } while (i <= limit);
+            h = converge(v1, v2, v3, v4);
+        } else {
+            h = PRIME64_5;
+        }
+        h += (long) length * 2;
+        for (; i + 4 <= length; i += 4) {
+            h ^= round(0, getLong(value, i));
+            h = Long.rotateLeft(h, 27) * PRIME64_1 + PRIME64_4;
+        }
+        if (i + 2 <= length) {
+            h ^= (value.charAt(i) | (long) value.charAt(i + 1) << 16) * PRIME64_1;
+            h = Long.rotateLeft(h, 23) * PRIME64_2 + PRIME64_3;
+            i += 2;
+        }
+        if (i < length) {
+            char c = value.charAt(i);
+            h = Long.rotateLeft(h ^ (c & 0xFF) * PRIME64_5, 11) * PRIME64_1;
+            h = Long.rotateLeft(h ^ (c >>> 8) * PRIME64_5, 11) * PRIME64_1;
+        }
+        return avalanche(h);
+    }
+
+    public static long hash(SinkSerializable value) {
+        TokenSink sink = SINKS.get();
+        sink.reset();
+        value.writeTo(sink);
+        return sink.token();
+    }
+
+    private static long round(long acc, long input) {
+        return Long.rotateLeft(acc + input * PRIME64_2, 31) * PRIME64_1;
+    }
+
+    private static long converge(long v1, long v2, long v3, long v4) {
+        long h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+        h = (h ^ round(0, v1)) * PRIME64_1 + PRIME64_4;
+        h = (h ^ round(0, v2)) * PRIME64_1 + PRIME64_4;
+        h = (h ^ round(0, v3)) * PRIME64_1 + PRIME64_4;
+        h = (h ^ round(0, v4)) * PRIME64_1 + PRIME64_4;
+        return h;
+    }
+
+    /** Hashes the remaining bytes that don't fill a 32 byte stripe. */
+    private static long finish(long h, byte[] bytes, int offset, int length) {
+        int end = offset + length;
+        for (; offset + 8 <= end; offset += 8) {
+            h ^= round(0, getLong(bytes, offset));
+            h = Long.rotateLeft(h, 27) * PRIME64_1 + PRIME64_4;
+        }
+        if (offset + 4 <= end) {
+            h ^= (getInt(bytes, offset) & 0xFFFFFFFFL) * PRIME64_1;
+            h = Long.rotateLeft(h, 23) * PRIME64_2 + PRIME64_3;
+            offset += 4;
+        }
+        for (; offset < end; offset++) {
+            h = Long.rotateLeft(h ^ (bytes[offset] & 0xFF) * PRIME64_5, 11) * PRIME64_1;
+        }
+        return avalanche(h);
+    }
+
+    private static long avalanche(long h) {
+        h ^= h >>> 33;
+        h *= PRIME64_2;
+        h ^= h >>> 29;
+        h *= PRIME64_3;
+        h ^= h >>> 32;
+        return h;
+    }
+
+    private static long getLong(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFFL) | (bytes[offset + 1] & 0xFFL) << 8 | (bytes[offset + 2] & 0xFFL) << 16 |
+                (bytes[offset + 3] & 0xFFL) << 24 | (bytes[offset + 4] & 0xFFL) << 32 | (bytes[offset + 5] & 0xFFL) << 40 |
+                (bytes[offset + 6] & 0xFFL) << 48 | (bytes[offset + 7] & 0xFFL) << 56;
+    }
+
+    private static int getInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8 | (bytes[offset + 2] & 0xFF) << 16 |
+                (bytes[offset + 3] & 0xFF) << 24;
+    }
+
+    private static long getLong(CharSequence value, int index) {
+        return value.charAt(index) | (long) value.charAt(index + 1) << 16 |
+                (long) value.charAt(index + 2) << 32 | (long) value.charAt(index + 3) << 48;
+    }
+
+    /**
+     * Computes xxHash64 of the little-endian bytes that are written into it. The bytes are buffered until
+     * a 32 byte stripe is filled so the sink can be reused without allocating.
+     */
+    private static class TokenSink implements PrimitiveSink {
+        private final byte[] buffer = new byte[32];
+        private int buffered;
+        private long total;
+        private long v1, v2, v3, v4;
+
+        void reset() {
+            buffered = 0;
+            total = 0;
+            v1 = PRIME64_1 + PRIME64_2;
+            v2 = PRIME64_2;
+            v3 = 0;
+            v4 = -PRIME64_1;
+        }
+
+        long token() {
+            long h = total >= 32 ? converge(v1, v2, v3, v4) : PRIME64_5;
+            return finish(h + total, buffer, 0, buffered);
+        }
+
+        private void stripe() {
+            v1 = round(v1, getLong(buffer, 0));
+            v2 = round(v2, getLong(buffer, 8));
+            v3 = round(v3, getLong(buffer, 16));
+            v4 = round(v4, getLong(buffer, 24));
+            buffered = 0;
+        }
+
+        @Override
+        public PrimitiveSink putByte(byte b) {
+            buffer[buffered++] = b;
+            total++;
+            if (buffered == 32) {
+                stripe();
+            }
+            return this;
+        }
+
+        @Override
+        public PrimitiveSink putBytes(byte[] bytes) {
+            return putBytes(bytes, 0, bytes.length);
+        }
+
+        @Override
+        public PrimitiveSink putBytes(byte[] bytes, int off, int len) {
+            for (int i = off; i < off + len; i++) {
+                putByte(bytes[i]);
+            }
+            return this;
+        }
+
+        @Override
+        public PrimitiveSink putShort(short s) {
+            putByte((byte) s);
+            return putByte((byte) (s >>> 8));
+        }
+
+        @Override
+        public PrimitiveSink putInt(int i) {
+            putShort((short) i);
+            return putShort((short) (i >>> 16));
+        }
+
+        @Override
+        public PrimitiveSink putLong(long l) {
+            putInt((int) l);
+            return putInt((int) (l >>> 32));
+        }
+
+        @Override
+        public PrimitiveSink putFloat(float f) {
+            return putInt(Float.floatToRawIntBits(f));
+        }
+
+        @Override
+        public PrimitiveSink putDouble(double d) {
+            return putLong(Double.doubleToRawLongBits(d));
+        }
+
+        @Override
+        public PrimitiveSink putBoolean(boolean b) {
+            return putByte(b ? (byte) 1 : (byte) 0);
+        }
+
+        @Override
+        public PrimitiveSink putChar(char c) {
+            return putShort((short) c);
+        }
+
+        @Override
+        public PrimitiveSink putUnencodedChars(CharSequence charSequence) {
+            for (int i = 0; i < charSequence.length(); i++) {
+                putChar(charSequence.charAt(i));
+            }
+            return this;
+        }
+
+        @Override
+        public PrimitiveSink putString(CharSequence charSequence, Charset charset) {
+            if (!StandardCharsets.UTF_8.equals(charset)) {
+                return putBytes(charSequence.toString().getBytes(charset));
+            }
+            for (int i = 0; i < charSequence.length(); i++) {
+                int c = Character.codePointAt(charSequence, i);
+                if (c < 0x80) {
+                    putByte((byte) c);
+                } else if (c < 0x800) {
+                    putByte((byte) (0xC0 | c >>> 6));
+                    putByte((byte) (0x80 | c & 0x3F));
+                } else if (c < 0x10000) {
+                    putByte((byte) (0xE0 | c >>> 12));
+                    putByte((byte) (0x80 | c >>> 6 & 0x3F));
+                    putByte((byte) (0x80 | c & 0x3F));
+                } else {
+                    putByte((byte) (0xF0 | c >>> 18));
+                    putByte((byte) (0x80 | c >>> 12 & 0x3F));
+                    putByte((byte) (0x80 | c >>> 6 & 0x3F));
+                    putByte((byte) (0x80 | c & 0x3F));
+                    i++;
+                }
+            }
+            return this;
+        }
+    }
+}
@@ -17,6 +17,23 @@ public class NetworkUtil {
         }
     }
 
+    /**
+     * Returns true if the address belongs to one of the network interfaces of this host.
+     */
+    public static boolean isLocalAddress(InetAddress address) {
+        if (address == null) {
+            return false;
+        }
+        if (address.isLoopbackAddress() || address.isAnyLocalAddress()) {
+            return true;
+        }
+        try {
+            return NetworkInterface.getByInetAddress(address) != null;
+        } catch (SocketException e) {
+            return false;
+        }
+    }
+
     public static InetAddress getPublicAddress() {
         Enumeration<NetworkInterface> nets;
         try {
@@ -0,0 +1,110 @@
+package org.rakam.kume.util;
+
+import org.rakam.kume.Member;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * The immutable primitive layout of a {@link ConsistentHashRing} that is used for routing the keys. The start tokens
+ * of the buckets are kept in a sorted {@code long[]} and the replicas of bucket {@code i} are the member indexes
+ * {@code replicas[replicaOffsets[i]] ... replicas[replicaOffsets[i + 1] - 1]} in the {@code members} dictionary.
+ *
+ * The rings that have more than {@link #INDEX_THRESHOLD} buckets also have a radix index on the top bits of the
+ * tokens, a lookup reads the two index entries of the slot of the token and searches the few tokens between them.
+ */
+final class RingLookupTable {
+    static final int INDEX_THRESHOLD = 16;
+    private static final int MAX_INDEX_BITS = 16;
+
+    final long[] tokens;
+    final Member[] members;
+    final int[] replicaOffsets;
+    final int[] replicas;
+
+    // index[slot] is the number of tokens whose slot is smaller than slot
+    private final int[] index;
+    private final int shift;
+
+    RingLookupTable(ConsistentHashRing.Bucket[] buckets) {
+        int length = buckets.length;
+        tokens = new long[length];
+        replicaOffsets = new int[length + 1];
+
+        Map<Member, Integer> memberIds = new HashMap<>();
+        int replicaCount = 0;
+        for (ConsistentHashRing.Bucket bucket : buckets) {
+            replicaCount += bucket.members.size();
+        }
+        replicas = new int[replicaCount];
+
+        int offset = 0;
+        for (int i = 0; i < length; i++) {
+            ConsistentHashRing.Bucket bucket = buckets[i];
+            tokens[i] = bucket.token;
+            replicaOffsets[i] = offset;
+            for (Member member : bucket.members) {
+                Integer id = memberIds.get(member);
+                if (id == null) {
+                    id = memberIds.size();
+                    memberIds.put(member, id);
+                }
+                replicas[offset++] = id;
+            }
+        }
+        replicaOffsets[length] = offset;
+
+        members = new Member[memberIds.size()];
+        memberIds.forEach((member, id) -> members[id] = member);
+
+        if (length > INDEX_THRESHOLD) {
+            // about two slots per bucket
+            int bits = Math.min(MAX_INDEX_BITS, 33 - Integer.numberOfLeadingZeros(length - 1));
+            shift = 64 - bits;
+            index = new int[(1 << bits) + 1];
+            int token = 0;
+            for (int slot = 0; slot < index.length; slot++) {
+                while (token < length && slot(tokens[token]) < slot) {
+                    token++;
+                }
+                index[slot] = token;
+            }
+        } else {
+            shift = 64;
+            index = null;
+        }
+    }
+
+    private int slot(long token) {
+        // flip the sign bit so that the unsigned order of the slots is the signed order of the tokens
+        return (int) ((token ^ Long.MIN_VALUE) >>> shift);
+    }
+
+    /**
+     * Returns the index of the last bucket whose start token is not greater than the token, or -1 if the token is
+     * before the first bucket.
+     */
+    int find(long token) {
+        int low, high;
+        if (index != null) {
+            int slot = slot(token);
+            low = index[slot];
+            high = index[slot + 1];
+        } else {
+            low = 0;
+            high = tokens.length;
+        }
+        int i = Arrays.binarySearch(tokens, low, high, token);
+        return i >= 0 ? i : -i - 2;
+    }
+
+    int replicaCount(int bucketId) {
+        return replicaOffsets[bucketId + 1] - replicaOffsets[bucketId];
+    }
+
+    Member replica(int bucketId, int i) {
+        return members[replicas[replicaOffsets[bucketId] + i]];
+    }
+}
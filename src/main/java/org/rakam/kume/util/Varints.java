@@ -0,0 +1,52 @@
+package org.rakam.kume.util;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.CorruptedFrameException;
+
+
+/**
+ * Variable length encoding of integers, 7 bits per byte with the high bit set if more bytes follow.
+ * Signed values are zigzag encoded so that small negative values are short as well.
+ */
+public final class Varints {
+    private Varints() {
+    }
+
+    public static void writeVarint(ByteBuf out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    public static void writeSignedVarint(ByteBuf out, long value) {
+        writeVarint(out, (value << 1) ^ (value >> 63));
+    }
+
+    public static long readVarint(ByteBuf in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new CorruptedFrameException("varint is longer than 10 bytes");
+    }
+
+    public static long readSignedVarint(ByteBuf in) {
+        long value = readVarint(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+}
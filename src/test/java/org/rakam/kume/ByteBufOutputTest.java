@@ -0,0 +1,144 @@
+package org.rakam.kume;
+
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+
+public class ByteBufOutputTest {
+    private static final int[] INTS = {0, 1, -1, 63, 64, 127, 128, 16383, 16384, 2097151, 2097152,
+            268435455, 268435456, Integer.MAX_VALUE, Integer.MIN_VALUE};
+    private static final long[] LONGS = {0, 1, -1, 127, 128, 1L << 35, 1L << 49, (1L << 56) - 1, 1L << 56,
+            Long.MAX_VALUE, Long.MIN_VALUE};
+    private static final String LONG_ASCII = String.join("", Collections.nCopies(20, "ascii "));
+    private static final String[] STRINGS = {null, "", "a", "\u00f6", "ab", LONG_ASCII, "\u00fcn\u00efc\u00f6d\u00e9", "\u65e5\u672c\u8a9e", LONG_ASCII + "\u65e5\u672c\u8a9e"};
+
+    @Test
+    public void testKryoReadsHeapBuffer() {
+        testKryoReads(Unpooled.buffer(16));
+    }
+
+    @Test
+    public void testKryoReadsDirectBuffer() {
+        ByteBuf buffer = PooledByteBufAllocator.DEFAULT.directBuffer(16);
+        try {
+            testKryoReads(buffer);
+        } finally {
+            buffer.release();
+        }
+    }
+
+    @Test
+    public void testReadKryoOutputFromHeapBuffer() {
+        testReadKryoOutput(Unpooled.buffer());
+    }
+
+    @Test
+    public void testReadKryoOutputFromDirectBuffer() {
+        ByteBuf buffer = PooledByteBufAllocator.DEFAULT.directBuffer();
+        try {
+            testReadKryoOutput(buffer);
+        } finally {
+            buffer.release();
+        }
+    }
+
+    @Test
+    public void testCompositeBuffer() {
+        testKryoReads(Unpooled.compositeBuffer());
+    }
+
+    private void testKryoReads(ByteBuf buffer) {
+        write(new ByteBufOutput(buffer));
+        byte[] bytes = new byte[buffer.readableBytes()];
+        buffer.getBytes(buffer.readerIndex(), bytes);
+
+        read(new Input(bytes));
+        read(new ByteBufInput(buffer));
+        assertFalse(buffer.isReadable());
+    }
+
+    private void testReadKryoOutput(ByteBuf buffer) {
+        Output output = new Output(16, -1);
+        write(output);
+        buffer.writeBytes(output.getBuffer(), 0, output.position());
+
+        read(new ByteBufInput(buffer));
+        assertFalse(buffer.isReadable());
+    }
+
+    private void write(Output output) {
+        for (int value : INTS) {
+            output.writeVarInt(value, true);
+            output.writeVarInt(value, false);
+            output.writeInt(value);
+        }
+        for (long value : LONGS) {
+            output.writeVarLong(value, true);
+            output.writeVarLong(value, false);
+            output.writeLong(value);
+        }
+        for (String value : STRINGS) {
+            output.writeString(value);
+        }
+        output.writeAscii(LONG_ASCII);
+        output.writeFloat(1.5f, 100, true);
+        output.writeDouble(-2.25, 100, false);
+        output.writeInts(INTS, true);
+        output.writeInts(INTS, false);
+        output.writeInts(INTS);
+        output.writeLongs(LONGS, true);
+        output.writeLongs(LONGS, false);
+        output.writeLongs(LONGS);
+        output.writeFloats(new float[]{1.5f, -0f, Float.NaN});
+        output.writeDoubles(new double[]{1.5, Double.MAX_VALUE});
+        output.writeShorts(new short[]{1, Short.MIN_VALUE});
+        output.writeChars(new char[]{'a', '\u00fc'});
+        output.writeBytes(new byte[]{1, 2, 3});
+    }
+
+    private void read(Input input) {
+        for (int value : INTS) {
+            assertEquals(value, input.readVarInt(true));
+            assertEquals(value, input.readVarInt(false));
+            assertEquals(value, input.readInt());
+        }
+        for (long value : LONGS) {
+            assertEquals(value, input.readVarLong(true));
+            assertEquals(value, input.readVarLong(false));
+            assertEquals(value, input.readLong());
+        }
+        for (String value : STRINGS) {
+            if (value == null) {
+                assertNull(input.readString());
+            } else {
+                assertEquals(value, input.readString());
+            }
+        }
+        assertEquals(LONG_ASCII, input.readString());
+        assertEquals(1.5f, input.readFloat(100, true), 0);
+        assertEquals(-2.25, input.readDouble(100, false), 0);
+        assertArrayEquals(INTS, input.readInts(INTS.length, true));
+        assertArrayEquals(INTS, input.readInts(INTS.length, false));
+        assertArrayEquals(INTS, input.readInts(INTS.length));
+        assertArrayEquals(LONGS, input.readLongs(LONGS.length, true));
+        assertArrayEquals(LONGS, input.readLongs(LONGS.length, false));
+        assertArrayEquals(LONGS, input.readLongs(LONGS.length));
+        assertEquals(Arrays.toString(new float[]{1.5f, -0f, Float.NaN}), Arrays.toString(input.readFloats(3)));
+        assertArrayEquals(new double[]{1.5, Double.MAX_VALUE}, input.readDoubles(2), 0);
+        assertArrayEquals(new short[]{1, Short.MIN_VALUE}, input.readShorts(2));
+        assertArrayEquals(new char[]{'a', '\u00fc'}, input.readChars(2));
+        assertArrayEquals(new byte[]{1, 2, 3}, input.readBytes(3));
+    }
+}
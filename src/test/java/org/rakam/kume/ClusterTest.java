@@ -1,16 +1,30 @@
 package org.rakam.kume;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Uninterruptibles;
 import org.junit.Test;
 import org.rakam.kume.service.Service;
 import org.rakam.kume.service.ServiceListBuilder;
 import org.rakam.kume.transport.OperationContext;
+import org.rakam.kume.transport.Packet;
 
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.google.common.collect.ImmutableList.of;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 
 
 public class ClusterTest extends KumeTest {
@@ -54,6 +68,113 @@ public class ClusterTest extends KumeTest {
         latch.await();
     }
 
+    @Test
+    public void testSharedBusCopyPolicy() throws Exception {
+        Member member0 = new Member("", 10);
+        Member member1 = new Member("", 11);
+        Map<Member, NoNetworkTransport> bus = new ConcurrentHashMap<>();
+        TransportConstructor transport = NoNetworkTransport.sharedBus(bus, NoNetworkTransport.CopyPolicy.COPY);
+
+        ImmutableList<ServiceListBuilder.Constructor> services =
+                new ServiceListBuilder().add("echo", EchoService::new).build();
+
+        Cluster cluster0 = new ClusterBuilder().members(of(member1))
+                .transport(transport).services(services).serverAddress(member0.getAddress())
+                .start();
+        new ClusterBuilder().members(of(member0))
+                .transport(transport).services(services).serverAddress(member1.getAddress())
+                .start();
+
+        ArrayList<String> request = new ArrayList<>(of("a", "b"));
+        EchoService service = cluster0.getService("echo");
+        Object reply = service.ctx.ask(member1, request).get(5, TimeUnit.SECONDS);
+
+        assertEquals(request, reply);
+        assertNotSame(request, reply);
+    }
+
+    @Test
+    public void testConcurrentCallersShareConnection() throws Exception {
+        Member remote = new Member("127.0.0.1", 21);
+        AtomicInteger connects = new AtomicInteger();
+        CountDownLatch connecting = new CountDownLatch(1);
+        TransportConstructor transport = (requestExecutor, services, localMember) -> new Transport() {
+            @Override
+            public MemberChannel connect(Member member) {
+                connects.incrementAndGet();
+                // keep the first caller in the connection attempt while the others ask for the same member.
+                Uninterruptibles.awaitUninterruptibly(connecting, 100, TimeUnit.MILLISECONDS);
+                return new MemberChannel() {
+                    @Override
+                    public CompletableFuture ask(Packet message) {
+                        return new CompletableFuture();
+                    }
+
+                    @Override
+                    public void send(Packet message) {
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                };
+            }
+
+            @Override
+            public void close() {
+            }
+
+            @Override
+            public void initialize() {
+            }
+        };
+
+        Cluster cluster = new ClusterBuilder().transport(transport).joinStrategy(membership -> {})
+                .serverAddress("127.0.0.1", 20).start();
+
+        int callers = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<MemberChannel>> channels = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                channels.add(executor.submit(() -> {
+                    start.await();
+                    return cluster.getOrCreateConnection(remote);
+                }));
+            }
+            start.countDown();
+
+            MemberChannel channel = channels.get(0).get(5, TimeUnit.SECONDS);
+            for (Future<MemberChannel> future : channels) {
+                assertSame(channel, future.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, connects.get());
+        } finally {
+            connecting.countDown();
+            executor.shutdownNow();
+            cluster.close();
+        }
+    }
+
+    private static class EchoService extends Service {
+        private final ServiceContext<EchoService> ctx;
+
+        public EchoService(ServiceContext<EchoService> ctx) {
+            this.ctx = ctx;
+        }
+
+        @Override
+        public void handle(OperationContext ctx, Object request) {
+            ctx.reply(request);
+        }
+
+        @Override
+        public void onClose() {
+
+        }
+    }
+
     private static class PingService extends Service {
 
         private final CountDownLatch latch;
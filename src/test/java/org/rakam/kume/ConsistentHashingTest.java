@@ -6,9 +6,13 @@ import org.junit.Ignore;
 import org.junit.Test;
 import org.rakam.kume.util.ConsistentHashRing;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import static org.junit.Assert.assertEquals;
@@ -83,7 +87,7 @@ public class ConsistentHashingTest {
         }
     }
 
-//    @Test
+    @Test
     public void testRemove() {
 
         Member member0 = new Member("127.0.0.1", 0);
@@ -102,7 +106,7 @@ public class ConsistentHashingTest {
 
     }
 
-//    @Test
+    @Test
     public void testRemoveMultiple() {
 
         Member member0 = new Member("127.0.0.1", 0);
@@ -167,4 +171,116 @@ public class ConsistentHashingTest {
         }
 
     }
+
+    @Test
+    public void testLookupTable() {
+        ConsistentHashRing ring = new ConsistentHashRing(Sets.newHashSet(new Member("127.0.0.1", 0)), 8, 2);
+        Random random = new Random(0);
+        for (int i = 1; i <= 40; i++) {
+            // the small rings are searched without the radix index
+            assertLookup(ring, random);
+            ring = ring.addNode(new Member("127.0.0.1", i));
+        }
+    }
+
+    private void assertLookup(ConsistentHashRing ring, Random random) {
+        for (int i = 0; i < ring.getBucketCount(); i++) {
+            ConsistentHashRing.Bucket bucket = ring.getBucket(i);
+            assertEquals(i, ring.findBucketIdFromToken(bucket.token));
+            assertEquals(bucket.members.size(), ring.getReplicaCount(i));
+            for (int j = 0; j < bucket.members.size(); j++) {
+                assertEquals(bucket.members.get(j), ring.getReplica(i, j));
+            }
+        }
+        long[] tokens = {Long.MIN_VALUE, Long.MAX_VALUE, 0, -1};
+        for (int i = 0; i < 1000; i++) {
+            long token = i < tokens.length ? tokens[i] : random.nextLong();
+            int expected = -1;
+            for (int bucket = 0; bucket < ring.getBucketCount(); bucket++) {
+                if (ring.getBucket(bucket).token <= token) {
+                    expected = bucket;
+                }
+            }
+            assertEquals(expected, ring.findBucketIdFromToken(token));
+        }
+    }
+
+    @Test
+    public void testConstructionMatchesAddNode() {
+        for (int bucketPerNode : new int[]{1, 8, 16}) {
+            List<Member> members = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                members.add(new Member("127.0.0.1", i));
+            }
+            // the members join in an order that is different from the order of their addresses
+            Collections.shuffle(members, new Random(bucketPerNode));
+            ConsistentHashRing grown = new ConsistentHashRing(members.subList(0, 1), bucketPerNode, 2);
+            for (Member member : members.subList(1, members.size())) {
+                grown = grown.addNode(member);
+            }
+
+            Collections.shuffle(members, new Random(0));
+            ConsistentHashRing ring = new ConsistentHashRing(members, bucketPerNode, 2);
+            assertEquals(grown, ring);
+            assertEquals(new HashSet<>(members), ring.getMembers());
+            assertEquals(50 * bucketPerNode, ring.getBucketCount());
+        }
+    }
+
+    @Test
+    public void testLowerAddressedJoiner() {
+        List<Member> members = new ArrayList<>();
+        for (int i = 1; i <= 50; i++) {
+            members.add(new Member("127.0.0.2", i));
+        }
+        ConsistentHashRing ring = new ConsistentHashRing(members, 8, 2);
+
+        // the joiner creates its ring from the member list, the others add it to their rings
+        Member joiner = new Member("127.0.0.1", 0);
+        members.add(joiner);
+        ConsistentHashRing joined = ring.addNode(joiner);
+        assertEquals(joined, new ConsistentHashRing(members, 8, 2));
+
+        // the buckets of the other members keep their tokens, the joiner only takes over the ranges before its tokens
+        Set<Long> tokens = new HashSet<>();
+        for (int i = 0; i < joined.getBucketCount(); i++) {
+            tokens.add(joined.getBucket(i).token);
+        }
+        for (int i = 0; i < ring.getBucketCount(); i++) {
+            assertTrue(tokens.contains(ring.getBucket(i).token));
+        }
+
+        assertEquals(ring, joined.removeNode(joiner));
+    }
+
+    @Test
+    public void testLargeRing() {
+        List<Member> members = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            members.add(new Member("10.0." + (i / 256) + "." + (i % 256), 5656));
+        }
+        ConsistentHashRing ring = new ConsistentHashRing(members, 16, 3);
+        assertEquals(16000, ring.getBucketCount());
+        assertEquals(1000, ring.getMemberCount());
+        for (int i = 0; i < ring.getBucketCount(); i++) {
+            assertEquals(3, new HashSet<>(ring.getBucket(i).members).size());
+        }
+    }
+
+    @Test
+    public void testSingleBucketPerNode() {
+        List<Member> members = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            members.add(new Member("127.0.0.1", i));
+        }
+        ConsistentHashRing ring = new ConsistentHashRing(members, 1, 3);
+        assertEquals(10, ring.getBucketCount());
+        for (int i = 0; i < ring.getBucketCount(); i++) {
+            ConsistentHashRing.Bucket bucket = ring.getBucket(i);
+            assertEquals(3, new HashSet<>(bucket.members).size());
+            if (i > 0) {
+                assertTrue(ring.getBucket(i - 1).token < bucket.token);
+            }
+        }
+    }
 }
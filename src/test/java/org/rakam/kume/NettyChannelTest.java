@@ -0,0 +1,187 @@
+package org.rakam.kume;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.HashedWheelTimer;
+import org.junit.After;
+import org.junit.Test;
+import org.rakam.kume.network.AdaptiveTimeout;
+import org.rakam.kume.network.BackpressureMode;
+import org.rakam.kume.network.PendingRequestTable;
+import org.rakam.kume.network.WritabilityMonitor;
+import org.rakam.kume.transport.Packet;
+
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class NettyChannelTest {
+    private final HashedWheelTimer timer = new HashedWheelTimer();
+    private final List<NettyTransport> transports = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        timer.stop();
+        transports.forEach(NettyTransport::close);
+    }
+
+    @Test
+    public void testFailFastRejectsWhenNotWritable() throws InterruptedException {
+        EmbeddedChannel channel = channel();
+        NettyTransport.NettyChannel nettyChannel = nettyChannel(BackpressureMode.FAIL_FAST, channel.newSucceededFuture());
+
+        fill(channel);
+        CompletableFuture future = nettyChannel.ask(new Packet("request", 0));
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        nettyChannel.send(new Packet("message", 0));
+        assertEquals(0, nettyChannel.pendingRequestCount());
+
+        channel.flush();
+        assertTrue(channel.outboundMessages().stream().noneMatch(message -> message instanceof Packet));
+    }
+
+    @Test
+    public void testWaitDefersUntilWritable() {
+        EmbeddedChannel channel = channel();
+        NettyTransport.NettyChannel nettyChannel = nettyChannel(BackpressureMode.WAIT, channel.newSucceededFuture());
+
+        fill(channel);
+        CompletableFuture future = nettyChannel.ask(new Packet("request", 0));
+        nettyChannel.send(new Packet("message", 0));
+        assertFalse(future.isDone());
+        assertEquals(2, channel.attr(WritabilityMonitor.KEY).get().waiterCount());
+
+        // the buffered bytes are written, the deferred packets follow them in order.
+        channel.flush();
+        channel.readOutbound();
+        assertEquals("request", ((Packet) channel.readOutbound()).data);
+        assertEquals("message", ((Packet) channel.readOutbound()).data);
+        assertEquals(1, nettyChannel.pendingRequestCount());
+    }
+
+    @Test
+    public void testNoneWritesRegardless() {
+        EmbeddedChannel channel = channel();
+        NettyTransport.NettyChannel nettyChannel = nettyChannel(BackpressureMode.NONE, channel.newSucceededFuture());
+
+        fill(channel);
+        nettyChannel.ask(new Packet("request", 0));
+        nettyChannel.send(new Packet("message", 0));
+
+        channel.readOutbound();
+        assertEquals("request", ((Packet) channel.readOutbound()).data);
+        assertEquals("message", ((Packet) channel.readOutbound()).data);
+        assertNull(channel.readOutbound());
+    }
+
+    @Test
+    public void testWritesAreBufferedUntilConnected() {
+        EmbeddedChannel channel = channel();
+        ChannelPromise connectFuture = channel.newPromise();
+        NettyTransport.NettyChannel nettyChannel = nettyChannel(BackpressureMode.NONE, connectFuture);
+
+        CompletableFuture future = nettyChannel.ask(new Packet("request", 0));
+        nettyChannel.send(new Packet("message", 0));
+        assertFalse(nettyChannel.isConnected());
+        assertNull(channel.readOutbound());
+        assertFalse(future.isDone());
+
+        connectFuture.setSuccess();
+        assertEquals("request", ((Packet) channel.readOutbound()).data);
+        assertEquals("message", ((Packet) channel.readOutbound()).data);
+        assertNull(channel.readOutbound());
+    }
+
+    @Test
+    public void testBufferedRequestsFailWhenConnectFails() throws InterruptedException {
+        EmbeddedChannel channel = channel();
+        ChannelPromise connectFuture = channel.newPromise();
+        NettyTransport.NettyChannel nettyChannel = nettyChannel(BackpressureMode.NONE, connectFuture);
+
+        CompletableFuture future = nettyChannel.ask(new Packet("request", 0));
+        ConnectException cause = new ConnectException("refused");
+        connectFuture.setFailure(cause);
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertSame(cause, e.getCause());
+        }
+        assertEquals(0, nettyChannel.pendingRequestCount());
+        assertNull(channel.readOutbound());
+    }
+
+    @Test
+    public void testBufferedWritesFallBackWhenConnectFails() {
+        EmbeddedChannel domainSocket = channel();
+        EmbeddedChannel tcp = channel();
+        ChannelPromise connectFuture = domainSocket.newPromise();
+        ChannelPromise fallbackFuture = tcp.newPromise();
+        NettyTransport.NettyChannel nettyChannel = nettyChannel(BackpressureMode.NONE, connectFuture, () -> fallbackFuture);
+
+        CompletableFuture future = nettyChannel.ask(new Packet("request", 0));
+        nettyChannel.send(new Packet("message", 0));
+        connectFuture.setFailure(new ConnectException("refused"));
+        assertFalse(nettyChannel.isConnected());
+        assertFalse(future.isDone());
+
+        fallbackFuture.setSuccess();
+        assertTrue(nettyChannel.isConnected());
+        assertEquals("request", ((Packet) tcp.readOutbound()).data);
+        assertEquals("message", ((Packet) tcp.readOutbound()).data);
+        assertNull(domainSocket.readOutbound());
+        assertEquals(1, nettyChannel.pendingRequestCount());
+    }
+
+    private EmbeddedChannel channel() {
+        EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        WritabilityMonitor monitor = new WritabilityMonitor(channel);
+        channel.attr(WritabilityMonitor.KEY).set(monitor);
+        channel.pipeline().addFirst(monitor);
+        return channel;
+    }
+
+    private NettyTransport.NettyChannel nettyChannel(BackpressureMode backpressure, ChannelFuture connectFuture) {
+        return nettyChannel(backpressure, connectFuture, null);
+    }
+
+    private NettyTransport.NettyChannel nettyChannel(BackpressureMode backpressure, ChannelFuture connectFuture, Supplier<ChannelFuture> fallback) {
+        TransportOptions options = new TransportOptions().backpressure(backpressure);
+        NettyTransport transport = new NettyTransport(null, Collections.emptyList(),
+                new Member(new InetSocketAddress("127.0.0.1", 0)), options);
+        transports.add(transport);
+        AdaptiveTimeout adaptiveTimeout = new AdaptiveTimeout(options);
+        return transport.new NettyChannel(connectFuture, fallback, new PendingRequestTable(timer, adaptiveTimeout), adaptiveTimeout);
+    }
+
+    /**
+     * Writes more than the high water mark to the channel without flushing it.
+     */
+    private static void fill(EmbeddedChannel channel) {
+        channel.config().setWriteBufferLowWaterMark(8);
+        channel.config().setWriteBufferHighWaterMark(16);
+        channel.write(Unpooled.wrappedBuffer(new byte[32]));
+    }
+}
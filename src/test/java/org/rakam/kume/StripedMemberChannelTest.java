@@ -0,0 +1,110 @@
+package org.rakam.kume;
+
+import org.junit.Test;
+import org.rakam.kume.transport.Packet;
+import org.rakam.kume.transport.StripedRequest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+public class StripedMemberChannelTest {
+    private static final int STRIPES = 4;
+
+    @Test
+    public void testSameKeyUsesSameConnection() {
+        StripedMemberChannel channel = new StripedMemberChannel(channels(STRIPES));
+
+        Map<Long, MemberChannel> assigned = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            long key = random.nextInt(100);
+            MemberChannel connection = channel.channelFor(new Packet(i, new KeyRequest(key), 1));
+            MemberChannel previous = assigned.putIfAbsent(key, connection);
+            if (previous != null) {
+                assertSame(previous, connection);
+            }
+        }
+    }
+
+    @Test
+    public void testKeysAreSpreadOverConnections() {
+        StripedMemberChannel channel = new StripedMemberChannel(channels(STRIPES));
+
+        // tokens of a ring only differ in their high bits, they must still be spread over the connections.
+        long step = Long.divideUnsigned(-1L, 64);
+        Map<MemberChannel, Integer> counts = new IdentityHashMap<>();
+        for (int i = 0; i < 64; i++) {
+            long key = Long.MIN_VALUE + step * i;
+            counts.merge(channel.channelFor(new Packet(i, new KeyRequest(key), 1)), 1, Integer::sum);
+        }
+        assertEquals(STRIPES, counts.size());
+
+        Random random = new Random(42);
+        counts.clear();
+        int requests = 10000;
+        for (int i = 0; i < requests; i++) {
+            counts.merge(channel.channelFor(new Packet(i, new KeyRequest(random.nextLong()), 1)), 1, Integer::sum);
+        }
+        assertEquals(STRIPES, counts.size());
+        for (int count : counts.values()) {
+            assertTrue(count > requests / STRIPES / 2);
+        }
+    }
+
+    @Test
+    public void testServicePacketsUseSameConnection() {
+        StripedMemberChannel channel = new StripedMemberChannel(channels(STRIPES));
+
+        for (int service = 0; service < 10; service++) {
+            MemberChannel connection = channel.channelFor(new Packet(0, "first", service));
+            for (int i = 1; i < 10; i++) {
+                assertSame(connection, channel.channelFor(new Packet(i, "next", service)));
+            }
+        }
+    }
+
+    private static List<MemberChannel> channels(int count) {
+        List<MemberChannel> channels = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            channels.add(new MemberChannel() {
+                @Override
+                public CompletableFuture ask(Packet message) {
+                    return new CompletableFuture();
+                }
+
+                @Override
+                public void send(Packet message) {
+                }
+
+                @Override
+                public void close() {
+                }
+            });
+        }
+        return Collections.unmodifiableList(channels);
+    }
+
+    private static class KeyRequest implements StripedRequest {
+        private final long key;
+
+        KeyRequest(long key) {
+            this.key = key;
+        }
+
+        @Override
+        public long stripeKey() {
+            return key;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package org.rakam.kume.benchmark;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.rakam.kume.ByteBufInput;
+import org.rakam.kume.ByteBufOutput;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Compares writing into and reading from a pooled direct buffer with {@link ByteBufOutput} and {@link ByteBufInput}
+ * against Kryo's Output and Input, whose byte arrays have to be copied into and out of the buffer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ByteBufOutputBenchmark {
+    @Param({"ascii", "utf8", "ints", "longs"})
+    public String type;
+
+    private Kryo kryo;
+    private Object value;
+    private ByteBuf buffer;
+    private ByteBuf encoded;
+    private Output output;
+    private Input input;
+    private byte[] bytes;
+
+    @Setup
+    public void setup() {
+        kryo = new Kryo();
+        Random random = new Random(0);
+        switch (type) {
+            case "ascii":
+                value = "org.rakam.kume.service.ringmap.RingMap";
+                break;
+            case "utf8":
+                value = "k\u00fcmeleme i\u00e7in da\u011f\u0131t\u0131k harita";
+                break;
+            case "ints":
+                value = random.ints(128).toArray();
+                break;
+            case "longs":
+                value = random.longs(128).toArray();
+                break;
+            default:
+                throw new IllegalArgumentException(type);
+        }
+
+        buffer = PooledByteBufAllocator.DEFAULT.directBuffer(2048);
+        encoded = PooledByteBufAllocator.DEFAULT.directBuffer(2048);
+        output = new Output(2048);
+        input = new Input();
+        bytes = new byte[2048];
+
+        kryo.writeClassAndObject(new ByteBufOutput(encoded), value);
+    }
+
+    @TearDown
+    public void tearDown() {
+        buffer.release();
+        encoded.release();
+    }
+
+    @Benchmark
+    public ByteBuf kryoOutput() {
+        output.clear();
+        kryo.writeClassAndObject(output, value);
+        buffer.clear();
+        buffer.writeBytes(output.getBuffer(), 0, output.position());
+        return buffer;
+    }
+
+    @Benchmark
+    public ByteBuf byteBufOutput() {
+        buffer.clear();
+        kryo.writeClassAndObject(new ByteBufOutput(buffer), value);
+        return buffer;
+    }
+
+    @Benchmark
+    public Object kryoInput() {
+        int length = encoded.readableBytes();
+        encoded.getBytes(encoded.readerIndex(), bytes, 0, length);
+        input.setBuffer(bytes, 0, length);
+        return kryo.readClassAndObject(input);
+    }
+
+    @Benchmark
+    public Object byteBufInput() {
+        encoded.readerIndex(0);
+        return kryo.readClassAndObject(new ByteBufInput(encoded));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ByteBufOutputBenchmark.class.getSimpleName()).build()).run();
+    }
+}
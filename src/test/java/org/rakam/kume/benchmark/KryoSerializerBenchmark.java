@@ -0,0 +1,90 @@
+package org.rakam.kume.benchmark;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.serializers.FieldSerializer;
+import org.objenesis.strategy.StdInstantiatorStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.rakam.kume.HeartbeatRequest;
+import org.rakam.kume.service.ringmap.AbstractRingMap;
+import org.rakam.kume.transport.serialization.KryoFactory;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Compares the serializers that are generated for the {@code @KryoSerializable} classes with the reflective
+ * {@link FieldSerializer}. Both Kryo instances register the classes with the same ids so only the serializers differ.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KryoSerializerBenchmark {
+    private Kryo generated;
+    private Kryo reflective;
+    private Output output;
+    private Input input;
+    private AbstractRingMap.PutMapOperation put;
+    private HeartbeatRequest heartbeat;
+
+    @Setup
+    public void setup() {
+        generated = KryoFactory.getKryoInstance();
+        reflective = new Kryo();
+        reflective.setInstantiatorStrategy(new Kryo.DefaultInstantiatorStrategy(new StdInstantiatorStrategy()));
+        reflective.register(AbstractRingMap.PutMapOperation.class, new FieldSerializer<>(reflective, AbstractRingMap.PutMapOperation.class), 200);
+        reflective.register(HeartbeatRequest.class, new FieldSerializer<>(reflective, HeartbeatRequest.class), 100);
+
+        output = new Output(256);
+        input = new Input();
+        put = new AbstractRingMap.PutMapOperation("key", "value");
+        heartbeat = new HeartbeatRequest();
+    }
+
+    @Benchmark
+    public Object generatedPut() {
+        return roundTrip(generated, put);
+    }
+
+    @Benchmark
+    public Object reflectivePut() {
+        return roundTrip(reflective, put);
+    }
+
+    @Benchmark
+    public Object generatedHeartbeat() {
+        return roundTrip(generated, heartbeat);
+    }
+
+    @Benchmark
+    public Object reflectiveHeartbeat() {
+        return roundTrip(reflective, heartbeat);
+    }
+
+    private Object roundTrip(Kryo kryo, Object object) {
+        output.clear();
+        kryo.writeClassAndObject(output, object);
+        input.setBuffer(output.getBuffer(), 0, output.position());
+        return kryo.readClassAndObject(input);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(KryoSerializerBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,103 @@
+package org.rakam.kume.benchmark;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.rakam.kume.transport.Packet;
+import org.rakam.kume.transport.PacketHeader;
+import org.rakam.kume.util.Varints;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Compares the compact packet header with the previous fixed header, the int length prefix followed by
+ * the long sequence and the short service id. The size of the headers is reported
+ * as the {@code headerBytes} counter.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketHeaderBenchmark {
+    private static final int PAYLOAD_SIZE = 24;
+
+    private ByteBuf buffer;
+    private PacketHeader encoder;
+    private PacketHeader decoder;
+    private Packet packet;
+
+    @Setup
+    public void setup() {
+        buffer = PooledByteBufAllocator.DEFAULT.directBuffer(64);
+        encoder = new PacketHeader();
+        decoder = new PacketHeader();
+        packet = new Packet(0, null, 3);
+    }
+
+    @TearDown
+    public void tearDown() {
+        buffer.release();
+    }
+
+    @Benchmark
+    public long fixedHeader(HeaderSize size) {
+        buffer.clear();
+        packet.sequence++;
+        writeFixed(buffer, packet);
+        size.headerBytes = buffer.readableBytes();
+        buffer.readInt();
+        long sequence = buffer.readLong();
+        return sequence + buffer.readUnsignedShort();
+    }
+
+    @Benchmark
+    public long compactHeader(HeaderSize size) {
+        buffer.clear();
+        packet.sequence++;
+        writeCompact(buffer, encoder, packet);
+        size.headerBytes = buffer.readableBytes();
+        Varints.readVarint(buffer);
+        Packet read = decoder.read(buffer);
+        return read.sequence + read.service;
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class HeaderSize {
+        // the bytes that are written before the payload, including the length prefix
+        public int headerBytes;
+    }
+
+    private static void writeFixed(ByteBuf buffer, Packet packet) {
+        buffer.writeInt(Long.BYTES + Short.BYTES + PAYLOAD_SIZE);
+        buffer.writeLong(packet.sequence);
+        buffer.writeShort(packet.service);
+    }
+
+    private static void writeCompact(ByteBuf buffer, PacketHeader header, Packet packet) {
+        // the length prefix is written by the frame encoder before the header
+        Varints.writeVarint(buffer, 3 + PAYLOAD_SIZE);
+        header.write(buffer, packet);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(PacketHeaderBenchmark.class.getSimpleName()).build()).run();
+    }
+}
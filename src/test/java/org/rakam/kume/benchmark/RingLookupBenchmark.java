@@ -0,0 +1,103 @@
+package org.rakam.kume.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.rakam.kume.Member;
+import org.rakam.kume.util.ConsistentHashRing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Compares routing a token to its first replica with the primitive lookup table of {@link ConsistentHashRing}
+ * against the previous binary search over the {@link ConsistentHashRing.Bucket} objects and their member lists.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RingLookupBenchmark {
+    private static final int BUCKET_PER_NODE = 8;
+
+    @Param({"8", "64", "512", "4096"})
+    public int bucketCount;
+
+    private ConsistentHashRing ring;
+    private ConsistentHashRing.Bucket[] buckets;
+    private long[] tokens;
+    private int next;
+
+    @Setup
+    public void setup() {
+        List<Member> members = new ArrayList<>();
+        for (int i = 0; i < bucketCount / BUCKET_PER_NODE; i++) {
+            members.add(new Member("127.0.0.1", i));
+        }
+        ring = new ConsistentHashRing(members, BUCKET_PER_NODE, 2);
+        buckets = new ConsistentHashRing.Bucket[ring.getBucketCount()];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = ring.getBucket(i);
+        }
+
+        Random random = new Random(0);
+        tokens = new long[1024];
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = random.nextLong();
+        }
+        // build the table before measuring
+        ring.findBucketIdFromToken(0);
+    }
+
+    @Benchmark
+    public Member lookupTable() {
+        long token = tokens[next++ & (tokens.length - 1)];
+        int bucketId = Math.max(0, ring.findBucketIdFromToken(token));
+        return ring.getReplica(bucketId, 0);
+    }
+
+    @Benchmark
+    public Member bucketArray() {
+        long token = tokens[next++ & (tokens.length - 1)];
+        int bucketId = Math.max(0, findBucketId(buckets, token));
+        return buckets[bucketId].members.get(0);
+    }
+
+    private static int findBucketId(ConsistentHashRing.Bucket[] buckets, long l) {
+        int low = 0;
+        int high = buckets.length - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+
+            if (buckets[mid].token < l)
+                low = mid + 1;
+            else if (buckets[mid].token > l)
+                high = mid - 1;
+            else
+                return mid;
+        }
+
+        return high;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(RingLookupBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,59 @@
+package org.rakam.kume.network;
+
+import org.junit.Test;
+import org.rakam.kume.TransportOptions;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class AdaptiveTimeoutTest {
+    @Test
+    public void testBuckets() {
+        for (long micros = 0; micros < 1_000_000; micros += 7) {
+            int bucket = LatencyHistogram.bucket(micros);
+            assertTrue(micros < LatencyHistogram.upperBound(bucket));
+            assertTrue(bucket == 0 || micros >= LatencyHistogram.upperBound(bucket - 1));
+        }
+    }
+
+    @Test
+    public void testTimeoutFollowsLatency() {
+        TransportOptions options = new TransportOptions()
+                .adaptiveTimeout(true)
+                .adaptiveTimeoutBounds(10, 1000, TimeUnit.MILLISECONDS);
+        AdaptiveTimeout timeout = new AdaptiveTimeout(options);
+        assertEquals(TimeUnit.SECONDS.toNanos(1), timeout.timeoutNanos());
+
+        for (int i = 0; i < 1000; i++) {
+            timeout.record(TimeUnit.MILLISECONDS.toNanos(20));
+        }
+        long millis = TimeUnit.NANOSECONDS.toMillis(timeout.timeoutNanos());
+        assertTrue("timeout is " + millis, millis >= 40 && millis <= 50);
+
+        // fast replies are bounded by the floor once the old samples decay
+        for (int i = 0; i < 50000; i++) {
+            timeout.record(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(10), timeout.timeoutNanos());
+
+        // the timed out requests raise the timeout until the ceiling
+        for (int i = 0; i < 10000; i++) {
+            timeout.timedOut(timeout.timeoutNanos());
+        }
+        assertEquals(TimeUnit.SECONDS.toNanos(1), timeout.timeoutNanos());
+    }
+
+    @Test
+    public void testDisabled() {
+        TransportOptions options = new TransportOptions().requestTimeout(5, TimeUnit.SECONDS);
+        AdaptiveTimeout timeout = new AdaptiveTimeout(options);
+        for (int i = 0; i < 1000; i++) {
+            timeout.record(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        assertEquals(TimeUnit.SECONDS.toNanos(5), timeout.timeoutNanos());
+        assertTrue(timeout.latency(0.5) >= TimeUnit.MILLISECONDS.toNanos(1));
+    }
+}
@@ -0,0 +1,42 @@
+package org.rakam.kume.network;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.stream.ChunkedWriteHandler;
+import org.junit.Test;
+import org.rakam.kume.TransportOptions;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class ChunkedFrameCodecTest {
+
+    @Test
+    public void testSplitLargePacket() {
+        TransportOptions options = new TransportOptions().chunkSize(1000);
+        EmbeddedChannel sender = new EmbeddedChannel(new ChunkedWriteHandler(), new ChunkedFrameCodec(options));
+        EmbeddedChannel receiver = new EmbeddedChannel(new ChunkedFrameCodec(options));
+
+        byte[] small = new byte[100];
+        byte[] large = new byte[10500];
+        new Random(1).nextBytes(large);
+
+        sender.writeOutbound(Unpooled.wrappedBuffer(large), Unpooled.wrappedBuffer(small));
+
+        int frames = 0;
+        ByteBuf frame;
+        while ((frame = (ByteBuf) sender.readOutbound()) != null) {
+            assertTrue(frame.readableBytes() <= 1001);
+            receiver.writeInbound(frame);
+            frames++;
+        }
+        assertEquals(12, frames);
+
+        assertEquals(Unpooled.wrappedBuffer(large), receiver.readInbound());
+        assertEquals(Unpooled.wrappedBuffer(small), receiver.readInbound());
+    }
+}
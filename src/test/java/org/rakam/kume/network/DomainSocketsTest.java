@@ -0,0 +1,76 @@
+package org.rakam.kume.network;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.rakam.kume.TransportOptions;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+
+public class DomainSocketsTest {
+    // TEST-NET-1 is reserved for documentation, it's never assigned to an interface of this host.
+    private static final byte[] REMOTE = {(byte) 192, 0, 2, 1};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testLocalMemberUsesSocket() throws IOException {
+        TransportOptions options = options();
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 5656);
+        File socket = DomainSockets.socketFile(options, address);
+        socket.createNewFile();
+
+        assertEquals(socket, DomainSockets.findSocket(options, EventLoopType.EPOLL, address));
+    }
+
+    @Test
+    public void testFallsBackToTcpWithoutEpoll() throws IOException {
+        TransportOptions options = options();
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 5656);
+        DomainSockets.socketFile(options, address).createNewFile();
+
+        assertNull(DomainSockets.findSocket(options, EventLoopType.NIO, address));
+        assertNull(DomainSockets.findSocket(new TransportOptions(), EventLoopType.EPOLL, address));
+    }
+
+    @Test
+    public void testFallsBackToTcpForRemoteMember() throws IOException {
+        TransportOptions options = options();
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getByAddress(REMOTE), 5656);
+        DomainSockets.socketFile(options, address).createNewFile();
+
+        assertNull(DomainSockets.findSocket(options, EventLoopType.EPOLL, address));
+    }
+
+    @Test
+    public void testMembersOnTheSamePortHaveDifferentSockets() throws IOException {
+        TransportOptions options = options();
+        InetSocketAddress first = new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 5656);
+        InetSocketAddress second = new InetSocketAddress(InetAddress.getByName("127.0.0.2"), 5656);
+        File socket = DomainSockets.socketFile(options, first);
+        socket.createNewFile();
+
+        assertNotEquals(socket, DomainSockets.socketFile(options, second));
+        assertEquals(socket, DomainSockets.findSocket(options, EventLoopType.EPOLL, first));
+        assertNull(DomainSockets.findSocket(options, EventLoopType.EPOLL, second));
+    }
+
+    @Test
+    public void testFallsBackToTcpWithoutSocket() throws IOException {
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 5656);
+        assertNull(DomainSockets.findSocket(options(), EventLoopType.EPOLL, address));
+    }
+
+    private TransportOptions options() {
+        return new TransportOptions().domainSocketDirectory(folder.getRoot().getPath());
+    }
+}
@@ -0,0 +1,42 @@
+package org.rakam.kume.network;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class EventLoopTypeTest {
+
+    @Test
+    public void testFallsBackToNioWithoutEpoll() {
+        assertEquals(EventLoopType.NIO, EventLoopType.EPOLL.resolve(false, true));
+        assertEquals(EventLoopType.NIO, EventLoopType.EPOLL.resolve(true, false));
+        assertEquals(EventLoopType.EPOLL, EventLoopType.EPOLL.resolve(true, true));
+    }
+
+    @Test
+    public void testNioIsNeverChanged() {
+        assertEquals(EventLoopType.NIO, EventLoopType.NIO.resolve(false, false));
+        assertEquals(EventLoopType.NIO, EventLoopType.NIO.resolve(true, true));
+    }
+
+    @Test
+    public void testResolvedTypeIsUsable() {
+        EventLoopType type = EventLoopType.EPOLL.resolve();
+        if (!Epoll.isAvailable()) {
+            assertEquals(EventLoopType.NIO, type);
+            assertEquals(NioSocketChannel.class, type.socketChannel());
+        }
+
+        EventLoopGroup group = type.newEventLoopGroup(1);
+        try {
+            assertTrue(group.next() != null);
+        } finally {
+            group.shutdownGracefully();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package org.rakam.kume.network;
+
+import io.netty.buffer.AbstractByteBufAllocator;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.TooLongFrameException;
+import org.junit.Test;
+import org.rakam.kume.TransportOptions;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class FrameCompressionHandlerTest {
+    private static final String LARGE = new String(new char[10000]).replace('\0', 'a');
+
+    @Test
+    public void testCompressLargeFrames() {
+        TransportOptions options = new TransportOptions().compression(true).compressionThreshold(1024);
+        FrameCompressionHandler client = new FrameCompressionHandler(options);
+        FrameCompressionHandler server = new FrameCompressionHandler(options);
+        EmbeddedChannel clientChannel = new EmbeddedChannel(client);
+        EmbeddedChannel serverChannel = new EmbeddedChannel(server);
+        handshake(clientChannel, serverChannel);
+
+        assertTrue(client.isCompressing());
+        assertEquals("small", transfer(clientChannel, serverChannel, "small"));
+        assertEquals(LARGE, transfer(clientChannel, serverChannel, LARGE));
+
+        assertEquals(1, client.stats().compressedFrames());
+        assertTrue(client.stats().ratio() < 0.1);
+        assertEquals(1, server.stats().decompressedFrames());
+    }
+
+    @Test
+    public void testPeerWithoutCompression() {
+        FrameCompressionHandler client = new FrameCompressionHandler(new TransportOptions().compression(true).compressionThreshold(1024));
+        FrameCompressionHandler server = new FrameCompressionHandler(new TransportOptions());
+        EmbeddedChannel clientChannel = new EmbeddedChannel(client);
+        EmbeddedChannel serverChannel = new EmbeddedChannel(server);
+        handshake(clientChannel, serverChannel);
+
+        assertFalse(client.isCompressing());
+        assertEquals(LARGE, transfer(clientChannel, serverChannel, LARGE));
+        assertEquals(0, client.stats().compressedFrames());
+    }
+
+    @Test
+    public void testDecompressedLengthIsLimited() {
+        EmbeddedChannel channel = new EmbeddedChannel(new FrameCompressionHandler(new TransportOptions().compression(true)));
+        AtomicInteger largestBuffer = new AtomicInteger();
+        channel.config().setAllocator(new AbstractByteBufAllocator() {
+            @Override
+            protected ByteBuf newHeapBuffer(int initialCapacity, int maxCapacity) {
+                largestBuffer.accumulateAndGet(initialCapacity, Math::max);
+                return UnpooledByteBufAllocator.DEFAULT.heapBuffer(initialCapacity, maxCapacity);
+            }
+
+            @Override
+            protected ByteBuf newDirectBuffer(int initialCapacity, int maxCapacity) {
+                largestBuffer.accumulateAndGet(initialCapacity, Math::max);
+                return UnpooledByteBufAllocator.DEFAULT.directBuffer(initialCapacity, maxCapacity);
+            }
+
+            @Override
+            public boolean isDirectBufferPooled() {
+                return false;
+            }
+        });
+
+        // an LZ4 frame that claims to decompress to more than a frame, it's below the message size limit
+        ByteBuf frame = Unpooled.buffer();
+        frame.writeByte(1);
+        frame.writeInt(TransportOptions.MAX_FRAME_SIZE + 1);
+        frame.writeZero(16);
+        try {
+            channel.writeInbound(frame);
+            fail();
+        } catch (TooLongFrameException e) {
+            // expected
+        }
+        assertEquals(0, largestBuffer.get());
+    }
+
+    private void handshake(EmbeddedChannel client, EmbeddedChannel server) {
+        server.writeInbound(client.readOutbound());
+        client.writeInbound(server.readOutbound());
+    }
+
+    private String transfer(EmbeddedChannel from, EmbeddedChannel to, String value) {
+        from.writeOutbound(Unpooled.copiedBuffer(value, StandardCharsets.UTF_8));
+        to.writeInbound(from.readOutbound());
+        ByteBuf received = (ByteBuf) to.readInbound();
+        String result = received.toString(StandardCharsets.UTF_8);
+        received.release();
+        return result;
+    }
+}
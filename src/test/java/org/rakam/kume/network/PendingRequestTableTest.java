@@ -0,0 +1,93 @@
+package org.rakam.kume.network;
+
+import io.netty.util.HashedWheelTimer;
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class PendingRequestTableTest {
+    private final HashedWheelTimer timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS);
+
+    @After
+    public void tearDown() {
+        timer.stop();
+    }
+
+    @Test
+    public void testCompleteInRandomOrder() {
+        PendingRequestTable table = new PendingRequestTable(timer);
+        List<CompletableFuture<Object>> futures = new ArrayList<>();
+        List<Long> sequences = new ArrayList<>();
+
+        for (int i = 0; i < 10000; i++) {
+            CompletableFuture<Object> future = new CompletableFuture<>();
+            futures.add(future);
+            sequences.add(table.register(future, 1, TimeUnit.MINUTES));
+        }
+        assertEquals(10000, table.size());
+
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < futures.size(); i++) {
+            order.add(i);
+        }
+        Collections.shuffle(order, new Random(0));
+
+        for (int idx : order) {
+            assertTrue(table.complete(sequences.get(idx), idx));
+            assertFalse(table.complete(sequences.get(idx), idx));
+        }
+
+        assertEquals(0, table.size());
+        for (int i = 0; i < futures.size(); i++) {
+            assertEquals(i, futures.get(i).join());
+        }
+    }
+
+    @Test
+    public void testTimeout() throws InterruptedException {
+        PendingRequestTable table = new PendingRequestTable(timer);
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        long sequence = table.register(future, 50, TimeUnit.MILLISECONDS);
+
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        } catch (TimeoutException e) {
+            fail("the request is not expired");
+        }
+        assertEquals(0, table.size());
+        assertFalse(table.complete(sequence, null));
+    }
+
+    @Test
+    public void testFailAll() {
+        PendingRequestTable table = new PendingRequestTable(timer);
+        CompletableFuture<Object> first = new CompletableFuture<>();
+        CompletableFuture<Object> second = new CompletableFuture<>();
+        table.register(first, 1, TimeUnit.MINUTES);
+        table.register(second, 1, TimeUnit.MINUTES);
+
+        table.failAll(new ClosedChannelException());
+
+        assertTrue(first.isCompletedExceptionally());
+        assertTrue(second.isCompletedExceptionally());
+        assertEquals(0, table.size());
+    }
+}
@@ -0,0 +1,140 @@
+package org.rakam.kume.network;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.After;
+import org.junit.Test;
+import org.rakam.kume.Member;
+import org.rakam.kume.TransportOptions;
+import org.rakam.kume.service.Service;
+import org.rakam.kume.transport.NonBlockingRequest;
+import org.rakam.kume.transport.OperationContext;
+import org.rakam.kume.transport.Packet;
+import org.rakam.kume.transport.Request;
+import org.rakam.kume.util.ThrowableNioEventLoopGroup;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class ServerChannelAdapterTest {
+    private final ThrowableNioEventLoopGroup executor = new ThrowableNioEventLoopGroup(1, "test", (t, e) -> {});
+
+    @After
+    public void tearDown() {
+        executor.shutdownGracefully();
+    }
+
+    @Test
+    public void testNonBlockingRequestRunsOnIOThread() {
+        EmbeddedChannel channel = channel(new TransportOptions());
+        channel.writeInbound(new Packet(7, new ThreadNameRequest(), 0));
+
+        // the reply is written before the packet is read completely, no task is submitted to the executor.
+        Packet reply = (Packet) channel.readOutbound();
+        assertEquals(7, reply.sequence);
+        assertEquals(Thread.currentThread().getName(), reply.getData());
+    }
+
+    @Test
+    public void testInliningDisabled() throws InterruptedException {
+        EmbeddedChannel channel = channel(new TransportOptions().inlineNonBlockingRequests(false));
+        // the executor thread writes to the embedded channel directly, hold the request until the read returns.
+        CountDownLatch released = new CountDownLatch(1);
+        channel.writeInbound(new Packet(7, new ThreadNameRequest(released), 0));
+        assertNull(channel.readOutbound());
+
+        released.countDown();
+        executor.getChild(0).submit(() -> {}).await();
+        channel.runPendingTasks();
+        Packet reply = (Packet) channel.readOutbound();
+        assertEquals(7, reply.sequence);
+        assertEquals("test-0", reply.getData());
+    }
+
+    @Test
+    public void testReadingPausedWhileNotWritable() {
+        EmbeddedChannel channel = channel(new TransportOptions().backpressure(BackpressureMode.WAIT));
+        assertTrue(channel.config().isAutoRead());
+
+        WritabilityMonitorTest.fill(channel);
+        assertFalse(channel.isWritable());
+        assertFalse(channel.config().isAutoRead());
+
+        channel.flush();
+        assertTrue(channel.isWritable());
+        assertTrue(channel.config().isAutoRead());
+    }
+
+    @Test
+    public void testReadingNotPausedWithoutBackpressure() {
+        EmbeddedChannel channel = channel(new TransportOptions().backpressure(BackpressureMode.NONE));
+
+        WritabilityMonitorTest.fill(channel);
+        assertFalse(channel.isWritable());
+        assertTrue(channel.config().isAutoRead());
+    }
+
+    @Test
+    public void testHandshakeBindsSender() {
+        EmbeddedChannel channel = channel(new TransportOptions());
+        Member member = new Member("127.0.0.1", 5656);
+
+        channel.writeInbound(new Packet(member, Packet.HANDSHAKE_SERVICE));
+        assertNull(channel.readOutbound());
+        assertEquals(member, channel.attr(ServerChannelAdapter.MEMBER).get());
+
+        channel.writeInbound(new Packet(7, new SenderRequest(), 0));
+        Packet reply = (Packet) channel.readOutbound();
+        assertEquals(7, reply.sequence);
+        assertEquals(member, reply.getData());
+    }
+
+    @Test
+    public void testInvalidHandshakeClosesChannel() {
+        EmbeddedChannel channel = channel(new TransportOptions());
+
+        channel.writeInbound(new Packet("member", Packet.HANDSHAKE_SERVICE));
+        assertFalse(channel.isOpen());
+        assertNull(channel.attr(ServerChannelAdapter.MEMBER).get());
+    }
+
+    private EmbeddedChannel channel(TransportOptions options) {
+        Service service = new Service() {
+            @Override
+            public void onClose() {
+            }
+        };
+        return new EmbeddedChannel(new ServerChannelAdapter(Collections.singletonList(service), executor, options));
+    }
+
+    private static class SenderRequest implements Request<Service, Member>, NonBlockingRequest {
+        @Override
+        public void run(Service service, OperationContext<Member> ctx) {
+            ctx.reply(ctx.getSender());
+        }
+    }
+
+    private static class ThreadNameRequest implements Request<Service, String>, NonBlockingRequest {
+        private final CountDownLatch released;
+
+        ThreadNameRequest() {
+            this(new CountDownLatch(0));
+        }
+
+        ThreadNameRequest(CountDownLatch released) {
+            this.released = released;
+        }
+
+        @Override
+        public void run(Service service, OperationContext<String> ctx) {
+            Uninterruptibles.awaitUninterruptibly(released);
+            ctx.reply(Thread.currentThread().getName());
+        }
+    }
+}
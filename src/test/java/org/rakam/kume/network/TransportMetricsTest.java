@@ -0,0 +1,127 @@
+package org.rakam.kume.network;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import org.junit.Test;
+import org.rakam.kume.Member;
+import org.rakam.kume.transport.Packet;
+import org.rakam.kume.transport.PacketDecoder;
+import org.rakam.kume.transport.PacketEncoder;
+
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class TransportMetricsTest {
+    private static final List<String> SERVICES = Arrays.asList("internal", "first", "second");
+
+    @Test
+    public void testTrafficByMemberAndService() {
+        TransportMetrics metrics = new TransportMetrics(SERVICES);
+        Member member = new Member("127.0.0.1", 5656);
+
+        // the handlers need the channel, they are added in front of the handler that collects the inbound messages
+        EmbeddedChannel encoder = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        ChannelMetrics encoderMetrics = new ChannelMetrics(metrics, encoder);
+        encoder.attr(ServerChannelAdapter.MEMBER).set(member);
+        encoder.pipeline().addFirst(new PacketEncoder(encoderMetrics), encoderMetrics);
+
+        EmbeddedChannel decoder = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        ChannelMetrics decoderMetrics = new ChannelMetrics(metrics, decoder);
+        decoder.pipeline().addFirst(new PacketDecoder(false, decoderMetrics), decoderMetrics);
+
+        encoder.writeOutbound(new Packet(0, "first", 1));
+        encoder.writeOutbound(new Packet(1, "second", 2));
+        encoder.writeOutbound(new Packet(2, member, Packet.HANDSHAKE_SERVICE));
+        long bytes = 0;
+        for (int i = 0; i < 3; i++) {
+            ByteBuf frame = (ByteBuf) encoder.readOutbound();
+            bytes += frame.readableBytes();
+            decoder.writeInbound(frame);
+        }
+
+        TransportSnapshot snapshot = metrics.snapshot();
+        TransportSnapshot.MemberStats sender = snapshot.getMember(member);
+        assertEquals(3, sender.getTraffic().getPacketsOut());
+        assertEquals(bytes, sender.getTraffic().getBytesOut());
+        assertEquals(0, sender.getTraffic().getPacketsIn());
+
+        // the receiving channel didn't bind a member yet
+        TransportSnapshot.MemberStats receiver = snapshot.getMembers().get(1);
+        assertNull(receiver.member());
+        assertEquals(3, receiver.getTraffic().getPacketsIn());
+        assertEquals(bytes, receiver.getTraffic().getBytesIn());
+
+        // the handshake is not counted for any service
+        assertEquals(2, snapshot.getServices().size());
+        assertEquals(1, snapshot.getService(1).getTraffic().getPacketsOut());
+        assertEquals(1, snapshot.getService(2).getTraffic().getPacketsIn());
+        assertNull(snapshot.getService(Packet.HANDSHAKE_SERVICE));
+        assertEquals(2, snapshot.getTotal().getPacketsOut());
+        assertTrue(snapshot.getTotal().getBytesOut() < bytes);
+
+        encoder.finish();
+        decoder.finish();
+        assertTrue(metrics.getMembers().isEmpty());
+    }
+
+    @Test
+    public void testUnknownServiceIsNotCounted() {
+        TransportMetrics metrics = new TransportMetrics(SERVICES);
+        EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        ChannelMetrics channelMetrics = new ChannelMetrics(metrics, channel);
+
+        // the id comes from the peer, it must not grow the counters
+        channelMetrics.decoded(Integer.MAX_VALUE - 1, 10, 0);
+        channelMetrics.decoded(3, 10, 0);
+        channelMetrics.decoded(1, 10, 0);
+        assertNull(metrics.service(Integer.MAX_VALUE - 1));
+        assertEquals(1, metrics.getServices().size());
+        assertEquals(3, channelMetrics.traffic().snapshot().getPacketsIn());
+        channel.finish();
+    }
+
+    @Test
+    public void testFailedConnectIsUnregistered() throws Exception {
+        TransportMetrics metrics = new TransportMetrics(SERVICES);
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+
+        NioEventLoopGroup group = new NioEventLoopGroup(1);
+        try {
+            ChannelFuture connect = new Bootstrap().group(group).channel(NioSocketChannel.class)
+                    .handler(new ChannelInitializer<Channel>() {
+                        @Override
+                        protected void initChannel(Channel ch) {
+                            ch.pipeline().addLast(new ChannelMetrics(metrics, ch));
+                        }
+                    }).connect(new InetSocketAddress("127.0.0.1", port)).await();
+            assertFalse(connect.isSuccess());
+            // the listeners are notified in order, the metrics are unregistered when this one runs
+            CountDownLatch closed = new CountDownLatch(1);
+            connect.channel().closeFuture().addListener(f -> closed.countDown());
+            assertTrue(closed.await(5, TimeUnit.SECONDS));
+            assertTrue(metrics.getMembers().isEmpty());
+        } finally {
+            group.shutdownGracefully();
+        }
+    }
+}
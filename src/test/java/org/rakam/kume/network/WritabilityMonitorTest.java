@@ -0,0 +1,72 @@
+package org.rakam.kume.network;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class WritabilityMonitorTest {
+
+    @Test
+    public void testWaitersAreReleasedWhenWritable() {
+        EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        WritabilityMonitor monitor = monitor(channel);
+        assertTrue(monitor.whenWritable().isDone());
+
+        fill(channel);
+        assertFalse(channel.isWritable());
+        CompletableFuture<Void> first = monitor.whenWritable();
+        CompletableFuture<Void> second = monitor.whenWritable();
+        assertFalse(first.isDone());
+        assertEquals(2, monitor.waiterCount());
+
+        channel.flush();
+        assertTrue(channel.isWritable());
+        assertTrue(first.isDone() && !first.isCompletedExceptionally());
+        assertTrue(second.isDone() && !second.isCompletedExceptionally());
+        assertEquals(0, monitor.waiterCount());
+        assertEquals(2, monitor.writabilityChanges());
+    }
+
+    @Test
+    public void testWaitersFailWhenClosed() throws InterruptedException {
+        EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        WritabilityMonitor monitor = monitor(channel);
+
+        fill(channel);
+        CompletableFuture<Void> waiter = monitor.whenWritable();
+        channel.close();
+        try {
+            waiter.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ClosedChannelException);
+        }
+    }
+
+    static WritabilityMonitor monitor(EmbeddedChannel channel) {
+        WritabilityMonitor monitor = new WritabilityMonitor(channel);
+        channel.attr(WritabilityMonitor.KEY).set(monitor);
+        channel.pipeline().addFirst(monitor);
+        return monitor;
+    }
+
+    /**
+     * Writes more than the high water mark to the channel without flushing it.
+     */
+    static void fill(EmbeddedChannel channel) {
+        channel.config().setWriteBufferLowWaterMark(8);
+        channel.config().setWriteBufferHighWaterMark(16);
+        channel.write(Unpooled.wrappedBuffer(new byte[32]));
+    }
+}
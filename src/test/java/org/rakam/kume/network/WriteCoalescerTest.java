@@ -0,0 +1,168 @@
+package org.rakam.kume.network;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalChannel;
+import io.netty.channel.local.LocalEventLoopGroup;
+import io.netty.channel.local.LocalServerChannel;
+import org.junit.After;
+import org.junit.Test;
+import org.rakam.kume.TransportOptions;
+import org.rakam.kume.service.Service;
+import org.rakam.kume.transport.NonBlockingRequest;
+import org.rakam.kume.transport.OperationContext;
+import org.rakam.kume.transport.Packet;
+import org.rakam.kume.transport.Request;
+import org.rakam.kume.util.ThrowableNioEventLoopGroup;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class WriteCoalescerTest {
+    private final ThrowableNioEventLoopGroup executor = new ThrowableNioEventLoopGroup(1, "test", (t, e) -> {});
+
+    @After
+    public void tearDown() {
+        executor.shutdownGracefully();
+    }
+
+    @Test
+    public void testWritesOfLoopTurnAreFlushedOnce() {
+        FlushCounter flushes = new FlushCounter();
+        EmbeddedChannel channel = channel(flushes);
+        channel.attr(WriteCoalescer.KEY).set(new WriteCoalescer(channel, new TransportOptions().writeCoalescing(true)));
+
+        // the replies of the requests that are read together are written in the same loop turn, the flush task
+        // runs after them when the channel runs its pending tasks at the end of writeInbound.
+        channel.writeInbound(request(1), request(2), request(3));
+        assertEquals(1, flushes.count);
+        for (int i = 1; i <= 3; i++) {
+            assertEquals(i, ((Packet) channel.readOutbound()).sequence);
+        }
+
+        WriteCoalescer coalescer = channel.attr(WriteCoalescer.KEY).get();
+        assertEquals(3, coalescer.messageCount());
+        assertEquals(1, coalescer.flushCount());
+        assertEquals(3, coalescer.largestBatch());
+    }
+
+    @Test
+    public void testFullBatchIsFlushedImmediately() {
+        FlushCounter flushes = new FlushCounter();
+        EmbeddedChannel channel = channel(flushes);
+        WriteCoalescer coalescer = new WriteCoalescer(channel, new TransportOptions().writeCoalescing(true).maxBatchSize(2));
+
+        coalescer.write("first");
+        assertEquals(0, flushes.count);
+        assertNull(channel.readOutbound());
+        coalescer.write("second");
+        assertEquals(1, flushes.count);
+        assertEquals("first", channel.readOutbound());
+        assertEquals("second", channel.readOutbound());
+
+        coalescer.write("third");
+        assertNull(channel.readOutbound());
+        channel.runPendingTasks();
+        assertEquals("third", channel.readOutbound());
+        assertEquals(2, coalescer.flushCount());
+        assertEquals(3, coalescer.messageCount());
+    }
+
+    @Test
+    public void testWithoutCoalescingEachReplyIsFlushed() {
+        FlushCounter flushes = new FlushCounter();
+        EmbeddedChannel channel = channel(flushes);
+
+        channel.writeInbound(request(1), request(2), request(3));
+        assertEquals(3, flushes.count);
+        for (int i = 1; i <= 3; i++) {
+            assertEquals(i, ((Packet) channel.readOutbound()).sequence);
+        }
+    }
+
+    @Test
+    public void testConcurrentWritesAreFlushed() throws Exception {
+        LocalEventLoopGroup group = new LocalEventLoopGroup(1);
+        try {
+            Semaphore received = new Semaphore(0);
+            LocalAddress address = new LocalAddress("WriteCoalescerTest");
+            Channel server = new ServerBootstrap().group(group).channel(LocalServerChannel.class)
+                    .childHandler(new ChannelInboundHandlerAdapter() {
+                        @Override
+                        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                            received.release();
+                        }
+                    }).bind(address).sync().channel();
+            Channel client = new Bootstrap().group(group).channel(LocalChannel.class)
+                    .handler(new ChannelInboundHandlerAdapter()).connect(address).sync().channel();
+            WriteCoalescer coalescer = new WriteCoalescer(client, new TransportOptions().writeCoalescing(true));
+
+            // the writes of both threads wait in the queue of the event loop together with the flush task of the
+            // first one, nothing is written after them so both must be flushed by the coalescer itself.
+            CountDownLatch blocked = new CountDownLatch(1);
+            client.eventLoop().execute(() -> Uninterruptibles.awaitUninterruptibly(blocked));
+            for (String message : new String[]{"first", "second"}) {
+                Thread writer = new Thread(() -> coalescer.write(message));
+                writer.start();
+                writer.join();
+            }
+            blocked.countDown();
+
+            assertTrue(received.tryAcquire(2, 5, TimeUnit.SECONDS));
+            // the peer may read the messages before the statistics of the flush are updated.
+            client.eventLoop().submit(() -> {}).sync();
+            assertEquals(2, coalescer.messageCount());
+            assertEquals(1, coalescer.flushCount());
+
+            client.close().sync();
+            server.close().sync();
+        } finally {
+            group.shutdownGracefully();
+        }
+    }
+
+    private EmbeddedChannel channel(FlushCounter flushes) {
+        Service service = new Service() {
+            @Override
+            public void onClose() {
+            }
+        };
+        return new EmbeddedChannel(flushes,
+                new ServerChannelAdapter(Collections.singletonList(service), executor, new TransportOptions()));
+    }
+
+    private static Packet request(long sequence) {
+        return new Packet(sequence, new EchoRequest(), 0);
+    }
+
+    private static class FlushCounter extends ChannelOutboundHandlerAdapter {
+        int count;
+
+        @Override
+        public void flush(ChannelHandlerContext ctx) throws Exception {
+            count++;
+            super.flush(ctx);
+        }
+    }
+
+    private static class EchoRequest implements Request<Service, String>, NonBlockingRequest {
+        @Override
+        public void run(Service service, OperationContext<String> ctx) {
+            ctx.reply("reply");
+        }
+    }
+}
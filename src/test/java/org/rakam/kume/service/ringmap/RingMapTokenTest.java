@@ -0,0 +1,114 @@
+package org.rakam.kume.service.ringmap;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.rakam.kume.Cluster;
+import org.rakam.kume.ClusterBuilder;
+import org.rakam.kume.KumeTest;
+import org.rakam.kume.Member;
+import org.rakam.kume.service.ServiceListBuilder;
+import org.rakam.kume.transport.LocalOperationContext;
+import org.rakam.kume.transport.Request;
+import org.rakam.kume.util.ConsistentHashRing;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiFunction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.fail;
+
+
+public class RingMapTokenTest extends KumeTest {
+    private static final String KEY = "key";
+
+    private Cluster cluster;
+    private RingMap<String, Integer> ringMap;
+
+    @Before
+    public void setUp() {
+        ImmutableList<ServiceListBuilder.Constructor> services = new ServiceListBuilder()
+                .add("map", bus -> new RingMap<String, Integer>(bus, (first, second) -> second, 1)).build();
+        cluster = createFixedFakeCluster(2, services).findFirst().get().joinStrategy(membership -> {}).start();
+        ringMap = cluster.getService("map");
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        cluster.close();
+    }
+
+    @Test
+    public void testSentTokenIsNotRehashed() {
+        // a token of a local bucket that the key doesn't hash to, the receiver must use it as it is.
+        long token = token(true);
+        ConsistentHashRing ring = ringMap.getRing();
+        assertNotEquals(ring.findBucketIdFromToken(ConsistentHashRing.hash(KEY)), ring.findBucketIdFromToken(token));
+
+        run(new AbstractRingMap.PutMapOperation(KEY, token, 1));
+        assertEquals(Integer.valueOf(1), ringMap.getBucketForToken(token).get(KEY));
+        assertEquals(1, run(new GetRequest<>(KEY, token)));
+
+        run(new RingMap.MergeMapOperation<>(KEY, token, 2, (BiFunction<Integer, Integer, Integer>) Integer::sum));
+        assertEquals(3, run(new GetRequest<>(KEY, token)));
+
+        for (Map<String, Integer> partition : ringMap.map) {
+            if (partition != ringMap.getBucketForToken(token)) {
+                assertFalse(partition.containsKey(KEY));
+            }
+        }
+    }
+
+    @Test
+    public void testTokenOfOtherMemberIsRejected() {
+        long token = token(false);
+
+        run(new AbstractRingMap.PutMapOperation(KEY, token, 1));
+        assertEquals(0, ringMap.getLocalSize());
+
+        try {
+            run(new GetRequest<>(KEY, token));
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        RingMap.MergeMapOperation<Integer> merge = new RingMap.MergeMapOperation<>(KEY, token, 2, (BiFunction<Integer, Integer, Integer>) (first, second) -> second);
+        try {
+            merge.getPartition(ringMap);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            run(merge);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(0, ringMap.getLocalSize());
+    }
+
+    private long token(boolean local) {
+        Member localMember = cluster.getLocalMember();
+        ConsistentHashRing ring = ringMap.getRing();
+        int keyBucket = ring.findBucketIdFromToken(ConsistentHashRing.hash(KEY));
+        for (Map.Entry<ConsistentHashRing.TokenRange, List<Member>> entry : ring.getBuckets().entrySet()) {
+            if (entry.getKey().id != keyBucket && entry.getValue().contains(localMember) == local) {
+                return entry.getKey().start;
+            }
+        }
+        throw new IllegalStateException("the ring doesn't have such a bucket");
+    }
+
+    private Object run(Request request) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        request.run(ringMap, new LocalOperationContext<>(future, 1, cluster.getLocalMember()));
+        return future.getNow(null);
+    }
+}
@@ -0,0 +1,197 @@
+package org.rakam.kume.transport;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class PacketCodecTest {
+
+    @Test
+    public void testLazyDecode() {
+        Packet packet = roundTrip(new Packet(5, "test", 2), true);
+
+        assertEquals(5, packet.sequence);
+        assertEquals(2, packet.service);
+        assertTrue(packet.data instanceof SerializedPayload);
+
+        SerializedPayload payload = (SerializedPayload) packet.data;
+        assertEquals("test", payload.deserialize());
+        assertTrue(payload.isReleased());
+    }
+
+    @Test
+    public void testForwardSerializedPayload() {
+        SerializedPayload payload = SerializedPayload.of("test");
+        Packet packet = roundTrip(PacketEncoder.retainPayload(new Packet(5, payload, 2)), false);
+        payload.release();
+
+        assertEquals(5, packet.sequence);
+        assertEquals("test", packet.data);
+    }
+
+    @Test
+    public void testCompactHeader() {
+        EmbeddedChannel encoder = new EmbeddedChannel(new PacketEncoder());
+        EmbeddedChannel decoder = new EmbeddedChannel(new PacketDecoder());
+        Packet[] packets = {
+                new Packet(0, 1, 2),
+                new Packet(1, 2, 2),
+                new Packet(3, 3, 300),
+                new Packet(2, 4, Packet.HANDSHAKE_SERVICE),
+                new Packet(5, 254),
+                Packet.reply(Long.MAX_VALUE, 6, 0),
+                new Packet(4, 7, 0),
+        };
+
+        for (Packet packet : packets) {
+            encoder.writeOutbound(packet);
+            ByteBuf frame = (ByteBuf) encoder.readOutbound();
+            if (packet.sequence == 1) {
+                // flags, service and a single byte zigzag sequence delta before the payload
+                assertEquals(Packet.REQUEST, frame.getByte(0));
+                assertEquals(2, frame.getByte(1));
+                assertEquals(2, frame.getByte(2));
+            }
+            decoder.writeInbound(frame);
+            Packet decoded = (Packet) decoder.readInbound();
+            assertEquals(packet.sequence, decoded.sequence);
+            assertEquals(packet.service, decoded.service);
+            assertEquals(packet.type(), decoded.type());
+            assertEquals(packet.data, decoded.data);
+        }
+    }
+
+    @Test
+    public void testCorruptPayloadIsSkipped() {
+        EmbeddedChannel encoder = new EmbeddedChannel(new PacketEncoder());
+        EmbeddedChannel decoder = new EmbeddedChannel(new PacketDecoder());
+        encoder.writeOutbound(new Packet(0, "first", 1));
+        ByteBuf frame = (ByteBuf) encoder.readOutbound();
+        // an unregistered class id right after the 3 byte header
+        frame.setByte(3, 0x7F);
+        decoder.writeInbound(frame);
+        assertNull(decoder.readInbound());
+        assertTrue(decoder.isOpen());
+
+        // the header was read so the sequence of the next packet is still in sync
+        encoder.writeOutbound(new Packet(1, "second", 1));
+        decoder.writeInbound(encoder.readOutbound());
+        Packet decoded = (Packet) decoder.readInbound();
+        assertEquals(1, decoded.sequence);
+        assertEquals("second", decoded.data);
+    }
+
+    @Test
+    public void testCorruptHeaderClosesChannel() {
+        EmbeddedChannel decoder = new EmbeddedChannel(new PacketDecoder());
+        decoder.writeInbound(Unpooled.wrappedBuffer(new byte[]{(byte) 0xF0, 1, 2, 3}));
+        assertNull(decoder.readInbound());
+        assertFalse(decoder.isOpen());
+    }
+
+    @Test
+    public void testMultiPacket() {
+        for (boolean lazy : new boolean[]{false, true}) {
+            EmbeddedChannel encoder = new EmbeddedChannel(new PacketEncoder());
+            SerializedPayload forwarded = SerializedPayload.of("forwarded");
+            encoder.writeOutbound(new MultiPacket(Arrays.asList(
+                    new Packet(0, "first", 1),
+                    new Packet("oneway", 2),
+                    PacketEncoder.retainPayload(new Packet(1, forwarded, 300)))));
+            forwarded.release();
+
+            EmbeddedChannel decoder = new EmbeddedChannel(new PacketDecoder(lazy));
+            decoder.writeInbound(encoder.readOutbound());
+            Packet[] expected = {new Packet(0, "first", 1), new Packet("oneway", 2), new Packet(1, "forwarded", 300)};
+            for (Packet packet : expected) {
+                Packet decoded = (Packet) decoder.readInbound();
+                assertEquals(packet.sequence, decoded.sequence);
+                assertEquals(packet.service, decoded.service);
+                Object data = lazy ? ((SerializedPayload) decoded.data).deserialize() : decoded.data;
+                assertEquals(packet.data, data);
+            }
+            assertNull(decoder.readInbound());
+        }
+    }
+
+    @Test
+    public void testClassDictionary() {
+        EmbeddedChannel encoder = new EmbeddedChannel(new PacketEncoder());
+        EmbeddedChannel decoder = new EmbeddedChannel(new PacketDecoder());
+        String suffix = "-suffix";
+        SerializableFunction function = value -> value + suffix;
+
+        encoder.writeOutbound(new Packet(0, function, 1));
+        // the call site of the lambda is defined before the packet
+        ByteBuf definitions = (ByteBuf) encoder.readOutbound();
+        assertEquals(PacketHeader.DEFINITIONS, definitions.getByte(0));
+        assertTrue(contains(definitions, PacketCodecTest.class.getSimpleName()));
+        ByteBuf first = (ByteBuf) encoder.readOutbound();
+        int firstSize = first.readableBytes();
+        decoder.writeInbound(definitions);
+        decoder.writeInbound(first);
+
+        encoder.writeOutbound(new Packet(1, function, 1));
+        ByteBuf second = (ByteBuf) encoder.readOutbound();
+        // the call site is not defined again, both packets only carry its id and the captured argument
+        assertNull(encoder.readOutbound());
+        assertFalse(contains(first, PacketCodecTest.class.getSimpleName()));
+        assertFalse(contains(second, PacketCodecTest.class.getSimpleName()));
+        assertEquals(firstSize, second.readableBytes());
+        decoder.writeInbound(second);
+
+        for (int i = 0; i < 2; i++) {
+            Packet decoded = (Packet) decoder.readInbound();
+            assertEquals(i, decoded.sequence);
+            assertEquals("value-suffix", ((SerializableFunction) decoded.data).apply("value"));
+        }
+    }
+
+    @Test
+    public void testForwardDictionaryPayload() {
+        EmbeddedChannel encoder = new EmbeddedChannel(new PacketEncoder());
+        EmbeddedChannel decoder = new EmbeddedChannel(new PacketDecoder(true));
+        encoder.writeOutbound(new Packet(0, new ArrayList<>(Arrays.asList(1, 2)), 1));
+        decoder.writeInbound(encoder.readOutbound());
+        decoder.writeInbound(encoder.readOutbound());
+
+        Packet received = (Packet) decoder.readInbound();
+        SerializedPayload payload = (SerializedPayload) received.data;
+        assertFalse(payload.isPortable());
+
+        // the ids are only valid on the connection that the payload is received from
+        Packet forwarded = PacketEncoder.retainPayload(received);
+        assertEquals(Arrays.asList(1, 2), forwarded.data);
+        payload.release();
+    }
+
+    interface SerializableFunction extends Function<String, String>, Serializable {
+    }
+
+    private Packet roundTrip(Packet packet, boolean lazy) {
+        EmbeddedChannel encoder = new EmbeddedChannel(new PacketEncoder());
+        encoder.writeOutbound(packet);
+        ByteBuf frame = (ByteBuf) encoder.readOutbound();
+
+        EmbeddedChannel decoder = new EmbeddedChannel(new PacketDecoder(lazy));
+        decoder.writeInbound(frame);
+        return (Packet) decoder.readInbound();
+    }
+
+    private static boolean contains(ByteBuf frame, String name) {
+        return frame.toString(StandardCharsets.ISO_8859_1).contains(name);
+    }
+}
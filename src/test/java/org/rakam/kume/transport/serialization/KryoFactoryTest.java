@@ -0,0 +1,98 @@
+package org.rakam.kume.transport.serialization;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+import org.rakam.kume.ByteBufInput;
+import org.rakam.kume.ByteBufOutput;
+import org.rakam.kume.HeartbeatRequest;
+import org.rakam.kume.KryoSerializable;
+import org.rakam.kume.service.ringmap.AbstractRingMap;
+import org.rakam.kume.service.ringmap.RingMap;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class KryoFactoryTest {
+
+    @Test
+    public void testAnnotatedClassesAreRegistered() {
+        Map<Integer, Class<?>> classes = KryoFactory.getAnnotatedClasses();
+        assertEquals(HeartbeatRequest.class, classes.get(100));
+        assertEquals(AbstractRingMap.PutMapOperation.class, classes.get(200));
+
+        Kryo kryo = KryoFactory.getKryoInstance();
+        for (Map.Entry<Integer, Class<?>> entry : classes.entrySet()) {
+            assertEquals(entry.getKey().intValue(), kryo.getRegistration(entry.getValue()).getId());
+        }
+    }
+
+    @Test
+    public void testRegisteredClassIsWrittenAsId() {
+        Kryo kryo = KryoFactory.getKryoInstance();
+        // the size is checked with the output of Kryo so that it only depends on the registration
+        Output output = new Output(64);
+        kryo.writeClassAndObject(output, new HeartbeatRequest());
+
+        // a varint class id and no class name
+        assertTrue(output.position() <= 2);
+
+        ByteBuf buffer = Unpooled.buffer();
+        kryo.writeClassAndObject(new ByteBufOutput(buffer), new HeartbeatRequest());
+        assertTrue(kryo.readClassAndObject(new ByteBufInput(buffer)) instanceof HeartbeatRequest);
+    }
+
+    @Test
+    public void testGeneratedSerializer() {
+        Kryo kryo = KryoFactory.getKryoInstance();
+        assertEquals(KryoFactory.generatedSerializerName(AbstractRingMap.PutMapOperation.class),
+                kryo.getRegistration(AbstractRingMap.PutMapOperation.class).getSerializer().getClass().getName());
+
+        ByteBuf buffer = Unpooled.buffer();
+        kryo.writeClassAndObject(new ByteBufOutput(buffer), new AbstractRingMap.PutMapOperation("key", "value"));
+        AbstractRingMap.PutMapOperation read = (AbstractRingMap.PutMapOperation) kryo.readClassAndObject(new ByteBufInput(buffer));
+        assertEquals("key".hashCode(), read.stripeKey());
+    }
+
+    @Test
+    public void testGeneratedSerializerWithFinalFields() {
+        Kryo kryo = KryoFactory.getKryoInstance();
+        // the final remapping function is passed to the constructor
+        assertEquals(KryoFactory.generatedSerializerName(RingMap.MergeMapOperation.class),
+                kryo.getRegistration(RingMap.MergeMapOperation.class).getSerializer().getClass().getName());
+
+        ByteBuf buffer = Unpooled.buffer();
+        kryo.writeClassAndObject(new ByteBufOutput(buffer), new RingMap.MergeMapOperation("key", Long.MIN_VALUE, "value", null));
+        RingMap.MergeMapOperation read = (RingMap.MergeMapOperation) kryo.readClassAndObject(new ByteBufInput(buffer));
+        assertEquals("key".hashCode(), read.stripeKey());
+        assertEquals(0, buffer.readableBytes());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDuplicateId() {
+        KryoFactory.annotatedClasses(Arrays.asList(First.class, Second.class));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReservedId() {
+        KryoFactory.annotatedClasses(Arrays.asList(Reserved.class));
+    }
+
+    @KryoSerializable(id = 1000)
+    static class First {
+    }
+
+    @KryoSerializable(id = 1000)
+    static class Second {
+    }
+
+    @KryoSerializable(id = 3)
+    static class Reserved {
+    }
+}
@@ -0,0 +1,88 @@
+package org.rakam.kume.util;
+
+import com.google.common.hash.PrimitiveSink;
+import org.junit.Test;
+import org.rakam.kume.transport.serialization.SinkSerializable;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class KeyHashersTest {
+
+    @Test
+    public void testXxHash64() {
+        assertEquals(0xEF46DB3751D8E999L, KeyHashers.hash(new byte[0]));
+    }
+
+    @Test
+    public void testDefaultHashers() {
+        for (String value : new String[]{"", "a", "abc", "hello world", "\u00fcn\u00efc\u00f6d\u00e9", "a string that is longer than 32 bytes"}) {
+            assertEquals(KeyHashers.hash(value.getBytes(StandardCharsets.UTF_16LE)), KeyHashers.hash((Object) value));
+        }
+        for (long value : new long[]{0, 1, -1, Long.MIN_VALUE, Long.MAX_VALUE}) {
+            byte[] bytes = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(value).array();
+            assertEquals(KeyHashers.hash(bytes), KeyHashers.hash((Object) value));
+            bytes = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt((int) value).array();
+            assertEquals(KeyHashers.hash(bytes), KeyHashers.hash((Object) (int) value));
+        }
+    }
+
+    @Test
+    public void testSinkSerializable() {
+        Key key = new Key("a key that fills more than one stripe", 42);
+        ByteBuffer expected = ByteBuffer.allocate(key.name.length() * 2 + 8).order(ByteOrder.LITTLE_ENDIAN);
+        for (char c : key.name.toCharArray()) {
+            expected.putChar(c);
+        }
+        expected.putLong(key.id);
+
+        assertEquals(KeyHashers.hash(expected.array()), KeyHashers.hash(key));
+        // the sink is reused
+        assertEquals(KeyHashers.hash(expected.array()), KeyHashers.hash(key));
+    }
+
+    @Test
+    public void testRegisteredHasher() {
+        KeyHashers.register(Custom.class, key -> key.value);
+        assertEquals(7, ConsistentHashRing.hash(new Custom(7)));
+        assertEquals(8, ConsistentHashRing.hash(new CustomSubclass(8)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownKeyType() {
+        ConsistentHashRing.hash(new Object());
+    }
+
+    static class Key implements SinkSerializable {
+        final String name;
+        final long id;
+
+        Key(String name, long id) {
+            this.name = name;
+            this.id = id;
+        }
+
+        @Override
+        public void writeTo(PrimitiveSink sink) {
+            sink.putUnencodedChars(name).putLong(id);
+        }
+    }
+
+    static class Custom {
+        final long value;
+
+        Custom(long value) {
+            this.value = value;
+        }
+    }
+
+    static class CustomSubclass extends Custom {
+        CustomSubclass(long value) {
+            super(value);
+        }
+    }
+}
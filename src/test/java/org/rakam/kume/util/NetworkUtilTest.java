@@ -0,0 +1,35 @@
+package org.rakam.kume.util;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.Collections;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class NetworkUtilTest {
+
+    @Test
+    public void testLocalAddresses() throws SocketException, UnknownHostException {
+        assertTrue(NetworkUtil.isLocalAddress(InetAddress.getLoopbackAddress()));
+        assertTrue(NetworkUtil.isLocalAddress(InetAddress.getByAddress(new byte[4])));
+
+        for (NetworkInterface networkInterface : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+            for (InetAddress address : Collections.list(networkInterface.getInetAddresses())) {
+                assertTrue(address.toString(), NetworkUtil.isLocalAddress(address));
+            }
+        }
+    }
+
+    @Test
+    public void testRemoteAddresses() throws UnknownHostException {
+        assertFalse(NetworkUtil.isLocalAddress(null));
+        // TEST-NET-1 is reserved for documentation, it's never assigned to an interface of this host.
+        assertFalse(NetworkUtil.isLocalAddress(InetAddress.getByAddress(new byte[]{(byte) 192, 0, 2, 1})));
+    }
+}